@@ -1,6 +1,9 @@
 package org.act.temporalProperty;
 
+import org.act.temporalProperty.impl.CompressionType;
+import org.act.temporalProperty.impl.LatestValueMap;
 import org.act.temporalProperty.impl.MemTable;
+import org.act.temporalProperty.impl.PointValueCache;
 import org.act.temporalProperty.index.IndexType;
 import org.act.temporalProperty.index.value.IndexMetaData;
 import org.act.temporalProperty.index.value.IndexQueryRegion;
@@ -11,9 +14,12 @@ import org.act.temporalProperty.query.TimePointL;
 import org.act.temporalProperty.query.aggr.AggregationIndexQueryResult;
 import org.act.temporalProperty.query.aggr.ValueGroupingMap;
 import org.act.temporalProperty.query.range.InternalEntryRangeQueryCallBack;
+import org.act.temporalProperty.table.CompactionPolicy;
+import org.act.temporalProperty.util.IoRateLimiter;
 import org.act.temporalProperty.util.Slice;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * 时态属性存储系统，对外提供其功能的接口
@@ -27,7 +33,7 @@ public interface TemporalPropertyStore
 	 */
 	String MagicNumber = "c003bf3c9563aa283d49c17fc13f736e5493107c"; //40bytes==160bits
 
-	int Version = 2;
+	int Version = 3; // 3: InternalKey改为可按字节比较的编码
 
 	/**
 	 * 对某个时态属性进行时间点查询，返回查询的 结果
@@ -61,6 +67,37 @@ public interface TemporalPropertyStore
 	 */
 	boolean createProperty(int propertyId, ValueContentType type);
 
+	/**
+	 * 设置某个时态属性的合并策略（不持久化，每次打开存储后需重新设置，否则为默认的cascade策略）
+	 * @param propertyId 时态属性的id，必须已存在
+	 * @param policy 见CompactionPolicy.cascade/sizeTiered/timeWindow
+	 */
+	void setCompactionPolicy(int propertyId, CompactionPolicy policy);
+
+	/**
+	 * 设置某个时态属性新生成的文件的压缩方式（不持久化，每次打开存储后需重新设置，已有文件在下次合并时按新设置重写）
+	 * @param propertyId 时态属性的id，必须已存在
+	 * @param unstable UnStableFile的压缩方式，合并频繁，建议NONE或SNAPPY
+	 * @param stable StableFile的压缩方式，数据冷且量大，建议DEFLATE
+	 * @param dictionary DEFLATE时是否使用文件内的压缩字典（见Options.compressionDictionary）
+	 */
+	void setCompression(int propertyId, CompressionType unstable, CompressionType stable, boolean dictionary);
+
+	/**
+	 * @return 后台合并（包括buffer合并、创建索引）读写磁盘的限速器，可在运行时调整读写速度
+	 */
+	IoRateLimiter mergeIoLimiter();
+
+	/**
+	 * @return 时间点查询结果的缓存，可读取命中数、结果数和占用的内存等统计信息，未开启（CONFIG_POINT_CACHE_SIZE为0）时为null
+	 */
+	PointValueCache pointValueCache();
+
+	/**
+	 * @return Now时刻的值表，可读取命中数、表项数和启动时的加载时间等统计信息，未开启（CONFIG_LATEST_VALUE_MAP）时为null
+	 */
+	LatestValueMap latestValueMap();
+
     /**
      * 写入某个时态属性的值，值的起始时间和结束时间都是inclusive
      * @param key 由InternalKey(时态属性所属的点/边的id+时态属性id+相应值有效的起始时间)+endTime组成
@@ -68,6 +105,14 @@ public interface TemporalPropertyStore
      * @return 是否写入成功
      */
     boolean setProperty(TimeIntervalKey key, Slice value );
+
+    /**
+     * 批量写入时态属性的值，整个batch只获取一次写锁、只检查一次MemTable是否写满、只写一条WAL记录。
+     * 注意entries会被遍历多次。
+     * @param entries 按顺序写入的(key, value)
+     * @return 是否写入成功
+     */
+    boolean setProperties(Iterable<Map.Entry<TimeIntervalKey,Slice>> entries );
     
     /**
      * 删除某个时态属性
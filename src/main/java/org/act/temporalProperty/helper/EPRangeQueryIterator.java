@@ -17,7 +17,8 @@ public class EPRangeQueryIterator implements SearchableIterator{
     private final TimePointL end;
     private final TimePointL start;
     private byte iteratorId = 0;
-    private final MemTable[] memTables = new MemTable[]{null, null, null};
+    private final MemTable[] memTables = new MemTable[]{null, null};
+    private final List<MemTable> stableMemTables = new ArrayList<>(); // older first
     private final List<Triple<String, SearchableIterator, SearchableIterator>> diskIterators = new ArrayList<>();
 
     public final Map<SearchableIterator, String> debugIterName = new HashMap<>();
@@ -30,6 +31,10 @@ public class EPRangeQueryIterator implements SearchableIterator{
         this.end = end;
     }
 
+    public EntityPropertyId getId() {
+        return id;
+    }
+
     public void addTransactionMemTable(MemTable table){
         memTables[0] = table;
     }
@@ -38,8 +43,9 @@ public class EPRangeQueryIterator implements SearchableIterator{
         memTables[1] = table;
     }
 
+    // should add in the order they are submitted to merge (older first)
     public void addStableMemTable(MemTable table){
-        memTables[2] = table;
+        stableMemTables.add(table);
     }
 
     public void appendStables(SearchableIterator fileIterator, SearchableIterator bufferIter, FileMetaData meta){
@@ -60,8 +66,8 @@ public class EPRangeQueryIterator implements SearchableIterator{
 
     public void build(){
         SearchableIterator memIter = ep(memTables[1].iterator(), "memTable");
-        if(memTables[2]!=null) {
-            memIter = epMerge(ep(memTables[2].iterator(), "stableMemTable"), memIter, "mem/stm");
+        for(int i=stableMemTables.size()-1; i>=0; i--) {
+            memIter = epMerge(ep(stableMemTables.get(i).iterator(), "stableMemTable"+i), memIter, "mem/stm"+i);
         }
         if(memTables[0]!=null){
             memIter = epMerge(memIter, ep(memTables[0].iterator(), "txMemTable"), "tx/");
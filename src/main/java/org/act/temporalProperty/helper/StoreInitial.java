@@ -1,31 +1,46 @@
 package org.act.temporalProperty.helper;
 
+import org.act.temporalProperty.TemporalPropertyStore;
 import org.act.temporalProperty.exception.TPSMetaLoadFailedException;
 import org.act.temporalProperty.exception.TPSRuntimeException;
+import org.act.temporalProperty.impl.FileMetaData;
 import org.act.temporalProperty.impl.Filename;
+import org.act.temporalProperty.impl.InternalKey;
 import org.act.temporalProperty.impl.LogReader;
 import org.act.temporalProperty.impl.MemTable;
+import org.act.temporalProperty.impl.Options;
+import org.act.temporalProperty.impl.TemporalPropertyStoreImpl;
+import org.act.temporalProperty.impl.WriteAheadLog;
 import org.act.temporalProperty.vo.TimeIntervalValueEntry;
+import org.act.temporalProperty.meta.PropertyMetaData;
 import org.act.temporalProperty.meta.SystemMeta;
 import org.act.temporalProperty.meta.SystemMetaController;
 import org.act.temporalProperty.meta.SystemMetaFile;
 import org.act.temporalProperty.table.*;
 import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.util.SliceInput;
 
 import java.io.*;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
 import java.util.Set;
 
 /**
  * Created by song on 2018-01-17.
  */
 public class StoreInitial {
+    // InternalKey改为可按字节比较的编码的版本
+    private static final int KEY_FORMAT_VERSION = 3;
     private final String metaName = "meta.info";
     private final String metaTmpName = "meta.info.tmp";
     private final File rootDir;
+    private final List<File> recovered = new ArrayList<>();
+    private int metaVersion = TemporalPropertyStore.Version;
 
     public StoreInitial(File rootDir){
         this.rootDir = rootDir;
@@ -59,14 +74,14 @@ public class StoreInitial {
                 }
                 if(metaFile!=null && metaTmpFile!=null){
                     if(metaTmpFile.getTime()>metaFile.getTime()){
-                        return SystemMetaController.decode(metaTmpFile.getMeta(), metaTmpFile.getVersion());
+                        return decode(metaTmpFile);
                     }else{
-                        return SystemMetaController.decode(metaFile.getMeta(), metaFile.getVersion());
+                        return decode(metaFile);
                     }
                 }else if(metaFile!=null && metaTmpFile==null){
-                    return SystemMetaController.decode(metaFile.getMeta(), metaFile.getVersion());
+                    return decode(metaFile);
                 }else if(metaFile==null && metaTmpFile!=null){
-                    return SystemMetaController.decode(metaTmpFile.getMeta(), metaTmpFile.getVersion());
+                    return decode(metaTmpFile);
                 }else{//metaFile==null && metaTmpFile==null
                     //throw new TPSMetaLoadFailedException("has meta file but both read failed");
                     return null;
@@ -78,6 +93,11 @@ public class StoreInitial {
         return null;
     }
 
+    private SystemMeta decode(SystemMetaFile file){
+        this.metaVersion = file.getVersion();
+        return SystemMetaController.decode(file.getMeta(), file.getVersion());
+    }
+
     public SystemMeta getMetaInfo() throws TPSMetaLoadFailedException {
         SystemMeta meta = findAndLoadMeta(rootDir);
         if(meta==null){
@@ -88,6 +108,58 @@ public class StoreInitial {
         }
     }
 
+    /**
+     * Version 3把InternalKey改为可按字节比较的编码（见InternalKey.encode），旧版本的StableFile和UnStableFile需要重写一遍：
+     * 每个文件用旧的比较器打开，重新编码key后写为version+1的新文件。全部写完后才写入新的meta，再删除旧文件，
+     * 因此中途崩溃时旧meta和旧文件都还在，下次启动会重新升级。Buffer和索引文件的格式与InternalKey无关，不需要升级。
+     */
+    public void upgradeTables(SystemMeta meta) throws IOException {
+        if(metaVersion >= KEY_FORMAT_VERSION) return;
+        List<String> old2delete = new ArrayList<>();
+        for(PropertyMetaData pMeta : meta.getProperties().values()){
+            File proDir = new File(rootDir, pMeta.getPropertyId().toString());
+            for(FileMetaData f : new ArrayList<>(pMeta.getUnStableFiles().values())){
+                String path = Filename.unPath(proDir, f.getNumber(), f.getVersion());
+                pMeta.addUnstable(upgradeTable(f, path, Filename.unPath(proDir, f.getNumber(), f.getVersion()+1), pMeta.tableOptions(TemporalPropertyStoreImpl.tableOptions(false), false)));
+                old2delete.add(path);
+            }
+            for(FileMetaData f : new ArrayList<>(pMeta.getStableFiles().values())){
+                String path = Filename.stPath(proDir, f.getNumber(), f.getVersion());
+                pMeta.addStable(upgradeTable(f, path, Filename.stPath(proDir, f.getNumber(), f.getVersion()+1), pMeta.tableOptions(TemporalPropertyStoreImpl.tableOptions(true), true)));
+                old2delete.add(path);
+            }
+        }
+        SystemMetaController.forceToDisk(rootDir, meta);
+        metaVersion = TemporalPropertyStore.Version;
+        for(String path : old2delete){
+            Files.deleteIfExists(new File(path).toPath());
+        }
+        System.out.println("upgrade "+old2delete.size()+" table files to version "+TemporalPropertyStore.Version);
+    }
+
+    private FileMetaData upgradeTable(FileMetaData meta, String sourcePath, String targetPath, Options options) throws IOException {
+        File targetFile = new File(targetPath);
+        Files.deleteIfExists(targetFile.toPath());
+        try(FileInputStream input = new FileInputStream(sourcePath);
+            FileChannel source = input.getChannel();
+            FileOutputStream output = new FileOutputStream(targetFile);
+            FileChannel target = output.getChannel()) {
+            Table table = new FileChannelTable(sourcePath, source, TableComparator.legacy(), ChecksumMode.ALWAYS);
+            TableBuilder builder = new TableBuilder(options, target, TableComparator.instance());
+            TableIterator iterator = table.iterator();
+            while(iterator.hasNext()){
+                Entry<Slice, Slice> entry = iterator.next();
+                builder.add(InternalKey.decodeV2(entry.getKey()).encode(), entry.getValue());
+            }
+            builder.finish();
+            return new FileMetaData(meta.getNumber(), builder.getFileSize(), meta.getSmallest(), meta.getLargest(), meta.getVersion()+1);
+        }
+    }
+
+    /**
+     * 恢复MemTable：先读取上次正常关闭时写入的dbtmp文件，再按编号顺序重放WAL日志文件。
+     * 读取过的文件在调用deleteRecoveredLogs()时才删除（此时它们的内容应已写入新的WAL中）。
+     */
     public MemTable getMemTable() {
         try{
             String tempFileName = Filename.tempFileName(0);
@@ -96,19 +168,13 @@ public class StoreInitial {
             MemTable memTable = new MemTable();
             if( tempFile.exists()){
                 if((tempFile.length() >= Footer.ENCODED_LENGTH)) {
-                    FileInputStream inputStream = new FileInputStream(tempFile);
-                    FileChannel channel = inputStream.getChannel();
-                    LogReader reader = new LogReader(channel, null, false, 0);
-                    Slice rawEntry;
-                    while((rawEntry = reader.readRecord())!=null)
-                    {
-                        TimeIntervalValueEntry entry = TimeIntervalValueEntry.decode( rawEntry.input() );
-                        memTable.addInterval( entry.getKey(), entry.getValue() );
-                    }
-                    channel.close();
-                    inputStream.close();
+                    replay(tempFile, memTable, false);
                 }
-                Files.delete(tempFile.toPath());
+                recovered.add(tempFile);
+            }
+            for(File walFile : WriteAheadLog.existLogFiles(rootDir)){
+                replay(walFile, memTable, true);
+                recovered.add(walFile);
             }
             return memTable;
         }catch( IOException e ){
@@ -116,4 +182,29 @@ public class StoreInitial {
         }
     }
 
+    // WAL的最后一条记录可能因崩溃只写了一半，需要校验checksum，丢弃损坏的记录
+    private void replay(File logFile, MemTable memTable, boolean verifyChecksums) throws IOException {
+        try(FileInputStream inputStream = new FileInputStream(logFile);
+            FileChannel channel = inputStream.getChannel()) {
+            LogReader reader = new LogReader(channel, null, verifyChecksums, 0);
+            Slice rawEntry;
+            while((rawEntry = reader.readRecord())!=null)
+            {
+                SliceInput in = rawEntry.input();
+                while(in.isReadable()) // a WAL record may contain a batch of entries.
+                {
+                    TimeIntervalValueEntry entry = TimeIntervalValueEntry.decode( in );
+                    memTable.addInterval( entry.getKey(), entry.getValue() );
+                }
+            }
+        }
+    }
+
+    public void deleteRecoveredLogs() throws IOException {
+        for(File f : recovered){
+            Files.deleteIfExists(f.toPath());
+        }
+        recovered.clear();
+    }
+
 }
@@ -13,6 +13,8 @@ public class StoreLock{
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
     private final Condition memTableSubmitted = lock.writeLock().newCondition();
     private final Condition mergeDone = lock.writeLock().newCondition();
+    // 并发写模式下写线程持有读锁，切换MemTable(epoch flip)时持有写锁。
+    private final ReentrantReadWriteLock epoch = new ReentrantReadWriteLock();
     private boolean systemDown = false;
 
     public void shutdown(){
@@ -78,6 +80,25 @@ public class StoreLock{
         mergeDone.signalAll();
     }
 
+    public void enterWriteEpoch(){
+        epoch.readLock().lock();
+    }
+
+    public void exitWriteEpoch(){
+        epoch.readLock().unlock();
+    }
+
+    /**
+     * 等待正在写当前MemTable的线程完成，并阻止新的写入，直到flipEpochEnd
+     */
+    public void flipEpochBegin(){
+        epoch.writeLock().lock();
+    }
+
+    public void flipEpochEnd(){
+        epoch.writeLock().unlock();
+    }
+
     public void shutdownLockExclusive()
     {
         lock.writeLock().lock();
@@ -17,10 +17,33 @@
  */
 package org.act.temporalProperty.impl;
 
+/**
+ * 数据块的压缩方式，记录在BlockTrailer中。SNAPPY速度快，适合频繁合并的UnStableFile；
+ * DEFLATE压缩率高，适合冷的StableFile，可以使用文件级的预设字典（见TableBuilder）。
+ * 每个属性的UnStableFile和StableFile可以分别设置，见TemporalPropertyStore.setCompression
+ */
 public enum CompressionType
 {
     NONE(0x00),
-    SNAPPY(0x01);
+    SNAPPY(0x01),
+    DEFLATE(0x02);
+
+    /**
+     * @param name none, snappy or deflate (ignore case), null for default
+     */
+    public static CompressionType parse(String name, CompressionType defaultType)
+    {
+        if (name == null) {
+            return defaultType;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println("unknown compression type " + name + ", use " + defaultType);
+            return defaultType;
+        }
+    }
 
     public static CompressionType getCompressionTypeByPersistentId(int persistentId)
     {
@@ -5,7 +5,6 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 
-import org.act.temporalProperty.TemporalPropertyStore;
 import org.act.temporalProperty.query.TimeIntervalKey;
 import org.act.temporalProperty.table.UnSortedTable;
 import org.act.temporalProperty.util.Slice;
@@ -13,6 +12,7 @@ import org.act.temporalProperty.util.SliceInput;
 import org.act.temporalProperty.util.SliceOutput;
 
 import static org.act.temporalProperty.impl.TemporalPropertyStoreImpl.BULK_MODE;
+import static org.act.temporalProperty.impl.TemporalPropertyStoreImpl.MEMTABLE_STRIPES;
 
 /**
  * 是系统处理对StableFile或UnStableFile插入操作的机制，对应设计文档中的Buffer,包括了内存中的结果和对应的备份文件。每一个FileBuffer固定对应一个StableFile或UnStableFile。
@@ -39,7 +39,7 @@ public class FileBuffer implements Closeable
     public FileBuffer(File unSortedTableFile, long id, int version) throws IOException{
         this(id, version);
         this.fName = unSortedTableFile.getAbsolutePath();
-        this.memTable = new MemTable();
+        this.memTable = new MemTable( MEMTABLE_STRIPES ); // written by merge thread while queries are reading.
         Files.deleteIfExists(unSortedTableFile.toPath());
         Files.createFile(unSortedTableFile.toPath());
         this.discTable = new UnSortedTable(unSortedTableFile);
@@ -47,7 +47,7 @@ public class FileBuffer implements Closeable
 
     public void init(File bufLogFile ) throws IOException{
         this.fName = bufLogFile.getAbsolutePath();
-        this.memTable = new MemTable();
+        this.memTable = new MemTable( MEMTABLE_STRIPES );
         this.discTable = new UnSortedTable(bufLogFile, this.memTable);
     }
 
@@ -126,7 +126,7 @@ public class FileBuffer implements Closeable
     public static FileBuffer decode(SliceInput in, int version) {
         long id = in.readLong();
         int fVersion = in.readInt();
-        if(version == TemporalPropertyStore.Version){
+        if(version >= 2){
             return new FileBuffer(id, fVersion);
         }else {
             return new FileBuffer(id);
@@ -187,6 +187,15 @@ public class FileChannelLogWriter
         }
     }
 
+    /**
+     * force written records to disk without blocking concurrent addRecord calls.
+     */
+    public void sync()
+            throws IOException
+    {
+        fileChannel.force(false);
+    }
+
     private void writeChunk(LogChunkType type, Slice slice)
             throws IOException
     {
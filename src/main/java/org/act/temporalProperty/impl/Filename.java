@@ -95,6 +95,14 @@ public final class Filename
         return makeFileName(number, "dbtmp");
     }
 
+    /**
+     * 返回预写日志(WAL)文件的名称
+     */
+    public static String walFileName(long number)
+    {
+        return makeFileName(number, "wal");
+    }
+
     /**
      * If filename is a leveldb file, store the type of the file in *type.
      * The number encoded in the filename is stored in *number.  If the
@@ -19,6 +19,8 @@ import static org.act.temporalProperty.util.SizeOf.SIZE_OF_LONG;
  */
 public class InternalKey implements Comparable<InternalKey>
 {
+    public static final int ENCODED_LENGTH = SIZE_OF_INT + SIZE_OF_LONG + SIZE_OF_LONG;
+
     private final EntityPropertyId id;
     /**
      * 一个动态属性某个值的起始时间
@@ -145,34 +147,123 @@ public class InternalKey implements Comparable<InternalKey>
         }
     }
 
+    /**
+     * 编码为可按字节比较的格式（大端序，共20字节），两个编码后的key可以直接用{@link #compareEncoded}比较而不需要解码:
+     * |propertyId|entityId|time    |ValueType|
+     *     32        64      61bits    3bit
+     * propertyId和entityId翻转了符号位，time为Init时存0，Now时存NOW_STORAGE，其余存time+1。
+     * ValueType放在最低3位，不参与比较（与compareTo一致）。
+     * Version 3之前的文件使用旧格式，见{@link #decodeV2}
+     */
     public Slice encode()
     {
-        DynamicSliceOutput out = new DynamicSliceOutput(SIZE_OF_INT + SIZE_OF_LONG + SIZE_OF_LONG ); //int for propertyId, long for entityId and time+type
-        getId().encode(out);
-        if(startTime.isInit()){
-            out.writeLong(SequenceNumber.packTimeAndValueType( TimePointL.INIT_STORAGE, valueType ) );
-        }else{
-            out.writeLong(SequenceNumber.packTimeAndValueType( startTime.val(), valueType ) );
-        }
-        return out.slice();
+        return encode( getPropertyId(), getEntityId(), (encodeTime( startTime ) << 3) | valueType.getPersistentId() );
+    }
+
+    public static long encodeTime( TimePointL time )
+    {
+        if ( time.isInit() ) return 0;
+        else if ( time.isNow() ) return TimePointL.NOW_STORAGE;
+        else return time.val() + 1;
+    }
+
+    public static TimePointL decodeTime( long time )
+    {
+        if ( time == 0 ) return TimePointL.Init;
+        else if ( time == TimePointL.NOW_STORAGE ) return TimePointL.Now;
+        else return new TimePointL( time - 1 );
     }
 
     public static InternalKey decode(SliceInput in)
     {
-        EntityPropertyId id = EntityPropertyId.decode(in);
-        long tmp = in.readLong();
+        return decode( in.readSlice( ENCODED_LENGTH ) );
+    }
+
+    public static InternalKey decode(Slice in)
+    {
+        Preconditions.checkArgument(in.length() >= ENCODED_LENGTH, "not a valid InternalKey slice, got len: %d", in.length());
+        int propertyId = propertyIdOf( in );
+        long entityId = entityIdOf( in );
+        long tmp = timeFieldOf( in );
+        return new InternalKey( propertyId, entityId, decodeTime( tmp >>> 3 ), ValueType.getValueTypeByPersistentId( (int) (tmp & 7) ) );
+    }
+
+    /**
+     * 不解码整个key，直接读出编码后key中的propertyId
+     */
+    public static int propertyIdOf( Slice encoded )
+    {
+        return Integer.reverseBytes( encoded.getInt( 0 ) ) ^ Integer.MIN_VALUE;
+    }
+
+    /**
+     * 不解码整个key，直接读出编码后key中的entityId
+     */
+    public static long entityIdOf( Slice encoded )
+    {
+        return Long.reverseBytes( encoded.getLong( SIZE_OF_INT ) ) ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * 不解码整个key，读出编码后key的最后8字节：(time << 3) | ValueType，time为编码后的时间（见encode）
+     */
+    public static long timeFieldOf( Slice encoded )
+    {
+        return Long.reverseBytes( encoded.getLong( SIZE_OF_INT + SIZE_OF_LONG ) );
+    }
+
+    /**
+     * 由各部分直接生成编码后的key，timeField的格式见timeFieldOf
+     */
+    public static Slice encode( int propertyId, long entityId, long timeField )
+    {
+        Slice slice = new Slice( ENCODED_LENGTH );
+        slice.setInt( 0, Integer.reverseBytes( propertyId ^ Integer.MIN_VALUE ) );
+        slice.setLong( SIZE_OF_INT, Long.reverseBytes( entityId ^ Long.MIN_VALUE ) );
+        slice.setLong( SIZE_OF_INT + SIZE_OF_LONG, Long.reverseBytes( timeField ) );
+        return slice;
+    }
+
+    /**
+     * 比较两个编码后的key，结果与解码后compareTo相同：按无符号字节比较，忽略最后一个字节中的ValueType位。
+     */
+    public static int compareEncoded( Slice a, Slice b )
+    {
+        int len = Math.min( a.length(), b.length() );
+        for ( int i = 0; i < len; i++ )
+        {
+            int x = a.getUnsignedByte( i );
+            int y = b.getUnsignedByte( i );
+            if ( i == ENCODED_LENGTH - 1 )
+            {
+                x &= ~7;
+                y &= ~7;
+            }
+            if ( x != y ) return x - y;
+        }
+        return Math.min( a.length(), ENCODED_LENGTH ) - Math.min( b.length(), ENCODED_LENGTH );
+    }
+
+    /**
+     * Version 3之前的格式（小端序，只能解码后比较）:
+     * |propertyId|entityId|ValueType|time|
+     *     32        64       3bit    61bits
+     * Init存为INIT_STORAGE。只在打开旧文件升级时使用。
+     */
+    public static InternalKey decodeV2(Slice in)
+    {
+        Preconditions.checkArgument(in.length() >= ENCODED_LENGTH, "not a valid InternalKey slice, got len: %d", in.length());
+        SliceInput input = in.input();
+        EntityPropertyId id = EntityPropertyId.decode(input);
+        long tmp = input.readLong();
         long time = SequenceNumber.unpackTime(tmp);
         ValueType valueType = SequenceNumber.unpackValueType(tmp);
         if(time == TimePointL.INIT_STORAGE){
             return new InternalKey(id.getPropertyId(), id.getEntityId(), TimePointL.Init, valueType);
+        }else if(time == TimePointL.NOW_STORAGE){
+            return new InternalKey(id.getPropertyId(), id.getEntityId(), TimePointL.Now, valueType);
         }else {
             return new InternalKey(id.getPropertyId(), id.getEntityId(), new TimePointL(time), valueType);
         }
     }
-
-    public static InternalKey decode(Slice in)
-    {
-        Preconditions.checkArgument(in.length() >= SIZE_OF_INT+2*SIZE_OF_LONG, "not a valid InternalKey slice, got len: %d", in.length());
-        return decode(in.input());
-    }
 }
@@ -0,0 +1,288 @@
+package org.act.temporalProperty.impl;
+
+import com.google.common.base.Preconditions;
+import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.vo.EntityPropertyId;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * 每个(propertyId, entityId)在Now时刻的值（即getPointValue(Now)的结果），用于最常见的“当前值”查询，不用查MemTable和文件。
+ * 启动时由SinglePropertyStore.loadLatestValues从文件重建，再加上恢复的MemTable；写入MemTable后调用update；删除属性时调用invalidate。
+ *
+ * 保存在堆外内存（direct buffer）中的开放寻址哈希表（线性探测），每项占固定的SLOT_SIZE字节，不为每个实体创建Java对象。
+ * 不超过MAX_INLINE_VALUE字节的值直接存在表项中；值更长、类型未知或者Now时刻的值不在MemTable中（见update）时表项标记为FALLBACK，
+ * 查询时返回null，由调用者走完整的查询路径。表项只会被覆盖或标记，不会被删除，所以探测链不会断开。
+ */
+public class LatestValueMap
+{
+    public static final int MAX_INLINE_VALUE = 24;
+
+    // slot layout: entityId(8) startTime(8) propertyId(4) state(1) valueType(1) valueLength(1) pad(1) value(MAX_INLINE_VALUE)
+    private static final int SLOT_SIZE = 24 + MAX_INLINE_VALUE;
+    private static final int ENTITY = 0;
+    private static final int START = 8;
+    private static final int PROPERTY = 16;
+    private static final int STATE = 20;
+    private static final int TYPE = 21;
+    private static final int LENGTH = 22;
+    private static final int VALUE = 24;
+
+    private static final byte EMPTY = 0;
+    private static final byte HAS_VALUE = 1;
+    private static final byte INVALID = 2; // the value is invalid, the query returns null.
+    private static final byte FALLBACK = 3; // not known here, use the full query path.
+
+    private static final int MAX_SLOTS = 1 << 25; // 1.5GB
+    private static final double MAX_LOAD = 0.6;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private ByteBuffer table; // guarded by lock
+    private int mask;
+    private int used;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile long loadMillis;
+
+    public LatestValueMap()
+    {
+        this(1 << 16);
+    }
+
+    /**
+     * @param initialSlots 初始表项数，2的整数次幂，表项数超过60%时翻倍
+     */
+    public LatestValueMap(int initialSlots)
+    {
+        Preconditions.checkArgument(initialSlots > 0 && initialSlots <= MAX_SLOTS && Integer.bitCount(initialSlots) == 1,
+                "initialSlots must be a power of 2 not larger than %s", MAX_SLOTS);
+        this.table = ByteBuffer.allocateDirect(initialSlots * SLOT_SIZE);
+        this.mask = initialSlots - 1;
+    }
+
+    /**
+     * @return id在Now时刻的值，key的起始时间为值的起始时间，值为INVALID时key的类型为ValueType.INVALID；
+     * 不知道Now时刻的值时返回null，需要走完整的查询路径。
+     */
+    public InternalEntry get(EntityPropertyId id)
+    {
+        InternalEntry result = null;
+        lock.readLock().lock();
+        try {
+            int slot = find(table, mask, id);
+            byte state = table.get(slot + STATE);
+            if (state == HAS_VALUE) {
+                byte[] value = new byte[table.get(slot + LENGTH)];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = table.get(slot + VALUE + i);
+                }
+                ValueType type = ValueType.getValueTypeByPersistentId(table.get(slot + TYPE));
+                result = new InternalEntry(new InternalKey(id, InternalKey.decodeTime(table.getLong(slot + START)), type), new Slice(value));
+            }
+            else if (state == INVALID) {
+                result = new InternalEntry(new InternalKey(id, InternalKey.decodeTime(table.getLong(slot + START)), ValueType.INVALID), new Slice(0));
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        if (result == null) {
+            misses.increment();
+        }
+        else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    /**
+     * 设置entry.getKey().getId()在Now时刻的值，用于启动时重建。
+     * 文件中的UNKNOWN和INVALID等标记的含义与查询所在的文件有关，所以只接受确定类型的值，其他情况标记为FALLBACK。
+     */
+    public void put(InternalEntry entry)
+    {
+        lock.writeLock().lock();
+        try {
+            ValueType type = entry.getKey().getValueType();
+            if (type.isExactValueType() && entry.getValue().length() > 0) {
+                set(entry.getKey().getId(), entry);
+            }
+            else {
+                set(entry.getKey().getId(), null);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 写入MemTable后调用。memTableLatest在锁内被调用，返回MemTable中id在Now时刻的值（见MemTable.latest），
+     * 因此同一id被并发写入时，最后更新的线程读到的是所有写入之后的值。
+     * memTableLatest返回null（Now时刻的值不在MemTable中，例如写入的是有限区间）时标记为FALLBACK。
+     */
+    public void update(EntityPropertyId id, Supplier<InternalEntry> memTableLatest)
+    {
+        lock.writeLock().lock();
+        try {
+            InternalEntry latest = memTableLatest.get();
+            if (latest == null || latest.getKey().getValueType().isExactValueType() || latest.getKey().getValueType() == ValueType.INVALID) {
+                set(id, latest);
+            }
+            else {
+                set(id, null);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 属性被删除后调用，该属性的所有表项都标记为FALLBACK
+     */
+    public void invalidate(int propertyId)
+    {
+        lock.writeLock().lock();
+        try {
+            for (int slot = 0; slot < table.capacity(); slot += SLOT_SIZE) {
+                if (table.get(slot + STATE) != EMPTY && table.getInt(slot + PROPERTY) == propertyId) {
+                    table.put(slot + STATE, FALLBACK);
+                }
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return 使用的表项数（包括FALLBACK）
+     */
+    public int size()
+    {
+        lock.readLock().lock();
+        try {
+            return used;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long hits()
+    {
+        return hits.sum();
+    }
+
+    public long misses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @return 启动时加载（见TemporalPropertyStoreImpl.loadLatestValues）所用的时间（毫秒）
+     */
+    public long loadMillis()
+    {
+        return loadMillis;
+    }
+
+    void loaded(long millis)
+    {
+        this.loadMillis = millis;
+    }
+
+    @Override
+    public String toString()
+    {
+        int capacity;
+        lock.readLock().lock();
+        try {
+            capacity = mask + 1;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        return "LatestValueMap{entries=" + size() + ", slots=" + capacity + ", hits=" + hits() + ", misses=" + misses() + ", load=" + loadMillis + "ms}";
+    }
+
+    // called with the write lock held. entry == null marks the slot FALLBACK.
+    private void set(EntityPropertyId id, InternalEntry entry)
+    {
+        int slot = find(table, mask, id);
+        if (table.get(slot + STATE) == EMPTY) {
+            if (entry == null) {
+                return; // the full query path is used anyway.
+            }
+            if (used + 1 > (mask + 1) * MAX_LOAD) {
+                if (mask + 1 >= MAX_SLOTS) {
+                    return; // full, the id is queried by the full path.
+                }
+                resize();
+                slot = find(table, mask, id);
+            }
+            used++;
+            table.putLong(slot + ENTITY, id.getEntityId());
+            table.putInt(slot + PROPERTY, id.getPropertyId());
+        }
+        if (entry == null || entry.getValue().length() > MAX_INLINE_VALUE) {
+            table.put(slot + STATE, FALLBACK);
+            return;
+        }
+        table.putLong(slot + START, InternalKey.encodeTime(entry.getKey().getStartTime()));
+        if (entry.getKey().getValueType() == ValueType.INVALID) {
+            table.put(slot + STATE, INVALID);
+            return;
+        }
+        Slice value = entry.getValue();
+        for (int i = 0; i < value.length(); i++) {
+            table.put(slot + VALUE + i, value.getByte(i));
+        }
+        table.put(slot + LENGTH, (byte) value.length());
+        table.put(slot + TYPE, (byte) entry.getKey().getValueType().getPersistentId());
+        table.put(slot + STATE, HAS_VALUE);
+    }
+
+    private void resize()
+    {
+        ByteBuffer old = table;
+        int newSlots = (mask + 1) * 2;
+        ByteBuffer resized = ByteBuffer.allocateDirect(newSlots * SLOT_SIZE);
+        int newMask = newSlots - 1;
+        for (int slot = 0; slot < old.capacity(); slot += SLOT_SIZE) {
+            if (old.get(slot + STATE) != EMPTY) {
+                int target = find(resized, newMask, old.getLong(slot + ENTITY), old.getInt(slot + PROPERTY));
+                for (int i = 0; i < SLOT_SIZE; i++) {
+                    resized.put(target + i, old.get(slot + i));
+                }
+            }
+        }
+        table = resized;
+        mask = newMask;
+    }
+
+    // byte offset of the slot of id, or of the empty slot where it would be inserted.
+    private static int find(ByteBuffer table, int mask, EntityPropertyId id)
+    {
+        return find(table, mask, id.getEntityId(), id.getPropertyId());
+    }
+
+    private static int find(ByteBuffer table, int mask, long entityId, int propertyId)
+    {
+        long h = entityId * 0x9E3779B97F4A7C15L + propertyId;
+        int i = (int) (h ^ (h >>> 32)) & mask;
+        while (true) {
+            int slot = i * SLOT_SIZE;
+            if (table.get(slot + STATE) == EMPTY ||
+                    (table.getLong(slot + ENTITY) == entityId && table.getInt(slot + PROPERTY) == propertyId)) {
+                return slot;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+}
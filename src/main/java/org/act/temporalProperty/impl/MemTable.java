@@ -3,6 +3,7 @@ package org.act.temporalProperty.impl;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.PeekingIterator;
 import org.act.temporalProperty.exception.ValueUnknownException;
 import org.act.temporalProperty.helper.AbstractSearchableIterator;
@@ -20,9 +21,13 @@ import org.apache.commons.lang3.tuple.Triple;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Modified MemTable, which only expose time interval API.
+ *
+ * 用MemTable(stripeCount)创建的MemTable支持多线程并发写：按EntityPropertyId的hash分成stripeCount个分片，
+ * 每个分片有自己的读写锁和内存计数，不同分片的写入互不阻塞。默认构造的MemTable不加锁，只能单线程写。
  */
 public class MemTable
 {
@@ -30,6 +35,25 @@ public class MemTable
     private final ConcurrentSkipListMap<EntityPropertyId, TemporalValue<Value>> table = new ConcurrentSkipListMap<>(EntityPropertyId::compareTo);
 
     private long approximateMemoryUsage = 0;
+    private final Stripe[] stripes; // null if not striped.
+
+    public MemTable()
+    {
+        this( 1 );
+    }
+
+    public MemTable( int stripeCount )
+    {
+        if ( stripeCount > 1 )
+        {
+            this.stripes = new Stripe[stripeCount];
+            for ( int i = 0; i < stripeCount; i++ ) this.stripes[i] = new Stripe();
+        }
+        else
+        {
+            this.stripes = null;
+        }
+    }
 
     public boolean isEmpty()
     {
@@ -38,7 +62,10 @@ public class MemTable
 
     public long approximateMemUsage()
     {
-        return approximateMemoryUsage;
+        if ( stripes == null ) return approximateMemoryUsage;
+        long sum = 0;
+        for ( Stripe s : stripes ) sum += s.memoryUsage;
+        return sum;
     }
 
     public void addToNow( InternalKey key, Slice value )
@@ -66,8 +93,72 @@ public class MemTable
     private void add(EntityPropertyId id, TimeInterval interval, Value value )
     {
 //        System.out.println(interval);
-        table.computeIfAbsent( id, ( i ) -> new TemporalValue<>() ).put( interval, value );
-        approximateMemoryUsage += (id.byteCount() + 16 + value.val.length());
+        Stripe stripe = stripeOf( id );
+        if ( stripe == null )
+        {
+            table.computeIfAbsent( id, ( i ) -> new TemporalValue<>() ).put( interval, value );
+            approximateMemoryUsage += (id.byteCount() + 16 + value.val.length());
+            return;
+        }
+        stripe.lock.writeLock().lock();
+        try
+        {
+            table.computeIfAbsent( id, ( i ) -> new TemporalValue<>() ).put( interval, value );
+            stripe.memoryUsage += (id.byteCount() + 16 + value.val.length());
+        }
+        finally
+        {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    private Stripe stripeOf( EntityPropertyId id )
+    {
+        if ( stripes == null ) return null;
+        return stripes[Math.floorMod( id.hashCode(), stripes.length )];
+    }
+
+    private void lockRead( Stripe stripe )
+    {
+        if ( stripe != null ) stripe.lock.readLock().lock();
+    }
+
+    private void unlockRead( Stripe stripe )
+    {
+        if ( stripe != null ) stripe.lock.readLock().unlock();
+    }
+
+    /**
+     * 分片的MemTable可能正在被其他线程写入，此时把这个实体的数据在读锁内复制出来再迭代。
+     */
+    private PeekingIterator<Triple<TimePointL,Boolean,Value>> pointEntries( EntityPropertyId id, TemporalValue<Value> tpValue, TimePointL startTime )
+    {
+        Stripe stripe = stripeOf( id );
+        if ( stripe == null ) return startTime == null ? tpValue.pointEntries() : tpValue.pointEntries( startTime );
+        lockRead( stripe );
+        try
+        {
+            return Iterators.peekingIterator( Lists.newArrayList( startTime == null ? tpValue.pointEntries() : tpValue.pointEntries( startTime ) ).iterator() );
+        }
+        finally
+        {
+            unlockRead( stripe );
+        }
+    }
+
+    private PeekingIterator<Entry<TimeInterval,Value>> intervalEntries( EntityPropertyId id, TemporalValue<Value> tpValue )
+    {
+        Stripe stripe = stripeOf( id );
+        if ( stripe == null ) return tpValue.intervalEntries();
+        lockRead( stripe );
+        try
+        {
+            return Iterators.peekingIterator( Lists.newArrayList( tpValue.intervalEntries() ).iterator() );
+        }
+        finally
+        {
+            unlockRead( stripe );
+        }
     }
 
     public Slice get( InternalKey key ) throws ValueUnknownException
@@ -78,7 +169,17 @@ public class MemTable
         {
             throw new ValueUnknownException(); //no entity
         }
-        Value entry = entityMap.get( key.getStartTime() );
+        Value entry;
+        Stripe stripe = stripeOf( key.getId() );
+        lockRead( stripe );
+        try
+        {
+            entry = entityMap.get( key.getStartTime() );
+        }
+        finally
+        {
+            unlockRead( stripe );
+        }
         if ( entry != null )
         {
             if ( entry.valueType != ValueType.INVALID )
@@ -125,7 +226,7 @@ public class MemTable
 
     public SearchableIterator iterator()
     {
-        return DebugIterator.wrap(new MemTableIterator(table));
+        return DebugIterator.wrap(new MemTableIterator(this));
     }
 
     public PeekingIterator<Entry<TimeIntervalKey,Slice>> intervalEntryIterator()
@@ -140,10 +241,40 @@ public class MemTable
         {
             return false;
         }
-        else
+        Stripe stripe = stripeOf( id );
+        lockRead( stripe );
+        try
         {
             return entityMap.overlap( startTime, endTime );
         }
+        finally
+        {
+            unlockRead( stripe );
+        }
+    }
+
+    /**
+     * @return id在Now时刻的值，key的起始时间为该值的起始时间；Now时刻的值为unknown（在更早的MemTable或文件中）时返回null
+     */
+    public InternalEntry latest( EntityPropertyId id )
+    {
+        TemporalValue<Value> entityMap = table.get( id );
+        if ( entityMap == null )
+        {
+            return null;
+        }
+        Stripe stripe = stripeOf( id );
+        lockRead( stripe );
+        try
+        {
+            Entry<TimePointL,Value> latest = entityMap.latest();
+            if ( latest == null || latest.getValue() == null ) return null;
+            return new InternalEntry( new InternalKey( id, latest.getKey(), latest.getValue().valueType ), latest.getValue().val );
+        }
+        finally
+        {
+            unlockRead( stripe );
+        }
     }
 
     public Map<Integer,MemTable> separateByProperty()
@@ -168,10 +299,18 @@ public class MemTable
         {
             if ( entityEntry.getKey().getPropertyId() == proId )
             {
-                TemporalValue<Value> entityMap = entityEntry.getValue();
-                if ( entityMap.overlap( startTime, endTime ) )
+                Stripe stripe = stripeOf( entityEntry.getKey() );
+                lockRead( stripe );
+                try
+                {
+                    if ( entityEntry.getValue().overlap( startTime, endTime ) )
+                    {
+                        return true;
+                    }
+                }
+                finally
                 {
-                    return true;
+                    unlockRead( stripe );
                 }
             }
         }
@@ -185,16 +324,31 @@ public class MemTable
             if ( proIds.contains( entityEntry.getKey().getPropertyId() ) )
             {
                 TemporalValue<Value> entityMap = entityEntry.getValue();
-                Iterator<Entry<TimeInterval,Value>> it = entityMap.intervalEntries( start, end );
-                while ( it.hasNext() )
+                Stripe stripe = stripeOf( entityEntry.getKey() );
+                lockRead( stripe );
+                try
+                {
+                    Iterator<Entry<TimeInterval,Value>> it = entityMap.intervalEntries( start, end );
+                    while ( it.hasNext() )
+                    {
+                        Entry<TimeInterval,Value> entry = it.next();
+                        tMap.put( entry.getKey(), true );
+                    }
+                }
+                finally
                 {
-                    Entry<TimeInterval,Value> entry = it.next();
-                    tMap.put( entry.getKey(), true );
+                    unlockRead( stripe );
                 }
             }
         }
     }
 
+    private static class Stripe
+    {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        long memoryUsage = 0; // only modified when holding the write lock.
+    }
+
     private class Value
     {
         ValueType valueType;
@@ -215,14 +369,16 @@ public class MemTable
      */
     public static class MemTableIterator extends AbstractSearchableIterator
     {
+        private final MemTable owner;
         private final NavigableMap<EntityPropertyId, TemporalValue<Value>> table;
         private Iterator<Entry<EntityPropertyId, TemporalValue<Value>>> tPropIter;
         private PeekingIterator<Triple<TimePointL,Boolean,Value>> tValIter;
         private EntityPropertyId curId;
 
-        MemTableIterator(NavigableMap<EntityPropertyId, TemporalValue<Value>> table)
+        MemTableIterator(MemTable owner)
         {
-            this.table = table;
+            this.owner = owner;
+            this.table = owner.table;
             this.tPropIter = table.entrySet().iterator();
         }
 
@@ -233,9 +389,8 @@ public class MemTable
             {
                 if ( tPropIter.hasNext() ) {
                     Entry<EntityPropertyId, TemporalValue<Value>> entry = tPropIter.next();
-                    TemporalValue<Value> tpValue = entry.getValue();
-                    tValIter = tpValue.pointEntries();
                     curId = entry.getKey();
+                    tValIter = owner.pointEntries( curId, entry.getValue(), null );
                 } else {
                     return endOfData();
                 }
@@ -270,7 +425,7 @@ public class MemTable
                 if(tPropIter.hasNext()){
                     Entry<EntityPropertyId, TemporalValue<Value>> entry = tPropIter.next();
                     curId = entry.getKey();
-                    tValIter = entry.getValue().pointEntries(targetKey.getStartTime());
+                    tValIter = owner.pointEntries(curId, entry.getValue(), targetKey.getStartTime());
                 }else{
                     tValIter = null;
                     curId = null;
@@ -309,8 +464,8 @@ public class MemTable
                 if ( tpIter.hasNext() )
                 {
                     Entry<EntityPropertyId, TemporalValue<Value>> entry = tpIter.next();
-                    tvIntIter = entry.getValue().intervalEntries();
                     curId = entry.getKey();
+                    tvIntIter = intervalEntries( curId, entry.getValue() );
                 }
                 else
                 {
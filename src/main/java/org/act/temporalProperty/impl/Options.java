@@ -10,8 +10,10 @@ public class Options
     public static CompressionType CTP = CompressionType.NONE;
 
     static {
-        if(System.getenv("CONF_TGRAPH_COMPRESS")!=null) {
-            CTP = CompressionType.SNAPPY;
+        String ctp = System.getenv("CONF_TGRAPH_COMPRESS");
+        if(ctp!=null) {
+            // any other value (e.g. "1") means snappy, as before.
+            CTP = ctp.equalsIgnoreCase("deflate") || ctp.equalsIgnoreCase("none") ? CompressionType.parse(ctp, CTP) : CompressionType.SNAPPY;
         }
         System.out.println(Options.class.getName() + ": use "+CTP+" compress.");
     }
@@ -28,6 +30,12 @@ public class Options
     private boolean paranoidChecks;
     private long cacheSize;
     private float blockEmptyRatio = 1.0f;
+    private long syncInterval = 0;
+    private boolean syncMetadata = true;
+    private int filterBitsPerKey = 0;
+    private boolean compressionDictionary = false;
+    private boolean temporalBlockFormat = false;
+    private boolean tableStats = false;
 
     static void checkArgNotNull(Object value, String name)
     {
@@ -142,6 +150,45 @@ public class Options
     }
 
 
+    /**
+     * @return TableBuilder每写入这么多字节force(false)一次，0表示只在finish时force
+     */
+    public long syncInterval()
+    {
+        return syncInterval;
+    }
+
+    public Options syncInterval(long syncInterval)
+    {
+        this.syncInterval = syncInterval;
+        return this;
+    }
+
+    public boolean syncMetadata()
+    {
+        return syncMetadata;
+    }
+
+    public Options syncMetadata(boolean syncMetadata)
+    {
+        this.syncMetadata = syncMetadata;
+        return this;
+    }
+
+    /**
+     * @return 大于0时TableBuilder为每个EntityPropertyId生成布隆过滤器（见FilterBlock），只能用于key为InternalKey的文件
+     */
+    public int filterBitsPerKey()
+    {
+        return filterBitsPerKey;
+    }
+
+    public Options filterBitsPerKey(int filterBitsPerKey)
+    {
+        this.filterBitsPerKey = filterBitsPerKey;
+        return this;
+    }
+
     public boolean paranoidChecks()
     {
         return paranoidChecks;
@@ -152,4 +199,46 @@ public class Options
         this.paranoidChecks = paranoidChecks;
         return this;
     }
+
+    /**
+     * @return 是否以第一个数据块作为文件内所有数据块的压缩字典（见TableBuilder），只对DEFLATE有效
+     */
+    public boolean compressionDictionary()
+    {
+        return compressionDictionary;
+    }
+
+    public Options compressionDictionary(boolean compressionDictionary)
+    {
+        this.compressionDictionary = compressionDictionary;
+        return this;
+    }
+
+    /**
+     * @return 数据块是否使用按时序编码的格式（见TemporalBlockBuilder），只能用于key为InternalKey的文件
+     */
+    public boolean temporalBlockFormat()
+    {
+        return temporalBlockFormat;
+    }
+
+    public Options temporalBlockFormat(boolean temporalBlockFormat)
+    {
+        this.temporalBlockFormat = temporalBlockFormat;
+        return this;
+    }
+
+    /**
+     * @return TableBuilder是否生成统计信息（见TableStats），只能用于key为InternalKey的文件
+     */
+    public boolean tableStats()
+    {
+        return tableStats;
+    }
+
+    public Options tableStats(boolean tableStats)
+    {
+        this.tableStats = tableStats;
+        return this;
+    }
 }
@@ -0,0 +1,330 @@
+package org.act.temporalProperty.impl;
+
+import com.google.common.base.Preconditions;
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.vo.EntityPropertyId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 时间点查询结果的缓存（见TemporalPropertyStoreImpl.getPointValue），key为EntityPropertyId和时间区间[from, to]：区间内任意时间点的查询结果都相同。
+ * 只缓存从文件中查到的结果，区间由SinglePropertyStore.getPointEntry给出，且MemTable中在区间内没有该实体的数据。
+ * 写入MemTable后要调用invalidate(id)，合并更新文件后调用invalidate(propertyId)。
+ * 读线程在查询前取得generation(id)，put时generation已变化（期间有写入）则不缓存，避免把写入前查到的旧值放进缓存。
+ *
+ * 值保存在每个分片的环形缓冲区中（offHeap时为direct buffer，不占用Java堆，不增加GC负担），按写入顺序（FIFO）淘汰：
+ * 缓冲区写满后从头覆盖，被覆盖的结果从索引中删除。失效的结果只从索引中删除，空间在被覆盖时回收。
+ * 索引在堆上，每个结果按ENTRY_OVERHEAD计入容量：缓冲区从小开始按需扩大，缓冲区大小加上所有结果的索引开销不超过分片的容量，
+ * 所以值很小（int、long）时缓存的结果个数受索引开销限制，而不是缓冲区大小。
+ */
+public class PointValueCache
+{
+    private static final int SHARDS = 16;
+    // results larger than 1/MAX_VALUE_FRACTION of a shard are not cached.
+    private static final int MAX_VALUE_FRACTION = 8;
+    // rough heap cost of the Item, its TreeMap node and the slot in the written queue, plus the HashMap entry and TreeMap of the id.
+    private static final int ENTRY_OVERHEAD = 160;
+    // the arena starts at no more than 1/4 of the shard, the rest is left for the index.
+    private static final int INITIAL_ARENA_SIZE = 64 * 1024;
+
+    private final Shard[] shards = new Shard[SHARDS];
+    private final boolean offHeap;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity 缓存的总字节数上限，包括值和每个结果的索引开销
+     * @param offHeap 值保存在堆外内存中
+     */
+    public PointValueCache(long capacity, boolean offHeap)
+    {
+        Preconditions.checkArgument(capacity >= SHARDS, "capacity too small");
+        Preconditions.checkArgument(capacity / SHARDS <= Integer.MAX_VALUE, "capacity too large");
+        this.offHeap = offHeap;
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard((int) (capacity / SHARDS), offHeap);
+        }
+    }
+
+    /**
+     * @return 查询前调用，作为put的参数
+     */
+    public long generation(EntityPropertyId id)
+    {
+        return shard(id).generation();
+    }
+
+    /**
+     * @return null if not cached
+     */
+    public Slice get(EntityPropertyId id, TimePointL time)
+    {
+        Slice value = shard(id).get(id, time);
+        if (value == null) {
+            misses.increment();
+        }
+        else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * 缓存[from, to]内的查询结果value，generation在查询前由generation(id)取得
+     */
+    public void put(EntityPropertyId id, TimePointL from, TimePointL to, Slice value, long generation)
+    {
+        Preconditions.checkArgument(from.compareTo(to) <= 0, "from %s > to %s", from, to);
+        shard(id).put(id, from, to, value, generation);
+    }
+
+    /**
+     * id的数据被写入MemTable后调用
+     */
+    public void invalidate(EntityPropertyId id)
+    {
+        shard(id).invalidate(id);
+    }
+
+    /**
+     * 属性的文件被合并更新或属性被删除后调用
+     */
+    public void invalidate(int propertyId)
+    {
+        for (Shard shard : shards) {
+            shard.invalidate(propertyId);
+        }
+    }
+
+    public long hits()
+    {
+        return hits.sum();
+    }
+
+    public long misses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @return 缓存的结果个数
+     */
+    public long size()
+    {
+        long size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return 缓冲区和索引占用的字节数（索引按ENTRY_OVERHEAD估算），不超过capacity
+     */
+    public long memoryUsage()
+    {
+        long usage = 0;
+        for (Shard shard : shards) {
+            usage += shard.memoryUsage();
+        }
+        return usage;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PointValueCache{" + (offHeap ? "offHeap, " : "") + "entries=" + size() + ", memory=" + (memoryUsage() >> 10) + "KB, hits=" + hits() + ", misses=" + misses() + "}";
+    }
+
+    private Shard shard(EntityPropertyId id)
+    {
+        int h = id.hashCode();
+        return shards[(h ^ (h >>> 16)) & (SHARDS - 1)];
+    }
+
+    private static final class Item
+    {
+        private final EntityPropertyId id;
+        private final TimePointL from;
+        private final TimePointL to;
+        private final int offset;
+        private final int length;
+
+        private Item(EntityPropertyId id, TimePointL from, TimePointL to, int offset, int length)
+        {
+            this.id = id;
+            this.from = from;
+            this.to = to;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class Shard
+    {
+        private final int capacity;
+        private final boolean offHeap;
+        private ByteBuffer arena;
+        // id -> cached intervals of the id, by start time.
+        private final Map<EntityPropertyId, TreeMap<TimePointL, Item>> index = new HashMap<>();
+        // items in the order they are written to the arena, the eldest is overwritten first.
+        private final ArrayDeque<Item> written = new ArrayDeque<>();
+        private int writePosition;
+        private long generation;
+        private int size;
+
+        private Shard(int capacity, boolean offHeap)
+        {
+            this.capacity = capacity;
+            this.offHeap = offHeap;
+            this.arena = allocate(Math.min(capacity / 4, INITIAL_ARENA_SIZE));
+        }
+
+        private synchronized long generation()
+        {
+            return generation;
+        }
+
+        private synchronized Slice get(EntityPropertyId id, TimePointL time)
+        {
+            TreeMap<TimePointL, Item> items = index.get(id);
+            if (items == null) {
+                return null;
+            }
+            Map.Entry<TimePointL, Item> floor = items.floorEntry(time);
+            if (floor == null || floor.getValue().to.compareTo(time) < 0) {
+                return null;
+            }
+            Item item = floor.getValue();
+            byte[] value = new byte[item.length];
+            ByteBuffer src = arena.duplicate();
+            src.position(item.offset);
+            src.get(value);
+            return new Slice(value);
+        }
+
+        private synchronized void put(EntityPropertyId id, TimePointL from, TimePointL to, Slice value, long generation)
+        {
+            int length = value.length();
+            if (generation != this.generation || length == 0 || length > capacity / MAX_VALUE_FRACTION) {
+                return;
+            }
+            if (writePosition + length > arena.capacity()) {
+                grow(writePosition + length);
+            }
+            if (length > arena.capacity()) {
+                return;
+            }
+            if (writePosition + length > arena.capacity()) {
+                // evict the items at the end of the arena and wrap around.
+                evictWritten(arena.capacity());
+                writePosition = 0;
+            }
+            evictWritten(writePosition + length);
+            TreeMap<TimePointL, Item> items = index.computeIfAbsent(id, i -> new TreeMap<>());
+            // intervals of the same id do not overlap.
+            Map.Entry<TimePointL, Item> floor = items.floorEntry(to);
+            while (floor != null && floor.getValue().to.compareTo(from) >= 0) {
+                items.remove(floor.getKey());
+                size--;
+                floor = items.floorEntry(to);
+            }
+            ByteBuffer dst = arena.duplicate();
+            dst.position(writePosition);
+            dst.put(value.getBytes());
+            Item item = new Item(id, from, to, writePosition, length);
+            items.put(from, item);
+            written.addLast(item);
+            writePosition += length;
+            size++;
+            // charge the index of every written item, evict the eldest while over capacity.
+            while (memoryUsage() > capacity) {
+                remove(written.pollFirst());
+            }
+        }
+
+        // enlarge the arena if the index leaves room for it, values are kept at the same offsets.
+        private void grow(int needed)
+        {
+            long room = capacity - (long) (written.size() + 1) * ENTRY_OVERHEAD;
+            int newSize = (int) Math.min(room, Math.max(needed, 2L * arena.capacity()));
+            if (newSize <= arena.capacity()) {
+                return;
+            }
+            ByteBuffer grown = allocate(newSize);
+            ByteBuffer src = arena.duplicate();
+            src.clear();
+            grown.put(src);
+            arena = grown;
+        }
+
+        private ByteBuffer allocate(int size)
+        {
+            return offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        }
+
+        private synchronized long memoryUsage()
+        {
+            return arena.capacity() + (long) written.size() * ENTRY_OVERHEAD;
+        }
+
+        // remove the eldest written items that overlap [writePosition, end) of the arena.
+        private void evictWritten(int end)
+        {
+            while (!written.isEmpty()) {
+                Item eldest = written.peekFirst();
+                if (eldest.offset < writePosition || eldest.offset >= end) {
+                    return;
+                }
+                written.pollFirst();
+                remove(eldest);
+            }
+        }
+
+        // remove the item from the index if it is still there.
+        private void remove(Item item)
+        {
+            TreeMap<TimePointL, Item> items = index.get(item.id);
+            if (items != null && items.get(item.from) == item) {
+                items.remove(item.from);
+                size--;
+                if (items.isEmpty()) {
+                    index.remove(item.id);
+                }
+            }
+        }
+
+        private synchronized void invalidate(EntityPropertyId id)
+        {
+            generation++;
+            TreeMap<TimePointL, Item> items = index.remove(id);
+            if (items != null) {
+                size -= items.size();
+            }
+        }
+
+        private synchronized void invalidate(int propertyId)
+        {
+            generation++;
+            for (Iterator<Map.Entry<EntityPropertyId, TreeMap<TimePointL, Item>>> iterator = index.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<EntityPropertyId, TreeMap<TimePointL, Item>> entry = iterator.next();
+                if (entry.getKey().getPropertyId() == propertyId) {
+                    size -= entry.getValue().size();
+                    iterator.remove();
+                }
+            }
+        }
+
+        private synchronized int size()
+        {
+            return size;
+        }
+    }
+}
@@ -50,6 +50,8 @@ public final class SequenceNumber
 
     /**
      *  NEW FORMAT BY SJH (2018.5)
+     *  Version 3起InternalKey不再使用此格式（见InternalKey.encode），只用于读取旧文件（InternalKey.decodeV2）
+     *
      * | ValueType | time |
      *      3bit    61bits
      */
@@ -6,18 +6,24 @@ import org.act.temporalProperty.exception.TPSNHException;
 import org.act.temporalProperty.helper.DebugIterator;
 import org.act.temporalProperty.helper.EPEntryIterator;
 import org.act.temporalProperty.helper.EPRangeQueryIterator;
+import org.act.temporalProperty.helper.EqualValFilterIterator;
+import org.act.temporalProperty.helper.SameLevelMergeIterator;
 import org.act.temporalProperty.index.IndexStore;
 import org.act.temporalProperty.index.IndexUpdater;
 import org.act.temporalProperty.meta.PropertyMetaData;
 import org.act.temporalProperty.query.TimeIntervalKey;
 import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.table.CompactionPolicy;
 import org.act.temporalProperty.table.TwoLevelMergeIterator;
 import org.act.temporalProperty.table.MergeProcess.MergeTask;
 import org.act.temporalProperty.table.Table;
 import org.act.temporalProperty.table.TableBuilder;
 import org.act.temporalProperty.table.TableComparator;
+import org.act.temporalProperty.util.BackgroundThread;
 import org.act.temporalProperty.util.FileUtils;
 import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.util.TableLatestValueIterator;
+import org.act.temporalProperty.vo.EntityPropertyId;
 import org.apache.commons.lang3.tuple.Triple;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +39,11 @@ import java.util.List;
 import java.util.Map.Entry;
 
 import static org.act.temporalProperty.impl.TemporalPropertyStoreImpl.BULK_MODE;
+import static org.act.temporalProperty.impl.TemporalPropertyStoreImpl.COMPACTION_FANOUT;
+import static org.act.temporalProperty.impl.TemporalPropertyStoreImpl.COMPACTION_TARGET_SIZE;
+import static org.act.temporalProperty.impl.TemporalPropertyStoreImpl.STABLE_CONSOLIDATE_FILES;
+import static org.act.temporalProperty.impl.TemporalPropertyStoreImpl.STABLE_PARTITION_SIZE;
+import static org.act.temporalProperty.impl.TemporalPropertyStoreImpl.STABLE_PARTITION_TIME;
 
 /**
  * Created by song on 2018-03-14.
@@ -44,17 +55,21 @@ public class SinglePropertyStore
     private File proDir;
     private Logger log = LoggerFactory.getLogger( TemporalPropertyStoreImpl.class );
     private TableCache cache;
+    private final PointValueCache pointCache; // null if not enabled
+    private volatile CompactionPolicy compaction = CompactionPolicy.cascade( COMPACTION_FANOUT, COMPACTION_TARGET_SIZE * 1024 * 1024 );
 
     /**
      * 实例化方法
      * @param dbDir 存储动态属性数据的目录地址
+     * @param pointCache 时间点查询结果的缓存，合并后失效，null表示不缓存
      */
-    public SinglePropertyStore(PropertyMetaData propertyMeta, File dbDir, TableCache cache, IndexStore indexStore ) throws Exception{
+    public SinglePropertyStore(PropertyMetaData propertyMeta, File dbDir, TableCache cache, IndexStore indexStore, PointValueCache pointCache ) throws Exception{
         this.propertyMeta = propertyMeta;
         this.index = indexStore;
         this.proDir = new File(dbDir, propertyMeta.getPropertyId().toString());
         if(!proDir.exists() && !proDir.mkdir()) throw new IOException("create property dir failed: "+proDir.getAbsolutePath());
         this.cache = cache;
+        this.pointCache = pointCache;
         this.loadBuffers();
     }
 
@@ -81,28 +96,78 @@ public class SinglePropertyStore
      * 进行时间点查询，参考{@link TemporalPropertyStore}中的说明
      */
     public Slice getPointValue(InternalKey searchKey)
+    {
+        InternalEntry entry = getPointEntry(searchKey);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * 与getPointValue相同，同时给出结果不变的时间范围（用于PointValueCache）：
+     * 返回的entry的key的起始时间为from，[from, searchKey的时间]内任意时间点在文件中查询的结果都是entry的值（不考虑MemTable）。
+     * from不早于结果所在的记录的起始时间，也不早于查询所在的文件（StableFile的时间范围，或者全部UnStableFile）的起始时间。
+     * @return null if no value
+     */
+    public InternalEntry getPointEntry(InternalKey searchKey)
     {
         TimePointL time = searchKey.getStartTime();
         boolean hasStable = propertyMeta.hasStable();
         if(propertyMeta.hasUnstable() && !(hasStable && time.compareTo(propertyMeta.stMaxTime()) <= 0)){
-            Slice result = this.unPointValue( searchKey );
-            if( null == result || result.length() == 0 ) {
+            InternalEntry result = this.unPointValue( searchKey );
+            if( null == result || result.getValue().length() == 0 ) {
                 return null;
             }else {
-                return result;
+                return hasStable ? clip(result, propertyMeta.stMaxTime().next()) : result;
             }
         }else if(hasStable && time.compareTo(propertyMeta.stMaxTime())<=0){
 //            System.out.print("①");
             FileMetaData meta = propertyMeta.getStContainsTime(time);
-            return this.stPointValue(meta, searchKey);
+            return clip(this.stPointValue(meta, searchKey), meta.getSmallest());
         }else if(hasStable && !propertyMeta.hasUnstable()) {
 //            System.out.print("②");
-            return this.stPointValue(propertyMeta.latestStableMeta(), searchKey);
+            FileMetaData meta = propertyMeta.latestStableMeta();
+            return clip(this.stPointValue(meta, searchKey), meta.getSmallest());
         }else{
             return null;
         }
     }
 
+    /**
+     * 把文件中每个实体在Now时刻的值（与getPointValue(Now)的结果相同）加入map，启动时重建LatestValueMap用。
+     * 先加入最新的StableFile，再按时间顺序加入UnStableFile，后加入的覆盖先加入的，因此每个实体的值来自含有它的最新文件。
+     */
+    public void loadLatestValues(LatestValueMap map)
+    {
+        List<SearchableIterator> iterators = new ArrayList<>();
+        FileMetaData stable = propertyMeta.latestStableMeta();
+        if(stable!=null) {
+            iterators.add(fileIterator(Filename.stPath(proDir, stable.getNumber(), stable.getVersion()), propertyMeta.getStableBuffers(stable.getNumber())));
+        }
+        List<FileMetaData> unstables = new ArrayList<>(propertyMeta.getUnStableFiles().values());
+        unstables.sort(Comparator.comparing(FileMetaData::getSmallest)); // oldest first
+        for (FileMetaData meta : unstables) {
+            iterators.add(fileIterator(Filename.unPath(proDir, meta.getNumber(), meta.getVersion()), propertyMeta.getUnstableBuffers(meta.getNumber())));
+        }
+        for (SearchableIterator iterator : iterators) {
+            TableLatestValueIterator latest = new TableLatestValueIterator(iterator);
+            while (latest.hasNext()) {
+                map.put(latest.next());
+            }
+        }
+    }
+
+    private SearchableIterator fileIterator(String path, FileBuffer buffer){
+        SearchableIterator iterator = this.cache.newIterator(path);
+        return buffer == null ? iterator : TwoLevelMergeIterator.merge(buffer.iterator(), iterator);
+    }
+
+    // the entry valid from max(entry start time, from).
+    private static InternalEntry clip(InternalEntry entry, TimePointL from)
+    {
+        if(entry==null || entry.getKey().getStartTime().compareTo(from) >= 0) return entry;
+        InternalKey key = entry.getKey();
+        return new InternalEntry(new InternalKey(key.getId(), from, key.getValueType()), entry.getValue());
+    }
+
 //    EPAppendIterator getRangeValueIter(EntityPropertyId id, TimePointL startTime, TimePointL endTime)
 //    {
 //        List<FileMetaData> stList = propertyMeta.overlappedStable(startTime, endTime);
@@ -140,8 +205,14 @@ public class SinglePropertyStore
         unList.sort(Comparator.comparing(FileMetaData::getSmallest));
 
         for(FileMetaData meta : stList){
-            SearchableIterator fileIterator = this.cache.newIterator(Filename.stPath(proDir, meta.getNumber(), meta.getVersion()));
+            String path = Filename.stPath(proDir, meta.getNumber(), meta.getVersion());
             FileBuffer buffer = propertyMeta.getStableBuffers( meta.getNumber() );
+            if( !this.cache.mayContain(path, iterator.getId()) ){
+                // nothing in file, only the buffer may contain data of the entity.
+                if( null != buffer ) iterator.appendStables(buffer.iterator(), meta);
+                continue;
+            }
+            SearchableIterator fileIterator = this.cache.newIterator(path);
             if( null != buffer ){
                 iterator.appendStables(fileIterator, buffer.iterator(), meta);
             }else {
@@ -149,8 +220,13 @@ public class SinglePropertyStore
             }
         }
         for( FileMetaData meta : unList ){
-            SearchableIterator fileIterator = this.cache.newIterator(Filename.unPath(proDir, meta.getNumber(), meta.getVersion()));
+            String path = Filename.unPath(proDir, meta.getNumber(), meta.getVersion());
             FileBuffer buffer = propertyMeta.getUnstableBuffers( meta.getNumber() );
+            if( !this.cache.mayContain(path, iterator.getId()) ){
+                if( null != buffer ) iterator.appendUnStables(buffer.iterator(), meta);
+                continue;
+            }
+            SearchableIterator fileIterator = this.cache.newIterator(path);
             if( null != buffer ){
                 iterator.appendUnStables(fileIterator, buffer.iterator(), meta);
             }else {
@@ -159,17 +235,13 @@ public class SinglePropertyStore
         }
     }
 
-    private Slice unPointValue(InternalKey searchKey) {
+    private InternalEntry unPointValue(InternalKey searchKey) {
         List<FileMetaData> checkList = new ArrayList<>(propertyMeta.getUnStableFiles().values());
-        checkList.sort(Comparator.comparing(FileMetaData::getNumber));
+        checkList.sort(Comparator.comparing(FileMetaData::getSmallest).reversed()); // newest first
         for (FileMetaData meta : checkList) {
-            SearchableIterator iterator = new EPEntryIterator(searchKey.getId(),
-                    this.cache.newIterator(Filename.unPath(proDir, meta.getNumber(), meta.getVersion())));
-            FileBuffer buffer = propertyMeta.getUnstableBuffers(meta.getNumber());
-            if (null != buffer) {
-                iterator = TwoLevelMergeIterator.merge(new EPEntryIterator(searchKey.getId(), buffer.iterator()), iterator);
-            }
-            if(iterator.seekFloor(searchKey)){
+            SearchableIterator iterator = entityIterator(Filename.unPath(proDir, meta.getNumber(), meta.getVersion()),
+                    propertyMeta.getUnstableBuffers(meta.getNumber()), searchKey.getId());
+            if(iterator!=null && iterator.seekFloor(searchKey)){
                 InternalEntry lastE = null;
                 while(iterator.hasNext()) {
                     InternalEntry entry = iterator.next();
@@ -181,7 +253,7 @@ public class SinglePropertyStore
                 }
                 if(lastE!=null) {
 //                    System.out.print("⑤("+meta.getNumber()+")");
-                    return lastE.getValue();
+                    return lastE;
                 }
             } // else (searchKey smaller than iterator.firstKey) continue
         }
@@ -189,20 +261,30 @@ public class SinglePropertyStore
         FileMetaData meta = propertyMeta.latestStableMeta();
         if(meta!=null) {
 //            System.out.print("③");
-            return stPointValue(meta, searchKey);
+            return clip(stPointValue(meta, searchKey), meta.getSmallest());
         }else {
             return null;
         }
     }
 
-    private Slice stPointValue(FileMetaData meta, InternalKey searchKey){
-        SearchableIterator iterator = new EPEntryIterator(searchKey.getId(),
-                this.cache.newIterator(Filename.stPath(proDir, meta.getNumber(), meta.getVersion())));
-        FileBuffer buffer = propertyMeta.getStableBuffers(meta.getNumber());
-        if (null != buffer) {
-            iterator = TwoLevelMergeIterator.merge(new EPEntryIterator(searchKey.getId(), buffer.iterator()), iterator);
+    /**
+     * 文件及其buffer中id的数据，用文件的布隆过滤器跳过不含该id的文件
+     * @return null if neither the file nor the buffer contains the id.
+     */
+    private SearchableIterator entityIterator(String path, FileBuffer buffer, EntityPropertyId id){
+        SearchableIterator bufIter = buffer == null ? null : new EPEntryIterator(id, buffer.iterator());
+        if(!this.cache.mayContain(path, id)) return bufIter;
+        SearchableIterator iterator = new EPEntryIterator(id, this.cache.newIterator(path));
+        if (null != bufIter) {
+            iterator = TwoLevelMergeIterator.merge(bufIter, iterator);
         }
-        if(iterator.seekFloor(searchKey)){
+        return iterator;
+    }
+
+    private InternalEntry stPointValue(FileMetaData meta, InternalKey searchKey){
+        SearchableIterator iterator = entityIterator(Filename.stPath(proDir, meta.getNumber(), meta.getVersion()),
+                propertyMeta.getStableBuffers(meta.getNumber()), searchKey.getId());
+        if(iterator!=null && iterator.seekFloor(searchKey)){
             InternalEntry lastE = null;
             while(iterator.hasNext()) {
                 InternalEntry entry = iterator.next();
@@ -214,7 +296,7 @@ public class SinglePropertyStore
             }
             if(lastE!=null){
 //                System.out.print("④("+meta.getNumber()+")");
-                return lastE.getValue();
+                return lastE;
             }
             else{
                 return null;
@@ -225,6 +307,21 @@ public class SinglePropertyStore
     }
 
 
+    public CompactionPolicy getCompactionPolicy()
+    {
+        return compaction;
+    }
+
+    public void setCompactionPolicy( CompactionPolicy policy )
+    {
+        this.compaction = policy;
+    }
+
+    public void setCompression( CompressionType unstable, CompressionType stable, boolean dictionary )
+    {
+        propertyMeta.setCompression( unstable, stable, dictionary );
+    }
+
     // this method runs in the background thread.
     // insert entry to file buffer, and pack remain entries to a MergeTask
     public MergeTask merge(MemTable memTable) throws IOException {
@@ -284,7 +381,7 @@ public class SinglePropertyStore
             }
         }
         if(!toMerge.isEmpty()){
-            return new MergeTask( proDir, toMerge, propertyMeta, this.cache, index );
+            return new MergeTask( proDir, toMerge, propertyMeta, this.cache, index, compaction, pointCache );
         }else{
             return null;
         }
@@ -316,9 +413,7 @@ public class SinglePropertyStore
             }
             DebugIterator.checkIntervalE(key, "insert to un."+meta.getNumber()+".buf");
             buffer.add( validKey, value );
-            if(!BULK_MODE && buffer.size()>1024*1024*TemporalPropertyStoreImpl.FBUFFER_SIZE) {
-                unBufferToFile( meta, buffer );
-            }
+            // oversize buffer would be merged to file by MergeProcess (see bufferMergeTask).
         }
     }
 
@@ -341,50 +436,240 @@ public class SinglePropertyStore
             }
             DebugIterator.checkIntervalE(key, "insert to st."+meta.getNumber()+".buf");
             buffer.add( validKey, value );
-            if(buffer.size()>1024*1024*TemporalPropertyStoreImpl.FBUFFER_SIZE) {
+            // in normal mode oversize buffer would be merged to file by MergeProcess (see bufferMergeTask).
+            if(BULK_MODE && buffer.size()>1024*1024*TemporalPropertyStoreImpl.FBUFFER_SIZE) {
                 stBufferToFile( meta, buffer );
             }
         }
     }
 
     public void unBufferToFile(FileMetaData meta, FileBuffer buffer) throws IOException {
-        String filePath = Filename.unPath(proDir, meta.getNumber(), meta.getVersion());
-        int newVersion = meta.getVersion()+1;
-        String targetPath = Filename.unPath(proDir, meta.getNumber(), newVersion);
-        long fSize = buffer2file(filePath, targetPath, buffer, index.emptyUpdate()); //unstable file 没有索引文件
-        propertyMeta.addUnstable(new FileMetaData(meta.getNumber(), fSize, meta.getSmallest(), meta.getLargest(), newVersion));
-        propertyMeta.delUnstableBuffer(meta.getNumber());
-        propertyMeta.old2delete.add(filePath);
-        propertyMeta.old2delete.add(buffer.getFilePath());
+        runInline( new BufferMergeTask( false, meta, buffer ) );
     }
 
     public void stBufferToFile(FileMetaData meta, FileBuffer buffer) throws IOException {
-        String filePath = Filename.stPath(proDir, meta.getNumber(), meta.getVersion());
-        int newVersion = meta.getVersion()+1;
-        String targetPath = Filename.stPath(proDir, meta.getNumber(), newVersion);
-        IndexUpdater indexUpdater = index.onBufferDelUpdate( propertyMeta.getPropertyId(), true, meta, buffer.getMemTable());
-        long fSize = buffer2file(filePath, targetPath, buffer, indexUpdater);
-        propertyMeta.addStable(new FileMetaData(meta.getNumber(), fSize, meta.getSmallest(), meta.getLargest(), newVersion));
-        propertyMeta.delStableBuffer(meta.getNumber());
-        propertyMeta.old2delete.add(filePath);
-        propertyMeta.old2delete.add(buffer.getFilePath());
-        indexUpdater.finish(meta);
-        indexUpdater.updateMeta();
-        indexUpdater.cleanUp();
+        runInline( new BufferMergeTask( true, meta, buffer ) );
+    }
+
+    private void runInline( BackgroundTask task ) throws IOException {
+        task.runTask();
+        task.updateMeta();
+        task.cleanUp();
+    }
+
+    /**
+     * @return 把超过FBUFFER_SIZE的buffer合并到对应文件的任务，如果文件或buffer已经不存在（被合并了）或buffer未超过大小则返回null
+     */
+    public BackgroundTask bufferMergeTask( boolean isStable, long fileNumber ) {
+        FileMetaData meta = isStable ? propertyMeta.getStableFiles().get( fileNumber ) : propertyMeta.getUnStableFiles().get( fileNumber );
+        FileBuffer buffer = isStable ? propertyMeta.getStableBuffers( fileNumber ) : propertyMeta.getUnstableBuffers( fileNumber );
+        if ( meta == null || buffer == null || buffer.size() <= 1024 * 1024 * TemporalPropertyStoreImpl.FBUFFER_SIZE ) return null;
+        return new BufferMergeTask( isStable, meta, buffer );
+    }
+
+    // 将buffer与对应的文件合并为新版本的文件
+    private class BufferMergeTask implements BackgroundTask {
+        private final boolean isStable;
+        private final FileMetaData meta;
+        private final FileBuffer buffer;
+        private final String sourcePath;
+        private final String targetPath;
+        private final int newVersion;
+        private IndexUpdater indexUpdater;
+        private long fSize;
+
+        BufferMergeTask( boolean isStable, FileMetaData meta, FileBuffer buffer ) {
+            this.isStable = isStable;
+            this.meta = meta;
+            this.buffer = buffer;
+            this.newVersion = meta.getVersion() + 1;
+            if ( isStable ) {
+                this.sourcePath = Filename.stPath( proDir, meta.getNumber(), meta.getVersion() );
+                this.targetPath = Filename.stPath( proDir, meta.getNumber(), newVersion );
+            } else {
+                this.sourcePath = Filename.unPath( proDir, meta.getNumber(), meta.getVersion() );
+                this.targetPath = Filename.unPath( proDir, meta.getNumber(), newVersion );
+            }
+        }
+
+        @Override
+        public void runTask() throws IOException {
+            // BULK_MODE下在写线程上执行
+            boolean background = BackgroundThread.enter();
+            try {
+                if ( isStable ) {
+                    indexUpdater = index.onBufferDelUpdate( propertyMeta.getPropertyId(), true, meta, buffer.getMemTable() );
+                } else {
+                    indexUpdater = index.emptyUpdate(); //unstable file 没有索引文件
+                }
+                fSize = buffer2file( sourcePath, targetPath, buffer, indexUpdater, isStable );
+                indexUpdater.finish( meta );
+            } finally {
+                BackgroundThread.exit( background );
+            }
+        }
+
+        @Override
+        public void updateMeta() {
+            FileMetaData newMeta = new FileMetaData( meta.getNumber(), fSize, meta.getSmallest(), meta.getLargest(), newVersion );
+            if ( isStable ) {
+                propertyMeta.addStable( newMeta );
+                propertyMeta.delStableBuffer( meta.getNumber() );
+            } else {
+                propertyMeta.addUnstable( newMeta );
+                propertyMeta.delUnstableBuffer( meta.getNumber() );
+            }
+            propertyMeta.old2delete.add( sourcePath );
+            propertyMeta.old2delete.add( buffer.getFilePath() );
+            indexUpdater.updateMeta();
+            cache.evict( sourcePath );
+        }
+
+        @Override
+        public void cleanUp() throws IOException {
+            buffer.close();
+            indexUpdater.cleanUp();
+        }
+
+        @Override
+        public String toString() {
+            return "BufferMerge(" + propertyMeta.getPropertyId() + (isStable ? ".st." : ".un.") + meta.getNumber() + ")";
+        }
+    }
+
+    /**
+     * @return 把时间上相邻的若干个小StableFile（及其buffer）合并为一个文件的任务，没有需要合并的文件时返回null
+     */
+    public BackgroundTask consolidateTask() {
+        List<FileMetaData> group = pickConsolidateGroup();
+        return group == null ? null : new StableConsolidateTask( group );
+    }
+
+    public boolean needConsolidate() {
+        return pickConsolidateGroup() != null;
+    }
+
+    private List<FileMetaData> pickConsolidateGroup() {
+        return pickConsolidateGroup( STABLE_PARTITION_SIZE * 1024 * 1024, STABLE_PARTITION_TIME, STABLE_CONSOLIDATE_FILES );
+    }
+
+    // 按时间顺序找第一段连续的小文件：总大小不超过maxSize，起始时间在同一个时间分区（partitionTime>0时）内，对应的索引相同，且至少有minFiles个
+    List<FileMetaData> pickConsolidateGroup( long maxSize, long partitionTime, int minFiles ) {
+        List<FileMetaData> files = new ArrayList<>( propertyMeta.getStableFiles().values() );
+        files.sort( Comparator.comparing( FileMetaData::getSmallest ) );
+        List<FileMetaData> group = new ArrayList<>();
+        long size = 0;
+        for ( FileMetaData f : files ) {
+            long fSize = f.getFileSize();
+            FileBuffer buffer = propertyMeta.getStableBuffers( f.getNumber() );
+            if ( buffer != null ) fSize += buffer.size();
+            if ( group.isEmpty() || size + fSize > maxSize || !sameConsolidatePartition( group.get( 0 ), f, partitionTime ) ) {
+                if ( group.size() >= minFiles ) return group;
+                group = new ArrayList<>();
+                size = 0;
+            }
+            if ( fSize < maxSize ) {
+                group.add( f );
+                size += fSize;
+            }
+        }
+        return group.size() >= minFiles ? group : null;
+    }
+
+    private boolean sameConsolidatePartition( FileMetaData first, FileMetaData f, long partitionTime ) {
+        if ( partitionTime > 0 ) {
+            long p0 = first.getSmallest().isInit() ? 0 : first.getSmallest().val() / partitionTime;
+            if ( p0 != f.getSmallest().val() / partitionTime ) return false;
+        }
+        int pid = propertyMeta.getPropertyId();
+        return index.indexOfStable( pid, first.getNumber() ).equals( index.indexOfStable( pid, f.getNumber() ) );
+    }
+
+    // 将时间上相邻的多个StableFile及其buffer合并为一个StableFile，编号沿用最后一个文件的编号，版本号加一
+    private class StableConsolidateTask implements BackgroundTask {
+        private final List<FileMetaData> participants;
+        private final FileMetaData last;
+        private final int newVersion;
+        private final String targetPath;
+        private final List<FileBuffer> buffers = new ArrayList<>();
+        private IndexUpdater indexUpdater;
+        private FileMetaData targetMeta;
+
+        StableConsolidateTask( List<FileMetaData> participants ) {
+            this.participants = participants;
+            this.last = participants.get( participants.size() - 1 );
+            this.newVersion = last.getVersion() + 1;
+            this.targetPath = Filename.stPath( proDir, last.getNumber(), newVersion );
+        }
+
+        @Override
+        public void runTask() throws IOException {
+            List<Long> numbers = new ArrayList<>();
+            SameLevelMergeIterator iterator = new SameLevelMergeIterator();
+            for ( FileMetaData meta : participants ) {
+                numbers.add( meta.getNumber() );
+                SearchableIterator fileIterator = cache.newIterator( Filename.stPath( proDir, meta.getNumber(), meta.getVersion() ) );
+                FileBuffer buffer = propertyMeta.getStableBuffers( meta.getNumber() );
+                if ( buffer != null ) {
+                    fileIterator = TwoLevelMergeIterator.merge( buffer.iterator(), fileIterator );
+                    buffers.add( buffer );
+                }
+                iterator.add( fileIterator );
+            }
+            indexUpdater = index.onStableConsolidateUpdate( propertyMeta.getPropertyId(), numbers );
+            // each file begins with a copy of latest values of the previous file, which are redundant now.
+            long fSize = writeTable( targetPath, new EqualValFilterIterator( iterator ), indexUpdater, true );
+            targetMeta = new FileMetaData( last.getNumber(), fSize, participants.get( 0 ).getSmallest(), last.getLargest(), newVersion );
+            indexUpdater.finish( targetMeta );
+        }
+
+        @Override
+        public void updateMeta() {
+            for ( FileMetaData meta : participants ) {
+                String path = Filename.stPath( proDir, meta.getNumber(), meta.getVersion() );
+                propertyMeta.delStable( meta.getNumber() );
+                propertyMeta.delStableBuffer( meta.getNumber() );
+                propertyMeta.old2delete.add( path );
+                cache.evict( path );
+            }
+            for ( FileBuffer buffer : buffers ) {
+                propertyMeta.old2delete.add( buffer.getFilePath() );
+            }
+            propertyMeta.addStable( targetMeta );
+            indexUpdater.updateMeta();
+        }
+
+        @Override
+        public void cleanUp() throws IOException {
+            for ( FileBuffer buffer : buffers ) {
+                buffer.close();
+            }
+            indexUpdater.cleanUp();
+        }
+
+        @Override
+        public String toString() {
+            return "Consolidate(" + propertyMeta.getPropertyId() + ".st." + participants.get( 0 ).getNumber() + "-" + last.getNumber() + ")";
+        }
     }
 
     /* 会被stable file和unstable file的合并过程同时调用 */
-    private long buffer2file( String sourcePath, String targetPath, FileBuffer buffer, IndexUpdater indexUpdater ) throws IOException {
-        File targetFile = new File(targetPath);
+    private long buffer2file( String sourcePath, String targetPath, FileBuffer buffer, IndexUpdater indexUpdater, boolean isStable ) throws IOException {
         System.out.println("buffer merge: "+sourcePath);
+        long fSize = writeTable( targetPath, TwoLevelMergeIterator.merge(buffer.iterator(), this.cache.newIterator(sourcePath)), indexUpdater, isStable );
+        System.out.println("buffer merge done.");
+        return fSize;
+    }
+
+    private long writeTable( String targetPath, SearchableIterator iterator, IndexUpdater indexUpdater, boolean isStable ) throws IOException {
+        File targetFile = new File(targetPath);
         Files.deleteIfExists(targetFile.toPath());
         Files.createFile(targetFile.toPath());
 
         FileOutputStream stream = new FileOutputStream(targetFile);
         FileChannel channel = stream.getChannel();
-        TableBuilder builder = new TableBuilder(new Options(), channel, TableComparator.instance());
+        TableBuilder builder = new TableBuilder(propertyMeta.tableOptions(TemporalPropertyStoreImpl.tableOptions(isStable), isStable), channel, TableComparator.instance());
 
-        SearchableIterator iterator = TwoLevelMergeIterator.merge(buffer.iterator(), this.cache.newIterator(sourcePath));
         while (iterator.hasNext()) {
             InternalEntry entry = iterator.next();
             builder.add(entry.getKey().encode(), entry.getValue());
@@ -394,9 +679,6 @@ public class SinglePropertyStore
         builder.finish();
         channel.close();
         stream.close();
-        this.cache.evict(sourcePath);
-        buffer.close();
-        System.out.println("buffer merge done.");
         return fSize;
     }
 
@@ -1,62 +1,82 @@
 
 package org.act.temporalProperty.impl;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.cache.RemovalListener;
+import org.act.temporalProperty.table.BlockCache;
+import org.act.temporalProperty.table.ChecksumMode;
 import org.act.temporalProperty.table.FileChannelTable;
 import org.act.temporalProperty.table.MMapTable;
 import org.act.temporalProperty.table.Table;
 import org.act.temporalProperty.table.UserComparator;
 import org.act.temporalProperty.util.Closeables;
 import org.act.temporalProperty.util.Finalizer;
+import org.act.temporalProperty.vo.EntityPropertyId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
+import com.google.common.base.Preconditions;
+
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * 对所有存储文件的缓存机制，使用FIFO的方式进行，如果需要对某个文件进行访问，可以直接从TableCache这里对文件的Iterator进行查询
- *
+ * 对所有存储文件的缓存机制，按LRU淘汰，如果需要对某个文件进行访问，可以直接从TableCache这里对文件的Iterator进行查询
+ * 同时限制打开的文件数（文件描述符）和mmap的总字节数，任一超出时淘汰最久未访问的文件。
+ * 查询返回的iterator和直接读取文件映射的数据块引用着Table（见Block.owner），它们没有close()，所以用可达性代替引用计数：
+ * 被淘汰的Table交给Finalizer，GC发现最后一个iterator/数据块不可达后由Finalizer的后台线程unmap并关闭文件，不会unmap正在被读取的文件。
+ * 在此之前文件仍占用文件描述符和映射，所以打开新文件时，缓存的和等待unmap的文件合计超出任一限制就触发GC，
+ * 并最多等待RECLAIM_WAIT_MS让Finalizer回收（等待期间正在被读取的文件无法回收，超时后照常打开）。
  */
 public class TableCache
 {
     private static Logger log = LoggerFactory.getLogger(TableCache.class);
-    private final LoadingCache<String, TableAndFile> cache;
-    private Finalizer<Table> finalizer = new Finalizer<>();
-    private final Map<String, Long> loadFreq = new HashMap<>();
-
-    public TableCache(int tableCacheSize, final UserComparator userComparator, final boolean verifyChecksums)
-    {
-        cache = CacheBuilder.newBuilder()
-                .maximumSize(tableCacheSize)
-                .removalListener((RemovalListener<String, TableAndFile>) notification -> {
-                    Table table = notification.getValue().getTable();
-//                    try {
-//                        table.close();
-//                        System.out.println("CLOSE "+notification.getKey());
-//                    } catch (IOException e) {
-//                        throw new IllegalStateException(e);
-//                    }
-                    log.trace("RM "+notification.getKey());
-                    finalizer.addCleanup(table, table.closer());
-                })
-                .build(new CacheLoader<String, TableAndFile>(){
-                    @Override
-                    public TableAndFile load(String filePath) throws IOException{
-                        log.trace("LOAD "+filePath);
-                        loadFreq.compute(filePath, (s, aLong) -> aLong==null ? 1 : aLong+1);
-                        return new TableAndFile(filePath, userComparator, verifyChecksums);
-                    }
-                });
+    private static final long RECLAIM_WAIT_MS = 200;
+    private final int maxOpenFiles;
+    private final long maxMappedBytes;
+    private final UserComparator userComparator;
+    private final ChecksumMode checksumMode;
+    private final BlockCache blockCache; // null if not enabled
+    private final Finalizer<Table> finalizer = new Finalizer<>();
+
+    // file path -> table, in access order, the eldest is evicted first. guarded by this.
+    private final LinkedHashMap<String, TableAndFile> tables = new LinkedHashMap<>(16, 0.75f, true);
+    private int openFiles;
+    private long mappedBytes;
+    // evicted but still reachable, not counted in openFiles and mappedBytes. guarded by this.
+    private int pendingFiles;
+    private long pendingBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder reclaimWaits = new LongAdder();
+
+    public TableCache(int tableCacheSize, final UserComparator userComparator, final ChecksumMode checksumMode)
+    {
+        this(tableCacheSize, Long.MAX_VALUE, userComparator, checksumMode, null);
+    }
+
+    /**
+     * @param maxOpenFiles 同时打开的文件数上限（包括已淘汰、等待unmap的文件）
+     * @param maxMappedBytes 同时mmap的文件总字节数上限（包括已淘汰、等待unmap的文件）
+     * @param blockCache 所有文件共享的数据块和index/meta block缓存，null表示不缓存
+     */
+    public TableCache(int maxOpenFiles, long maxMappedBytes, final UserComparator userComparator, final ChecksumMode checksumMode, final BlockCache blockCache)
+    {
+        Preconditions.checkArgument(maxOpenFiles > 0, "maxOpenFiles must be positive");
+        Preconditions.checkArgument(maxMappedBytes > 0, "maxMappedBytes must be positive");
+        this.maxOpenFiles = maxOpenFiles;
+        this.maxMappedBytes = maxMappedBytes;
+        this.userComparator = userComparator;
+        this.checksumMode = checksumMode;
+        this.blockCache = blockCache;
     }
 
     /**
@@ -69,27 +89,231 @@ public class TableCache
         return new PackInternalKeyIterator(getTable(filePath).iterator(), filePath);
     }
 
+    /**
+     * 检查文件的布隆过滤器，返回false时文件中一定没有该点/边的数据，不需要创建迭代器
+     */
+    public boolean mayContain(String filePath, EntityPropertyId id)
+    {
+        return getTable(filePath).mayContain(id);
+    }
+
+    /**
+     * 文件不在缓存中时打开文件，同一文件只打开一次（其他线程等待），不同文件可以同时打开
+     */
     public Table getTable(String filePath)
     {
-        Table table;
-        try {
-            table = cache.get(filePath).getTable();
-            log.trace("GOT "+filePath);
+        TableAndFile entry;
+        synchronized (this) {
+            entry = tables.get(filePath);
+            if (entry == null) {
+                entry = new TableAndFile();
+                tables.put(filePath, entry);
+            }
+        }
+        Table table = entry.table;
+        if (table != null) {
+            hits.increment();
+            return table;
+        }
+        synchronized (entry) {
+            if (entry.table != null) {
+                hits.increment();
+                return entry.table;
+            }
+            misses.increment();
+            awaitReclaim();
+            long start = System.nanoTime();
+            try {
+                table = openTable(filePath);
+            }
+            catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    tables.remove(filePath, entry);
+                }
+                throw new RuntimeException("Could not open table " + filePath, e);
+            }
+            loadNanos.add(System.nanoTime() - start);
+            log.trace("LOAD "+filePath);
+            entry.table = table;
         }
-        catch (ExecutionException e) {
-            Throwable cause = e;
-            if (e.getCause() != null) {
-                cause = e.getCause();
+        synchronized (this) {
+            if (tables.get(filePath) == entry) {
+                entry.mappedBytes = table.mappedSize();
+                entry.counted = true;
+                openFiles++;
+                mappedBytes += entry.mappedBytes;
+                evictOverBudget(entry);
+            }
+            else {
+                // evicted while loading, the caller still uses it.
+                release(filePath, table, table.mappedSize());
             }
-            throw new RuntimeException("Could not open table " + filePath, cause);
         }
         return table;
     }
 
-    public Finalizer<Table> cleanUp(){
-        Finalizer<Table> f = this.finalizer;
-        this.finalizer = new Finalizer<>();
-        return f;
+    private Table openTable(String filePath) throws IOException
+    {
+        FileChannel fileChannel = new RandomAccessFile(filePath,"rw").getChannel();
+        try {
+            //FIXME
+            if ( true ) {
+                return new MMapTable(filePath, fileChannel, userComparator, checksumMode, true, blockCache);
+            }else{
+                return new FileChannelTable(filePath, fileChannel, userComparator, checksumMode, blockCache);
+            }
+        } catch (IOException | RuntimeException e) {
+            Closeables.closeQuietly(fileChannel);
+            throw e;
+        }
+    }
+
+    // called before opening a file. evicted tables keep their files until GC finds them unreachable,
+    // so force a GC and wait a little for the Finalizer while they keep the cache over budget.
+    private synchronized void awaitReclaim()
+    {
+        if (!overBudget()) {
+            return;
+        }
+        reclaimWaits.increment();
+        System.gc();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RECLAIM_WAIT_MS);
+        long remaining;
+        while (overBudget() && (remaining = deadline - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (overBudget()) {
+            log.debug("{} evicted files still in use, open anyway", pendingFiles);
+        }
+    }
+
+    // called with this locked. true if the pending tables leave no room for one more file.
+    private boolean overBudget()
+    {
+        return pendingFiles > 0 && (openFiles + pendingFiles >= maxOpenFiles || mappedBytes + pendingBytes > maxMappedBytes);
+    }
+
+    // called with this locked. keeps the just loaded table even if it alone exceeds the budget.
+    private void evictOverBudget(TableAndFile loaded)
+    {
+        Iterator<Map.Entry<String, TableAndFile>> eldest = tables.entrySet().iterator();
+        while ((openFiles > maxOpenFiles || mappedBytes > maxMappedBytes) && eldest.hasNext()) {
+            Map.Entry<String, TableAndFile> e = eldest.next();
+            TableAndFile entry = e.getValue();
+            if (entry == loaded || !entry.counted) {
+                continue; // tables being loaded are counted after loading
+            }
+            eldest.remove();
+            uncount(e.getKey(), entry);
+            evictions.increment();
+        }
+    }
+
+    // called with this locked, after the entry is removed from tables.
+    private void uncount(String filePath, TableAndFile entry)
+    {
+        if (entry.counted) {
+            openFiles--;
+            mappedBytes -= entry.mappedBytes;
+            release(filePath, entry.table, entry.mappedBytes);
+        }
+    }
+
+    // called with this locked. unmap and close the file once the table is unreachable.
+    private void release(String filePath, Table table, long size)
+    {
+        log.trace("RM "+filePath);
+        Callable<?> closer = table.closer();
+        pendingFiles++;
+        pendingBytes += size;
+        finalizer.addCleanup(table, () -> {
+            try {
+                return closer.call();
+            }
+            finally {
+                synchronized (TableCache.this) {
+                    pendingFiles--;
+                    pendingBytes -= size;
+                    TableCache.this.notifyAll();
+                }
+            }
+        });
+    }
+
+    public long hits()
+    {
+        return hits.sum();
+    }
+
+    public long misses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @return 打开文件（读取footer、index block等）所用的总时间（纳秒）
+     */
+    public long loadNanos()
+    {
+        return loadNanos.sum();
+    }
+
+    public long evictions()
+    {
+        return evictions.sum();
+    }
+
+    /**
+     * @return 缓存中的文件数，不包括等待unmap的文件（见pendingUnmapFiles）
+     */
+    public synchronized int openFiles()
+    {
+        return openFiles;
+    }
+
+    /**
+     * @return 缓存中的文件的映射字节数，不包括等待unmap的文件（见pendingUnmapBytes）
+     */
+    public synchronized long mappedBytes()
+    {
+        return mappedBytes;
+    }
+
+    /**
+     * @return 已淘汰但仍被iterator引用、还没有unmap的文件数
+     */
+    public synchronized int pendingUnmapFiles()
+    {
+        return pendingFiles;
+    }
+
+    /**
+     * @return 已淘汰但仍被iterator引用、还没有unmap的文件的字节数
+     */
+    public synchronized long pendingUnmapBytes()
+    {
+        return pendingBytes;
+    }
+
+    /**
+     * @return 打开文件前因为等待unmap的文件超出限制而触发GC并等待的次数
+     */
+    public long reclaimWaits()
+    {
+        return reclaimWaits.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TableCache{open=" + openFiles() + ", mapped=" + (mappedBytes() >> 20) + "MB, pendingUnmap=" + pendingUnmapFiles() + "/" + (pendingUnmapBytes() >> 20) +
+                "MB, hits=" + hits() + ", misses=" + misses() + ", load=" + loadNanos() / 1000_000 + "ms, evictions=" + evictions() + ", reclaimWaits=" + reclaimWaits() + "}";
     }
 
     /**
@@ -98,14 +322,17 @@ public class TableCache
     public void close()
     {
         StringBuilder sb = new StringBuilder();
-        sb.append("TableCache.close: ");
-        if(!loadFreq.isEmpty()){
-            String path = new LinkedList<>(loadFreq.keySet()).getFirst();
-            sb.append(new File(path).getParentFile().getAbsolutePath()).append('/');
-        }
-        loadFreq.forEach((fPath, freq)-> sb.append(new File(fPath).getName()).append("=").append(freq).append(','));
+        sb.append("TableCache.close: ").append(this);
+        sb.append(" checksum verified ").append(Table.verifiedBlocks()).append(" blocks, ")
+                .append(Table.verifiedBytes() >> 20).append("MB in ").append(Table.verifyNanos() / 1000_000).append("ms");
+        if(blockCache!=null) sb.append(", ").append(blockCache);
         System.out.println(sb);
-        cache.invalidateAll();
+        synchronized (this) {
+            for (Map.Entry<String, TableAndFile> e : tables.entrySet()) {
+                uncount(e.getKey(), e.getValue());
+            }
+            tables.clear();
+        }
         finalizer.destroy();
     }
 
@@ -115,32 +342,19 @@ public class TableCache
      */
     public void evict(String filePath)
     {
-        cache.invalidate(filePath);
+        synchronized (this) {
+            TableAndFile entry = tables.remove(filePath);
+            if (entry != null) {
+                uncount(filePath, entry);
+            }
+        }
+        if(blockCache!=null) blockCache.invalidate(filePath);
     }
 
     private static final class TableAndFile
     {
-        private final Table table;
-        private final FileChannel fileChannel;
-    	
-    	private TableAndFile(String filePath, UserComparator userComparator, boolean verifyChecksums) throws IOException{
-            fileChannel = new RandomAccessFile(filePath,"rw").getChannel();
-            try {
-                //FIXME 
-                if ( true ) {
-                    table = new MMapTable(filePath, fileChannel, userComparator, verifyChecksums);
-                }else{
-                    table = new FileChannelTable(filePath, fileChannel, userComparator, verifyChecksums);
-                }
-            } catch (IOException e) {
-                Closeables.closeQuietly(fileChannel);
-                throw e;
-            }
-        }
-
-        public Table getTable()
-        {
-            return table;
-        }
+        private volatile Table table; // null while loading
+        private boolean counted; // table is loaded and counted in openFiles and mappedBytes, guarded by TableCache.this
+        private long mappedBytes;
     }
 }
@@ -22,8 +22,12 @@ import org.act.temporalProperty.query.TimePointL;
 import org.act.temporalProperty.query.aggr.AggregationIndexQueryResult;
 import org.act.temporalProperty.query.aggr.ValueGroupingMap;
 import org.act.temporalProperty.query.range.InternalEntryRangeQueryCallBack;
+import org.act.temporalProperty.table.BlockCache;
+import org.act.temporalProperty.table.ChecksumMode;
+import org.act.temporalProperty.table.CompactionPolicy;
 import org.act.temporalProperty.table.MergeProcess;
 import org.act.temporalProperty.table.TableComparator;
+import org.act.temporalProperty.util.IoRateLimiter;
 import org.act.temporalProperty.util.Slice;
 import org.act.temporalProperty.vo.EntityPropertyId;
 import org.act.temporalProperty.vo.TimeIntervalValueEntry;
@@ -34,6 +38,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -52,17 +57,120 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
     private MergeProcess mergeProcess;
     private File dbDir;
     private TableCache cache;
-    private MemTable memTable;
-    private MemTable stableMemTable; // a full memtable, which only used for query and (to be) merged, never write.
+    private PointValueCache pointCache; // null if not enabled
+    private LatestValueMap latestValues; // null if not enabled
+    private volatile MemTable memTable; // full memtables are queued in mergeProcess, which only used for query and (to be) merged, never write.
     private IndexStore index;
+    private WriteAheadLog wal; // null in BULK_MODE
 
     private boolean forbiddenWrite = false;
+    private final Object memTableSwitch = new Object(); // 并发写模式下只允许一个线程切换MemTable
     private FileReader lockFile; // keeps opened while system is running to prevent delete of the storage dir;
 
     public static final boolean debug = System.getenv().containsKey("CONFIG_TP_DEBUG");
     public static final long MEMTABLE_SIZE = getEnvLong("CONFIG_MEMTABLE_SIZE", 4);
     public static final long FBUFFER_SIZE = getEnvLong("CONFIG_FBUFFER_SIZE", 10);
-    public static final int MAX_FILE_OPEN = (int) getEnvLong("CONFIG_MAX_FILE_OPEN", 25);
+    /**
+     * TableCache同时打开的文件数和mmap的总大小(MB)上限，任一超出时淘汰最久未访问的文件，见TableCache。
+     */
+    public static final int MAX_FILE_OPEN = (int) getEnvLong("CONFIG_MAX_FILE_OPEN", 128);
+    public static final long MAX_MAPPED_SIZE = getEnvLong("CONFIG_MAX_MAPPED_SIZE", 1024);
+    /**
+     * WAL fsync策略: WAL_SYNC_INTERVAL(毫秒)>0时定时force；否则WAL_SYNC_BYTES>0时每写入这么多字节force一次；
+     * 都为0时每次写入都force（并发写线程组提交）。
+     */
+    public static final long WAL_SYNC_INTERVAL = getEnvLong("CONFIG_WAL_SYNC_INTERVAL", 0);
+    public static final long WAL_SYNC_BYTES = getEnvLong("CONFIG_WAL_SYNC_BYTES", 0);
+    /**
+     * MEMTABLE_STRIPES>1时开启并发写模式（BULK_MODE下不生效）：MemTable按EntityPropertyId的hash分成这么多片，各自加锁和计算大小，
+     * 写操作只持有共享锁；MemTable写满时只在放入合并队列的瞬间(epoch flip)阻塞写线程。
+     */
+    public static final int MEMTABLE_STRIPES = (int) getEnvLong("CONFIG_MEMTABLE_STRIPES", 1);
+    /**
+     * 写满的MemTable进入合并队列后即可继续写入新的MemTable。队列中的MemTable数达到MEMTABLE_QUEUE_SLOWDOWN时每次写操作延迟1毫秒，
+     * 达到MEMTABLE_QUEUE_STOP时写操作等待合并完成。
+     */
+    public static final long MEMTABLE_QUEUE_SLOWDOWN = getEnvLong("CONFIG_MEMTABLE_QUEUE_SLOWDOWN", 2);
+    public static final long MEMTABLE_QUEUE_STOP = getEnvLong("CONFIG_MEMTABLE_QUEUE_STOP", 4);
+    /**
+     * MemTable合并时并行执行各属性MergeTask的线程数，也是同时写文件的MergeTask数的上限，为1时在合并线程中顺序执行。
+     */
+    public static final int MERGE_THREADS = (int) getEnvLong("CONFIG_MERGE_THREADS", 1);
+    /**
+     * 写新文件(TableBuilder)时每写入TABLE_SYNC_SIZE(MB)就force(false)一次，把脏页分批写回磁盘，避免finish时一次性写回造成长时间停顿。0表示只在finish时force。
+     * 设置了CONFIG_TABLE_SYNC_NO_METADATA时finish也只force(false)：新文件的长度会随数据一起写入（fdatasync），只省去修改时间等元数据的写入。
+     */
+    public static final long TABLE_SYNC_SIZE = getEnvLong("CONFIG_TABLE_SYNC_SIZE", 0);
+    public static final boolean TABLE_SYNC_METADATA = !System.getenv().containsKey("CONFIG_TABLE_SYNC_NO_METADATA");
+    /**
+     * 合并、buffer合并、创建索引读写磁盘的速度上限(MB/s)，0表示不限速，可通过mergeIoLimiter()在运行时调整。
+     * 写操作因合并跟不上而等待（或合并队列达到MEMTABLE_QUEUE_SLOWDOWN）时速度上限乘以MERGE_IO_BOOST。
+     */
+    public static final long MERGE_READ_RATE = getEnvLong("CONFIG_MERGE_READ_RATE", 0);
+    public static final long MERGE_WRITE_RATE = getEnvLong("CONFIG_MERGE_WRITE_RATE", 0);
+    public static final long MERGE_IO_BOOST = getEnvLong("CONFIG_MERGE_IO_BOOST", 4);
+    /**
+     * 默认合并策略(cascade)的参数: 编号0..COMPACTION_FANOUT-1的UnStableFile都参与合并时生成StableFile；
+     * COMPACTION_TARGET_SIZE(MB)>0时参与合并的数据达到该大小也生成StableFile。各属性可用setCompactionPolicy单独设置。
+     */
+    public static final int COMPACTION_FANOUT = (int) getEnvLong("CONFIG_COMPACTION_FANOUT", 5);
+    public static final long COMPACTION_TARGET_SIZE = getEnvLong("CONFIG_COMPACTION_TARGET_SIZE", 0);
+    /**
+     * 后台合并相邻的小StableFile：一次至少合并STABLE_CONSOLIDATE_FILES个时间上连续的StableFile，合并结果不超过STABLE_PARTITION_SIZE(MB)，
+     * STABLE_PARTITION_TIME>0时只合并起始时间在同一个时间分区（长度为STABLE_PARTITION_TIME）内的文件。
+     */
+    public static final long STABLE_PARTITION_SIZE = getEnvLong("CONFIG_STABLE_PARTITION_SIZE", 64);
+    public static final long STABLE_PARTITION_TIME = getEnvLong("CONFIG_STABLE_PARTITION_TIME", 0);
+    public static final int STABLE_CONSOLIDATE_FILES = (int) getEnvLong("CONFIG_STABLE_CONSOLIDATE_FILES", 4);
+    /**
+     * StableFile和UnStableFile中每个EntityPropertyId占用的布隆过滤器bit数（见FilterBlock），查询时跳过不含该点/边数据的文件。
+     */
+    public static final int FILTER_BITS_PER_KEY = (int) getEnvLong("CONFIG_FILTER_BITS_PER_KEY", 10);
+    /**
+     * 读StableFile和UnStableFile的数据块时是否校验CRC: always, compaction（默认，只在后台合并读取时校验）或off，见ChecksumMode。
+     * 校验的块数和耗时可以通过Table.verifiedBlocks()和Table.verifyNanos()获得。
+     */
+    public static final ChecksumMode BLOCK_CHECKSUM = ChecksumMode.parse(System.getenv("CONFIG_BLOCK_CHECKSUM"), ChecksumMode.COMPACTION);
+    /**
+     * 所有属性共享的数据块缓存大小(MB)，缓存解码（解压）后的数据块，见BlockCache。
+     */
+    public static final long BLOCK_CACHE_SIZE = getEnvLong("CONFIG_BLOCK_CACHE_SIZE", 32);
+    /**
+     * 所有文件的index block和meta block（过滤器、统计信息等）缓存大小(MB)，与数据块分开计算，文件被TableCache淘汰后重新打开时不用再解码。
+     */
+    public static final long META_CACHE_SIZE = getEnvLong("CONFIG_META_CACHE_SIZE", 8);
+    /**
+     * 时间点查询结果的缓存大小(MB，包括值和堆上的索引)，默认为0（不缓存），见PointValueCache。设置CONFIG_POINT_CACHE_OFFHEAP时缓存的值保存在堆外内存中。
+     */
+    public static final long POINT_CACHE_SIZE = getEnvLong("CONFIG_POINT_CACHE_SIZE", 0);
+    public static final boolean POINT_CACHE_OFFHEAP = System.getenv().containsKey("CONFIG_POINT_CACHE_OFFHEAP");
+    /**
+     * 设置时在堆外内存中维护每个实体的属性在Now时刻的值（见LatestValueMap），启动时从文件重建，Now时刻的查询先查这里。
+     */
+    public static final boolean LATEST_VALUE_MAP = System.getenv().containsKey("CONFIG_LATEST_VALUE_MAP");
+    /**
+     * StableFile默认的压缩方式: none, snappy或deflate，默认与UnStableFile相同（见Options.CTP）。各属性可用setCompression单独设置。
+     */
+    public static final CompressionType STABLE_COMPRESSION = CompressionType.parse(System.getenv("CONFIG_STABLE_COMPRESSION"), Options.CTP);
+    /**
+     * StableFile的数据块按时序编码（见TemporalBlockBuilder），设置CONFIG_STABLE_PLAIN_BLOCK时使用与UnStableFile相同的普通格式。
+     */
+    public static final boolean STABLE_TEMPORAL_BLOCK = !System.getenv().containsKey("CONFIG_STABLE_PLAIN_BLOCK");
+    /**
+     * @param stable 生成的是否是StableFile
+     * @return 新文件的TableBuilder的默认设置，各属性的设置见PropertyMetaData.tableOptions
+     */
+    public static Options tableOptions( boolean stable )
+    {
+        return new Options()
+                .filterBitsPerKey( FILTER_BITS_PER_KEY )
+                .compressionType( stable ? STABLE_COMPRESSION : Options.CTP )
+                .temporalBlockFormat( stable && STABLE_TEMPORAL_BLOCK )
+                .tableStats( true )
+                .syncInterval( TABLE_SYNC_SIZE << 20 )
+                .syncMetadata( TABLE_SYNC_METADATA );
+    }
+
     /**
      * if BULK_MODE is true, then:
      * 1. Memtable merge in writer thread (no background thread will start)
@@ -90,12 +198,19 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
     {
         BULK_MODE = bulkMode;
         this.dbDir = dbDir;
+        if ( POINT_CACHE_SIZE > 0 && !BULK_MODE ) this.pointCache = new PointValueCache( POINT_CACHE_SIZE << 20, POINT_CACHE_OFFHEAP );
         this.init();
-        this.cache = new TableCache( MAX_FILE_OPEN, TableComparator.instance(), false );
+        this.cache = new TableCache( MAX_FILE_OPEN, MAX_MAPPED_SIZE << 20, TableComparator.instance(), BLOCK_CHECKSUM, new BlockCache( BLOCK_CACHE_SIZE << 20, META_CACHE_SIZE << 20 ) );
         IndexMetaManager indexMetaManager = new IndexMetaManager(meta.getIndexes(), meta.indexNextId(), meta.indexNextFileId());
         this.index = new IndexStore( new File( dbDir, "index" ), this, indexMetaManager);
-        this.meta.initStore( dbDir, cache, indexMetaManager, index);
-        this.mergeProcess = new MergeProcess( dbDir.getAbsolutePath(), meta, cache, index );
+        this.meta.initStore( dbDir, cache, indexMetaManager, index, pointCache );
+        this.recoverProperties();
+        this.mergeProcess = new MergeProcess( dbDir.getAbsolutePath(), meta, cache, index, wal, (int) MEMTABLE_QUEUE_STOP );
+        if ( LATEST_VALUE_MAP && !BULK_MODE )
+        {
+            this.latestValues = new LatestValueMap();
+            this.loadLatestValues();
+        }
         if(!BULK_MODE) this.mergeProcess.start();
     }
 
@@ -107,7 +222,38 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
         StoreInitial starter = new StoreInitial( dbDir );
         lockFile = starter.init();
         this.meta = starter.getMetaInfo();
+        starter.upgradeTables( this.meta );
         this.memTable = starter.getMemTable();
+        if ( concurrentWrite() )
+        {
+            MemTable striped = newMemTable();
+            PeekingIterator<Map.Entry<TimeIntervalKey,Slice>> iterator = this.memTable.intervalEntryIterator();
+            while ( iterator.hasNext() )
+            {
+                Map.Entry<TimeIntervalKey,Slice> entry = iterator.next();
+                striped.addInterval( entry.getKey(), entry.getValue() );
+            }
+            this.memTable = striped;
+        }
+        if(!BULK_MODE) this.wal = new WriteAheadLog( dbDir, memTable, WAL_SYNC_INTERVAL, WAL_SYNC_BYTES );
+        starter.deleteRecoveredLogs();
+    }
+
+    /**
+     * 从WAL恢复的数据可能属于崩溃前自动创建、但meta还未写盘的属性，这里补上创建。
+     */
+    private void recoverProperties()
+    {
+        PeekingIterator<Map.Entry<TimeIntervalKey,Slice>> iterator = this.memTable.intervalEntryIterator();
+        while ( iterator.hasNext() )
+        {
+            TimeIntervalKey key = iterator.next().getKey();
+            int proId = key.getId().getPropertyId();
+            if ( !meta.getProperties().containsKey( proId ) && key.getValueType().isExactValueType() )
+            {
+                createProperty( proId, key.getValueType().toValueContentType() );
+            }
+        }
     }
 
     /**
@@ -124,6 +270,7 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
         this.flushMemTable2Disk();
         this.closeAllBuffer();
         this.flushMetaInfo2Disk();
+        if(wal!=null) this.wal.close();
         this.lockFile.close();
         Files.delete( new File( dbDir, Filename.lockFileName() ).toPath() );
         cleanUpMultiVersionFiles();
@@ -146,33 +293,42 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
     public Slice getPointValue( long entityId, int proId, TimePointL time )
     {
         if(BULK_MODE) throw new UnsupportedOperationException();
-        InternalKey searchKey = new InternalKey( new EntityPropertyId(entityId, proId), time );
+        EntityPropertyId id = new EntityPropertyId( entityId, proId );
+        InternalKey searchKey = new InternalKey( id, time );
         this.meta.lock.lockShared();
         try
         {
+            if ( latestValues != null && time.isNow() )
+            {
+                InternalEntry latest = latestValues.get( id );
+                if ( latest != null ) return latest.getKey().getValueType() == ValueType.INVALID ? null : latest.getValue();
+            }
+            long generation = 0;
+            if ( pointCache != null )
+            {
+                // read before the memtables, so a write after that would reject the result, see PointValueCache.
+                generation = pointCache.generation( id );
+                Slice cached = pointCache.get( id, time );
+                if ( cached != null ) return cached;
+            }
+            // snapshot of current memtables. memTable must be read first, see switchMemTable.
+            MemTable active = this.memTable;
+            List<MemTable> immutables = mergeProcess.immutableMemTables();
             try
             {
-    //            System.out.print("⑥");
-                return memTable.get( searchKey );
+                return memTableValue( active, immutables, searchKey );
             }
             catch ( ValueUnknownException e )
             {
-                if ( this.stableMemTable != null && meta.hasStableMemTable())
-                {
-                    try
-                    {
-    //                    System.out.print("⑦");
-                        return stableMemTable.get( searchKey );
-                    }
-                    catch ( ValueUnknownException e1 )
-                    {
-                        return meta.getStore( proId ).getPointValue( searchKey );
-                    }
-                }
-                else
-                {
-                    return meta.getStore( proId ).getPointValue( searchKey );
-                }
+                if ( pointCache == null ) return meta.getStore( proId ).getPointValue( searchKey );
+                InternalEntry entry = meta.getStore( proId ).getPointEntry( searchKey );
+                if ( entry == null ) return null;
+                // cache the result only if memtables have no data of the entity in the interval.
+                TimePointL from = entry.getKey().getStartTime();
+                boolean inMemTable = active.overlap( id, from, time );
+                for ( MemTable immutable : immutables ) inMemTable |= immutable.overlap( id, from, time );
+                if ( !inMemTable ) pointCache.put( id, from, time, entry.getValue(), generation );
+                return entry.getValue();
             }
         }
         finally
@@ -181,6 +337,45 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
         }
     }
 
+    /**
+     * 依次在当前MemTable和等待合并的MemTable中（从新到旧）查询时间点的值
+     * @param immutables 等待合并的MemTable，按提交顺序排列（旧的在前）
+     * @throws ValueUnknownException 所有MemTable中都没有该时间点的值
+     */
+    static Slice memTableValue( MemTable active, List<MemTable> immutables, InternalKey searchKey ) throws ValueUnknownException
+    {
+        try
+        {
+            return active.get( searchKey );
+        }
+        catch ( ValueUnknownException e )
+        {
+            for ( int i = immutables.size() - 1; i >= 0; i-- ) // newest first
+            {
+                try
+                {
+                    return immutables.get( i ).get( searchKey );
+                }
+                catch ( ValueUnknownException ignore )
+                {
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 将MemTable加入时间段查询，新的MemTable中的值覆盖旧的
+     * @param immutables 等待合并的MemTable，按提交顺序排列（旧的在前）
+     * @param cache 事务的MemTable，可以为null
+     */
+    static void addMemTables( EPRangeQueryIterator rangeIter, MemTable active, List<MemTable> immutables, MemTable cache )
+    {
+        rangeIter.addMemTable( active );
+        for ( MemTable table : immutables ) rangeIter.addStableMemTable( table );
+        rangeIter.addTransactionMemTable( cache );
+    }
+
     @Override
     public Object getRangeValue(long id, int proId, TimePointL startTime, TimePointL endTime, InternalEntryRangeQueryCallBack callback )
     {
@@ -202,12 +397,10 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
 
             EntityPropertyId id = new EntityPropertyId(entityId, proId);
 
+            MemTable active = this.memTable;
+            List<MemTable> immutables = mergeProcess.immutableMemTables();
             EPRangeQueryIterator rangeIter = new EPRangeQueryIterator( id, start, end );
-            rangeIter.addMemTable(memTable);
-            if(meta.hasStableMemTable()){
-                rangeIter.addStableMemTable(stableMemTable);
-            }
-            rangeIter.addTransactionMemTable(cache);
+            addMemTables( rangeIter, active, immutables, cache );
             meta.getStore( proId ).getRangeValueIter( rangeIter, start, end );
             rangeIter.build();
 
@@ -265,6 +458,56 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
         }
     }
 
+    @Override
+    public IoRateLimiter mergeIoLimiter()
+    {
+        return mergeProcess.ioLimiter();
+    }
+
+    @Override
+    public PointValueCache pointValueCache()
+    {
+        return pointCache;
+    }
+
+    @Override
+    public LatestValueMap latestValueMap()
+    {
+        return latestValues;
+    }
+
+    @Override
+    public void setCompression( int propertyId, CompressionType unstable, CompressionType stable, boolean dictionary )
+    {
+        meta.lock.lockShared();
+        try
+        {
+            SinglePropertyStore prop = meta.proStores().get( propertyId );
+            if ( prop == null ) throw new TPSRuntimeException( "no such property id: " + propertyId + ". should create first!" );
+            prop.setCompression( unstable, stable, dictionary );
+        }
+        finally
+        {
+            meta.lock.unlockShared();
+        }
+    }
+
+    @Override
+    public void setCompactionPolicy( int propertyId, CompactionPolicy policy )
+    {
+        meta.lock.lockShared();
+        try
+        {
+            SinglePropertyStore prop = meta.proStores().get( propertyId );
+            if ( prop == null ) throw new TPSRuntimeException( "no such property id: " + propertyId + ". should create first!" );
+            prop.setCompactionPolicy( policy );
+        }
+        finally
+        {
+            meta.lock.unlockShared();
+        }
+    }
+
     @Override
     public boolean createProperty( int propertyId, ValueContentType type )
     {
@@ -274,7 +517,7 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
             if ( prop == null ) {
                 try {
                     PropertyMetaData pMeta = new PropertyMetaData( propertyId, type );
-                    meta.addStore( propertyId, new SinglePropertyStore( pMeta, dbDir, cache, index ) );
+                    meta.addStore( propertyId, new SinglePropertyStore( pMeta, dbDir, cache, index, pointCache ) );
                     meta.addProperty( pMeta );
                     return true;
                 } catch ( Throwable ignore ) {
@@ -298,33 +541,55 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
     @Override
     public boolean setProperty( TimeIntervalKey key, Slice value )
     {
+        return setProperties( Collections.singletonList( new TimeIntervalValueEntry( key, value ) ) );
+    }
+
+    @Override
+    public boolean setProperties( Iterable<Map.Entry<TimeIntervalKey,Slice>> entries )
+    {
+        if ( !BULK_MODE && mergeProcess.queuedCount() >= MEMTABLE_QUEUE_SLOWDOWN ) slowdown();
+        if ( concurrentWrite() ) return setPropertiesConcurrently( entries );
+        long walSeq = 0;
         meta.lock.lockExclusive();
-        if ( !meta.getProperties().containsKey( key.getId().getPropertyId() ) ) {
-            if(!createProperty( key.getId().getPropertyId(), key.getValueType().toValueContentType() )){
-                throw new TPSNHException( "create property failed: " + key.getId().getPropertyId() + " type: "+key.getValueType() );
-            }
-        }
         try
         {
+            for ( Map.Entry<TimeIntervalKey,Slice> entry : entries )
+            {
+                TimeIntervalKey key = entry.getKey();
+                if ( !meta.getProperties().containsKey( key.getId().getPropertyId() ) ) {
+                    if(!createProperty( key.getId().getPropertyId(), key.getValueType().toValueContentType() )){
+                        throw new TPSNHException( "create property failed: " + key.getId().getPropertyId() + " type: "+key.getValueType() );
+                    }
+                }
+            }
             if ( forbiddenWrite )
             {
                 meta.lock.waitSubmitMemTable();
             }
 
-            this.memTable.addInterval( key, value );
+            if ( wal != null ) walSeq = wal.append( entries );
+            for ( Map.Entry<TimeIntervalKey,Slice> entry : entries )
+            {
+                this.memTable.addInterval( entry.getKey(), entry.getValue() );
+            }
+            invalidatePointCache( entries );
+            updateLatestValues( entries );
             if ( this.memTable.approximateMemUsage() >= MEMTABLE_SIZE * 1024 * 1024 )
             {
                 forbiddenWrite = true;
                 System.out.println("commit memTable "+memTable.approximateMemUsage());
-                this.mergeProcess.add( this.memTable ); // may await at current line. release wrt lock to allow read op.
+                if ( wal != null ) wal.rotate();
+                this.mergeProcess.add( this.memTable ); // await only if merge queue is full. release wrt lock to allow read op.
                 System.out.println("commit memTable done, allow write");
-                if(!BULK_MODE) this.stableMemTable = this.memTable;
                 this.memTable = new MemTable();
-                if(!BULK_MODE) meta.setStableMemTable(true);
                 forbiddenWrite = false;
             }
             meta.lock.memTableSubmitted();
         }
+        catch ( TPSNHException e )
+        {
+            throw e;
+        }
         catch ( Exception e )
         {
             e.printStackTrace();
@@ -334,9 +599,207 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
         {
             meta.lock.unlockExclusive();
         }
+        // fsync outside the lock, so that concurrent writers share one force (group commit).
+        try
+        {
+            if ( wal != null ) wal.sync( walSeq );
+        }
+        catch ( IOException e )
+        {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    // 写入MemTable之后调用，见PointValueCache
+    private void invalidatePointCache( Iterable<Map.Entry<TimeIntervalKey,Slice>> entries )
+    {
+        if ( pointCache == null ) return;
+        for ( Map.Entry<TimeIntervalKey,Slice> entry : entries )
+        {
+            pointCache.invalidate( entry.getKey().getId() );
+        }
+    }
+
+    // 写入MemTable之后调用，见LatestValueMap.update
+    private void updateLatestValues( Iterable<Map.Entry<TimeIntervalKey,Slice>> entries )
+    {
+        if ( latestValues == null ) return;
+        for ( Map.Entry<TimeIntervalKey,Slice> entry : entries )
+        {
+            EntityPropertyId id = entry.getKey().getId();
+            latestValues.update( id, () -> latestInMemTables( id ) );
+        }
+    }
+
+    // id在Now时刻的值在MemTable中时返回该值（与getPointValue的查找顺序相同），否则返回null
+    private InternalEntry latestInMemTables( EntityPropertyId id )
+    {
+        MemTable active = this.memTable; // must be read first, see switchMemTable.
+        List<MemTable> immutables = mergeProcess.immutableMemTables();
+        InternalEntry latest = active.latest( id );
+        for ( int i = immutables.size() - 1; latest == null && i >= 0; i-- ) // newest first
+        {
+            latest = immutables.get( i ).latest( id );
+        }
+        return latest;
+    }
+
+    /**
+     * 启动时重建LatestValueMap：先加入文件中的值，再用恢复的MemTable覆盖
+     */
+    private void loadLatestValues()
+    {
+        long start = System.currentTimeMillis();
+        for ( Integer proId : meta.getProperties().keySet() )
+        {
+            meta.getStore( proId ).loadLatestValues( latestValues );
+        }
+        PeekingIterator<Map.Entry<TimeIntervalKey,Slice>> iterator = this.memTable.intervalEntryIterator();
+        while ( iterator.hasNext() )
+        {
+            EntityPropertyId id = iterator.next().getKey().getId();
+            latestValues.update( id, () -> latestInMemTables( id ) );
+        }
+        latestValues.loaded( System.currentTimeMillis() - start );
+    }
+
+    // 合并队列较长时让写线程让出一点时间给合并线程，避免队列满了以后长时间阻塞写操作。
+    private static void slowdown()
+    {
+        try
+        {
+            Thread.sleep( 1 );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean concurrentWrite()
+    {
+        return MEMTABLE_STRIPES > 1 && !BULK_MODE;
+    }
+
+    private MemTable newMemTable()
+    {
+        return concurrentWrite() ? new MemTable( MEMTABLE_STRIPES ) : new MemTable();
+    }
+
+    /**
+     * 并发写模式：写线程只持有共享锁和write epoch，不同分片的写入互不阻塞。
+     */
+    private boolean setPropertiesConcurrently( Iterable<Map.Entry<TimeIntervalKey,Slice>> entries )
+    {
+        for ( Map.Entry<TimeIntervalKey,Slice> entry : entries )
+        {
+            TimeIntervalKey key = entry.getKey();
+            int proId = key.getId().getPropertyId();
+            boolean exist;
+            meta.lock.lockShared();
+            try
+            {
+                exist = meta.getProperties().containsKey( proId );
+            }
+            finally
+            {
+                meta.lock.unlockShared();
+            }
+            if ( !exist ) ensureProperty( proId, key.getValueType().toValueContentType() );
+        }
+
+        long walSeq = 0;
+        MemTable active;
+        meta.lock.lockShared();
+        try
+        {
+            meta.lock.enterWriteEpoch();
+            try
+            {
+                active = this.memTable;
+                if ( wal != null ) walSeq = wal.append( entries );
+                for ( Map.Entry<TimeIntervalKey,Slice> entry : entries )
+                {
+                    active.addInterval( entry.getKey(), entry.getValue() );
+                }
+                invalidatePointCache( entries );
+                updateLatestValues( entries );
+            }
+            finally
+            {
+                meta.lock.exitWriteEpoch();
+            }
+        }
+        catch ( IOException e )
+        {
+            e.printStackTrace();
+            return false;
+        }
+        finally
+        {
+            meta.lock.unlockShared();
+        }
+
+        try
+        {
+            if ( active.approximateMemUsage() >= MEMTABLE_SIZE * 1024 * 1024 ) switchMemTable( active );
+            if ( wal != null ) wal.sync( walSeq );
+        }
+        catch ( Exception e )
+        {
+            e.printStackTrace();
+            return false;
+        }
         return true;
     }
 
+    // 多个写线程可能同时发现属性不存在，在排它锁内再检查一次，避免createProperty删掉别人刚创建的属性。
+    private void ensureProperty( int proId, ValueContentType type )
+    {
+        meta.lock.lockExclusive();
+        try
+        {
+            if ( !meta.getProperties().containsKey( proId ) && !createProperty( proId, type ) )
+            {
+                throw new TPSNHException( "create property failed: " + proId + " type: " + type );
+            }
+        }
+        finally
+        {
+            meta.lock.unlockExclusive();
+        }
+    }
+
+    /**
+     * 并发写模式下把写满的MemTable放入合并队列。
+     * 合并队列满时等待合并完成，此时不阻塞任何读写（其他线程继续写入full），
+     * 之后的切换(epoch flip)只等待正在写full的线程完成，然后交换引用、封存WAL。
+     * 先把full放入队列再设置memTable，读线程先读memTable再读合并队列，因此不会漏掉full中的数据。
+     */
+    private void switchMemTable( MemTable full ) throws Exception
+    {
+        synchronized ( memTableSwitch )
+        {
+            if ( this.memTable != full ) return; // already switched by another writer.
+            System.out.println("commit memTable "+full.approximateMemUsage());
+            this.mergeProcess.waitQueueNotFull();
+            meta.lock.flipEpochBegin();
+            try
+            {
+                if ( wal != null ) wal.rotate();
+                this.mergeProcess.add( full ); // queue is not full, would not wait.
+                this.memTable = newMemTable();
+            }
+            finally
+            {
+                meta.lock.flipEpochEnd();
+            }
+            System.out.println("commit memTable done");
+        }
+    }
+
     @Override
     public boolean deleteProperty( int propertyId )
     {
@@ -345,6 +808,8 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
         {
             meta.getProperties().remove( propertyId );
             meta.getStore( propertyId ).destroy();
+            if ( pointCache != null ) pointCache.invalidate( propertyId );
+            if ( latestValues != null ) latestValues.invalidate( propertyId );
             Set<IndexMetaData> indexSet = meta.getIndexes();
             for ( IndexMetaData iMeta : indexSet )
             {
@@ -627,19 +1092,17 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
                 Files.createFile( tempFile.toPath() );
             }
             LogWriter writer = Logs.createMetaWriter( tempFile );
-            PeekingIterator<Map.Entry<TimeIntervalKey,Slice>> iterator;
-            if ( memTable.isEmpty() && stableMemTable != null )
-            {
-                iterator = this.stableMemTable.intervalEntryIterator();
-            }
-            else
+            // queued memtables are merged when merge process shutdown, just in case. older first.
+            List<MemTable> tables = new ArrayList<>( mergeProcess.immutableMemTables() );
+            tables.add( this.memTable );
+            for ( MemTable table : tables )
             {
-                iterator = this.memTable.intervalEntryIterator();
-            }
-            while ( iterator.hasNext() )
-            {
-                Map.Entry<TimeIntervalKey,Slice> entry = iterator.next();
-                writer.addRecord(new TimeIntervalValueEntry(entry.getKey(), entry.getValue()).encode(), false);
+                PeekingIterator<Map.Entry<TimeIntervalKey,Slice>> iterator = table.intervalEntryIterator();
+                while ( iterator.hasNext() )
+                {
+                    Map.Entry<TimeIntervalKey,Slice> entry = iterator.next();
+                    writer.addRecord(new TimeIntervalValueEntry(entry.getKey(), entry.getValue()).encode(), false);
+                }
             }
             writer.close();
         }
@@ -729,9 +1192,9 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
         {
             return true;
         }
-        if ( this.stableMemTable != null && this.stableMemTable.overlap( id, startTime, endTime ) )
+        for ( MemTable table : mergeProcess.immutableMemTables() )
         {
-            return true;
+            if ( table.overlap( id, startTime, endTime ) ) return true;
         }
 
         PropertyMetaData p = this.meta.getProperties().get( proId );
@@ -755,9 +1218,9 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
         {
             return true;
         }
-        if ( this.stableMemTable != null && this.stableMemTable.overlap( proId, startTime, endTime ) )
+        for ( MemTable table : mergeProcess.immutableMemTables() )
         {
-            return true;
+            if ( table.overlap( proId, startTime, endTime ) ) return true;
         }
 
         PropertyMetaData p = this.meta.getProperties().get( proId );
@@ -782,9 +1245,9 @@ public class TemporalPropertyStoreImpl implements TemporalPropertyStore
                 buffer.getMemTable().coverTime( tMap, proIdSet, timeMin, timeMax );
             }
         }
-        if ( this.stableMemTable != null )
+        for ( MemTable table : mergeProcess.immutableMemTables() )
         {
-            stableMemTable.coverTime( tMap, proIdSet, timeMin, timeMax );
+            table.coverTime( tMap, proIdSet, timeMin, timeMax );
         }
         this.memTable.coverTime( tMap, proIdSet, timeMin, timeMax );
         cache.coverTime( tMap, proIdSet, timeMin, timeMax );
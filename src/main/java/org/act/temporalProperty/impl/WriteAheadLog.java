@@ -0,0 +1,292 @@
+package org.act.temporalProperty.impl;
+
+import com.google.common.collect.PeekingIterator;
+import org.act.temporalProperty.query.TimeIntervalKey;
+import org.act.temporalProperty.util.DynamicSliceOutput;
+import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.vo.TimeIntervalValueEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写前日志(WAL)。setProperty写入MemTable之前先把(TimeIntervalKey, value)追加到日志中，系统崩溃后由StoreInitial.getMemTable重放。
+ * 记录格式与LogWriter/LogReader相同，每条记录是一个或多个（批量写入时）连续编码的TimeIntervalValueEntry。
+ *
+ * fsync策略（组提交）:
+ * 1. syncIntervalMs > 0: 后台线程每隔syncIntervalMs毫秒force一次，写线程不等待。
+ * 2. syncBytes > 0: 未force的数据达到syncBytes字节时才force。
+ * 3. 否则每次写都保证落盘，但同时等待的多个写线程共享同一次force。
+ *
+ * 每个MemTable对应一"代"日志文件。MemTable提交合并时调用rotate()封存当前代，合并完成且meta写盘后调用releaseOldest()删除最老的一代。
+ */
+public class WriteAheadLog
+{
+    private final File dbDir;
+    private final long syncIntervalMs;
+    private final long syncBytes;
+
+    private final LinkedList<List<File>> sealed = new LinkedList<>();
+    private List<File> active = new ArrayList<>();
+    private long nextFileNumber;
+    private FileChannelLogWriter writer;
+
+    private long appendedSeq = 0; // total bytes appended, used as log sequence number.
+    private long syncedSeq = 0;
+    private boolean syncing = false;
+    private boolean closed = false;
+
+    private ScheduledExecutorService syncTimer;
+
+    /**
+     * 打开一个新的日志文件，并把启动时恢复出的MemTable重新写入其中（之后旧的日志文件和dbtmp文件就可以删除了）。
+     * @param dbDir 存储目录
+     * @param recovered 启动时从旧日志中恢复出的MemTable
+     */
+    public WriteAheadLog( File dbDir, MemTable recovered, long syncIntervalMs, long syncBytes ) throws IOException
+    {
+        this.dbDir = dbDir;
+        this.syncIntervalMs = syncIntervalMs;
+        this.syncBytes = syncBytes;
+        List<Long> exist = existLogNumbers( dbDir );
+        this.nextFileNumber = exist.isEmpty() ? 0 : exist.get( exist.size() - 1 ) + 1;
+        this.writer = newLogFile();
+
+        PeekingIterator<Map.Entry<TimeIntervalKey,Slice>> iterator = recovered.intervalEntryIterator();
+        while ( iterator.hasNext() )
+        {
+            Map.Entry<TimeIntervalKey,Slice> entry = iterator.next();
+            append( Collections.singletonList( entry ) );
+        }
+        writer.sync();
+        syncedSeq = appendedSeq;
+
+        if ( syncIntervalMs > 0 )
+        {
+            syncTimer = Executors.newSingleThreadScheduledExecutor( r -> {
+                Thread t = new Thread( r, "TPS-WAL-Sync" );
+                t.setDaemon( true );
+                return t;
+            } );
+            syncTimer.scheduleWithFixedDelay( this::timedSync, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    private FileChannelLogWriter newLogFile() throws IOException
+    {
+        File file = new File( dbDir, Filename.walFileName( nextFileNumber ) );
+        FileChannelLogWriter w = new FileChannelLogWriter( file, nextFileNumber );
+        nextFileNumber++;
+        active.add( file );
+        return w;
+    }
+
+    /**
+     * 把一批数据作为一条记录追加到日志，返回该记录的日志序号，调用sync(seq)等待其落盘。
+     */
+    public synchronized long append( Iterable<Map.Entry<TimeIntervalKey,Slice>> entries ) throws IOException
+    {
+        DynamicSliceOutput out = new DynamicSliceOutput( 64 );
+        for ( Map.Entry<TimeIntervalKey,Slice> entry : entries )
+        {
+            new TimeIntervalValueEntry( entry.getKey(), entry.getValue() ).encode( out );
+        }
+        Slice record = out.slice();
+        writer.addRecord( record, false );
+        appendedSeq += record.length();
+        return appendedSeq;
+    }
+
+    /**
+     * 按照fsync策略保证序号不大于seq的记录已写入磁盘。
+     * 多个写线程同时调用时只有一个线程执行force，其余线程等待它完成（组提交）。
+     */
+    public void sync( long seq ) throws IOException
+    {
+        if ( syncIntervalMs > 0 ) return;
+        FileChannelLogWriter w;
+        long target;
+        synchronized ( this )
+        {
+            if ( syncBytes > 0 && appendedSeq - syncedSeq < syncBytes ) return;
+            while ( syncing && syncedSeq < seq )
+            {
+                try
+                {
+                    this.wait();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException( "interrupted when waiting wal sync", e );
+                }
+            }
+            if ( syncedSeq >= seq || closed ) return;
+            syncing = true;
+            w = writer;
+            target = appendedSeq;
+        }
+        boolean success = false;
+        try
+        {
+            w.sync();
+            success = true;
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                syncing = false;
+                if ( success && target > syncedSeq ) syncedSeq = target;
+                this.notifyAll();
+            }
+        }
+    }
+
+    private void timedSync()
+    {
+        try
+        {
+            FileChannelLogWriter w;
+            long target;
+            synchronized ( this )
+            {
+                if ( closed || syncedSeq >= appendedSeq ) return;
+                w = writer;
+                target = appendedSeq;
+            }
+            w.sync();
+            synchronized ( this )
+            {
+                if ( target > syncedSeq ) syncedSeq = target;
+            }
+        }
+        catch ( IOException e )
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * MemTable被提交合并时调用：封存当前的日志文件，之后的写入进入新的日志文件。
+     */
+    public synchronized void rotate() throws IOException
+    {
+        waitSyncDone();
+        writer.close(); // close() forces the file.
+        syncedSeq = appendedSeq;
+        sealed.add( active );
+        active = new ArrayList<>();
+        writer = newLogFile();
+    }
+
+    /**
+     * 最老的一个被封存的MemTable已经合并到磁盘文件并且meta已写盘，删除它的日志文件。
+     */
+    public void releaseOldest()
+    {
+        List<File> files;
+        synchronized ( this )
+        {
+            files = sealed.pollFirst();
+        }
+        if ( files != null ) deleteFiles( files );
+    }
+
+    /**
+     * 系统关闭时，MemTable已经写入dbtmp文件且meta已写盘后调用，关闭并删除所有日志文件。
+     */
+    public void close()
+    {
+        if ( syncTimer != null ) syncTimer.shutdownNow();
+        List<File> files = new ArrayList<>();
+        synchronized ( this )
+        {
+            waitSyncDone();
+            closed = true;
+            writer.close();
+            syncedSeq = appendedSeq;
+            for ( List<File> gen : sealed ) files.addAll( gen );
+            files.addAll( active );
+            sealed.clear();
+            active.clear();
+            this.notifyAll();
+        }
+        deleteFiles( files );
+    }
+
+    private void waitSyncDone()
+    {
+        boolean interrupted = false;
+        while ( syncing )
+        {
+            try
+            {
+                this.wait();
+            }
+            catch ( InterruptedException e )
+            {
+                interrupted = true;
+            }
+        }
+        if ( interrupted ) Thread.currentThread().interrupt();
+    }
+
+    private static void deleteFiles( List<File> files )
+    {
+        for ( File f : files )
+        {
+            try
+            {
+                Files.deleteIfExists( f.toPath() );
+            }
+            catch ( IOException e )
+            {
+                System.err.println( "Fail to delete wal: " + f.getAbsolutePath() + " " + e.getMessage() );
+            }
+        }
+    }
+
+    /**
+     * @return 目录中已存在的日志文件，按编号从小到大排列
+     */
+    public static List<File> existLogFiles( File dbDir )
+    {
+        List<File> result = new ArrayList<>();
+        for ( Long number : existLogNumbers( dbDir ) )
+        {
+            result.add( new File( dbDir, Filename.walFileName( number ) ) );
+        }
+        return result;
+    }
+
+    private static List<Long> existLogNumbers( File dbDir )
+    {
+        TreeMap<Long,String> numbers = new TreeMap<>();
+        for ( File f : Filename.listFiles( dbDir ) )
+        {
+            String name = f.getName();
+            if ( f.isFile() && name.endsWith( ".wal" ) )
+            {
+                try
+                {
+                    numbers.put( Long.parseLong( name.substring( 0, name.length() - 4 ) ), name );
+                }
+                catch ( NumberFormatException ignore )
+                {
+                }
+            }
+        }
+        return new ArrayList<>( numbers.keySet() );
+    }
+}
@@ -8,6 +8,7 @@ import org.act.temporalProperty.meta.PropertyMetaData;
 import org.act.temporalProperty.query.TimePointL;
 import org.act.temporalProperty.query.aggr.AggregationIndexQueryResult;
 import org.act.temporalProperty.query.aggr.ValueGroupingMap;
+import org.act.temporalProperty.util.BackgroundThread;
 import org.act.temporalProperty.util.SliceOutput;
 
 import java.io.File;
@@ -112,11 +113,54 @@ public class IndexStore {
     public List<BackgroundTask> createNewIndexTasks()
     {
         List<BackgroundTask> result = new ArrayList<>();
-        result.addAll( this.value.createIndexTasks() );
-        result.addAll( this.aggr.createIndexTasks() );
+        for ( BackgroundTask task : this.value.createIndexTasks() ) result.add( new CreateIndexTask( task ) );
+        for ( BackgroundTask task : this.aggr.createIndexTasks() ) result.add( new CreateIndexTask( task ) );
         return result;
     }
 
+    // runs the index creation task as background work (see BackgroundThread) on whatever thread it is run.
+    private static class CreateIndexTask implements BackgroundTask
+    {
+        private final BackgroundTask task;
+
+        CreateIndexTask( BackgroundTask task )
+        {
+            this.task = task;
+        }
+
+        @Override
+        public void runTask() throws IOException
+        {
+            boolean background = BackgroundThread.enter();
+            try
+            {
+                task.runTask();
+            }
+            finally
+            {
+                BackgroundThread.exit( background );
+            }
+        }
+
+        @Override
+        public void updateMeta() throws IOException
+        {
+            task.updateMeta();
+        }
+
+        @Override
+        public void cleanUp() throws IOException
+        {
+            task.cleanUp();
+        }
+
+        @Override
+        public String toString()
+        {
+            return task.toString();
+        }
+    }
+
     public boolean isOnline( long indexId )
     {
         return meta.isOnline( indexId );
@@ -210,6 +254,57 @@ public class IndexStore {
         }
     }
 
+    /**
+     * @return 有文件对应于该StableFile的索引的id（多属性值索引的文件不与StableFile对应，不包括在内）
+     */
+    public Set<Long> indexOfStable( int propertyId, long stableNumber )
+    {
+        Set<Long> result = new HashSet<>();
+        for ( IndexMetaData i : meta.getByProId( propertyId ) )
+        {
+            if ( i.getType() != IndexType.MULTI_VALUE && i.getByCorFileId( stableNumber, true ) != null ) result.add( i.getId() );
+        }
+        return result;
+    }
+
+    /**
+     * 相邻的StableFile合并为一个文件时，把它们对应的索引文件也合并重建为一个。调用者保证各文件的indexOfStable相同。
+     */
+    public IndexUpdater onStableConsolidateUpdate( int propertyId, List<Long> stableNumbers )
+    {
+        IndexUpdater.AllIndexUpdater indexUpdater = new IndexUpdater.AllIndexUpdater();
+        for ( IndexMetaData i : meta.getByProId( propertyId ) )
+        {
+            if ( i.getType() == IndexType.MULTI_VALUE ) continue;
+            List<IndexFileMeta> oldFiles = new ArrayList<>();
+            for ( Long number : stableNumbers )
+            {
+                IndexFileMeta fileMeta = i.getByCorFileId( number, true );
+                if ( fileMeta != null ) oldFiles.add( fileMeta );
+            }
+            if ( oldFiles.isEmpty() ) continue;
+            IndexUpdater builder;
+            if ( i.getType() == SINGLE_VALUE )
+            {
+                builder = new SinglePropertyValueIndexFileUpdater( meta, indexDir, i, Collections.emptyList(), true );
+            }
+            else if ( i.getType() == AGGR_DURATION )
+            {
+                builder = new DurationMergeUpgradeUpdater( meta, indexDir, i, Collections.emptyList(), true );
+            }
+            else
+            {
+                builder = new MinMaxFileUpgradeUpdater( meta, indexDir, i, Collections.emptyList(), true );
+            }
+            indexUpdater.add( new StableConsolidateUpdater( builder, indexDir, i, oldFiles ) );
+        }
+        if ( indexUpdater.isEmpty() )
+        {
+            return emptyUpdate();
+        }
+        return indexUpdater;
+    }
+
     public IndexUpdater emptyUpdate()
     {
         return new IndexUpdater()
@@ -232,6 +327,11 @@ public class IndexStore {
         };
     }
 
+    public boolean hasIndex( int propertyId )
+    {
+        return !meta.getByProId( propertyId ).isEmpty();
+    }
+
     public List<IndexMetaData> list()
     {
         return meta.allIndexes();
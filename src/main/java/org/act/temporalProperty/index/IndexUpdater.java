@@ -471,4 +471,54 @@ public interface IndexUpdater
             Files.delete( originFile.toPath() );
         }
     }
+
+    // update index when adjacent stable files are consolidated into one: index files of them are replaced by one new file.
+    class StableConsolidateUpdater implements IndexUpdater
+    {
+        private final IndexUpdater builder;
+        private final File indexDir;
+        private final IndexMetaData meta;
+        private final List<IndexFileMeta> oldFiles;
+
+        public StableConsolidateUpdater( IndexUpdater builder, File indexDir, IndexMetaData indexMetaData, List<IndexFileMeta> oldFiles )
+        {
+            this.builder = builder;
+            this.indexDir = indexDir;
+            this.meta = indexMetaData;
+            this.oldFiles = oldFiles;
+        }
+
+        @Override
+        public void update( InternalEntry entry )
+        {
+            builder.update( entry );
+        }
+
+        @Override
+        public void finish( FileMetaData targetMeta ) throws IOException
+        {
+            builder.finish( targetMeta );
+        }
+
+        @Override
+        public void updateMeta()
+        {
+            for ( IndexFileMeta fMeta : oldFiles )
+            {
+                meta.delFileByCorFileId( fMeta.getCorFileId(), true );
+            }
+            builder.updateMeta();
+        }
+
+        @Override
+        public void cleanUp() throws IOException
+        {
+            for ( IndexFileMeta fMeta : oldFiles )
+            {
+                String name = meta.getType().isValueIndex() ? Filename.valIndexFileName( fMeta.getFileId() ) : Filename.aggrIndexFileName( fMeta.getFileId() );
+                Files.deleteIfExists( new File( indexDir, name ).toPath() );
+            }
+            builder.cleanUp();
+        }
+    }
 }
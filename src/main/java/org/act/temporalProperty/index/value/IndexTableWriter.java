@@ -3,6 +3,7 @@ package org.act.temporalProperty.index.value;
 import org.act.temporalProperty.index.value.cardinality.RTreeCardinality;
 import org.act.temporalProperty.index.value.rtree.*;
 import org.act.temporalProperty.util.DynamicSliceOutput;
+import org.act.temporalProperty.util.IoRateLimiter;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -56,7 +57,9 @@ public class IndexTableWriter {
             List<RTreeNode> list = levels.get(i);
             for (RTreeNode node : list) {
                 RTreeNodeBlock block = new RTreeNodeBlock(node, channel.position());
-                channel.write(block.toByteBuffer());
+                ByteBuffer buf = block.toByteBuffer();
+                IoRateLimiter.current().acquireWrite(buf.remaining());
+                channel.write(buf);
             }
         }
 
@@ -1,6 +1,5 @@
 package org.act.temporalProperty.meta;
 
-import org.act.temporalProperty.TemporalPropertyStore;
 import org.act.temporalProperty.impl.FileMetaData;
 import org.act.temporalProperty.query.TimePointL;
 import org.act.temporalProperty.util.DynamicSliceOutput;
@@ -22,7 +21,7 @@ public class FileMetaDataController {
     }
 
     public static FileMetaData decode(SliceInput in, int version){
-        if(version == TemporalPropertyStore.Version){
+        if(version >= 2){
             long fNum = in.readLong();
             int fVersion = in.readInt();
             long fSize = in.readLong();
@@ -2,8 +2,10 @@ package org.act.temporalProperty.meta;
 
 import com.google.common.base.Preconditions;
 import org.act.temporalProperty.exception.TPSNHException;
+import org.act.temporalProperty.impl.CompressionType;
 import org.act.temporalProperty.impl.FileBuffer;
 import org.act.temporalProperty.impl.FileMetaData;
+import org.act.temporalProperty.impl.Options;
 import org.act.temporalProperty.query.TimePointL;
 import org.act.temporalProperty.util.Slice;
 
@@ -35,6 +37,11 @@ public class PropertyMetaData {
 
     public transient final LinkedList<String> old2delete = new LinkedList<>(); //abs path
 
+    // 新生成文件的压缩方式，不持久化，null表示使用默认设置，见TemporalPropertyStore.setCompression
+    private transient volatile CompressionType unstableCompression;
+    private transient volatile CompressionType stableCompression;
+    private transient volatile boolean compressionDictionary = true;
+
     public PropertyMetaData(int propertyId, ValueContentType type){
         this.propertyId = propertyId;
         this.type = type;
@@ -56,12 +63,32 @@ public class PropertyMetaData {
         return unStableFiles;
     }
 
+    public void setCompression(CompressionType unstable, CompressionType stable, boolean dictionary) {
+        Preconditions.checkNotNull(unstable);
+        Preconditions.checkNotNull(stable);
+        this.unstableCompression = unstable;
+        this.stableCompression = stable;
+        this.compressionDictionary = dictionary;
+    }
+
+    /**
+     * @param defaults 与属性无关的默认设置（见TemporalPropertyStoreImpl.tableOptions），在其上设置该属性的压缩方式后返回
+     * @param stable 生成的是否是StableFile
+     * @return 该属性新生成的StableFile/UnStableFile的TableBuilder设置
+     */
+    public Options tableOptions(Options defaults, boolean stable) {
+        CompressionType compression = stable ? stableCompression : unstableCompression;
+        if (compression != null) defaults.compressionType(compression);
+        return defaults.compressionDictionary(compressionDictionary);
+    }
+
     public Slice encode() {
         return PropertyMetaDataController.encode(this);
     }
 
+    // stable files may be consolidated (see SinglePropertyStore.consolidateTask), so numbers are not continuous.
     public long nextStableId(){
-        return stableFiles.size();
+        return stableFiles.isEmpty() ? 0 : stableFiles.lastKey() + 1;
     }
 
     public void addUnstable(FileMetaData file) {
@@ -102,6 +129,11 @@ public class PropertyMetaData {
         unStableFiles.remove(meta.getNumber());
     }
 
+    public void delStable(long fileNumber) {
+        FileMetaData meta = stableFiles.remove(fileNumber);
+        stableByTime.remove(meta.getSmallest());
+    }
+
     public void delUnstableBuffer(Long fileNumber) {
         unStableFileBuffers.remove(fileNumber);
     }
@@ -68,11 +68,11 @@ public class SystemMeta {
         SystemMetaController.forceToDisk(dir, this);
     }
 
-    public void initStore(File storeDir, TableCache cache, IndexMetaManager indexMetaManager, IndexStore indexStore) throws Exception {
+    public void initStore(File storeDir, TableCache cache, IndexMetaManager indexMetaManager, IndexStore indexStore, PointValueCache pointCache) throws Exception {
         this.dbDir = storeDir;
         this.indexMetas = indexMetaManager;
         for( PropertyMetaData pMeta : properties.values()){
-            SinglePropertyStore onePropStore = new SinglePropertyStore(pMeta, storeDir, cache, indexStore);
+            SinglePropertyStore onePropStore = new SinglePropertyStore(pMeta, storeDir, cache, indexStore, pointCache);
             propertyStores.put(pMeta.getPropertyId(), onePropStore);
         }
     }
@@ -103,13 +103,4 @@ public class SystemMeta {
     {
         this.indexNextFileId = nextFileId;
     }
-
-    private boolean stableMemTableOnline =false;
-    public boolean hasStableMemTable() {
-        return stableMemTableOnline;
-    }
-
-    public void setStableMemTable(boolean online){
-        stableMemTableOnline = online;
-    }
 }
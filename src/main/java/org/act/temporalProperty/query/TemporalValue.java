@@ -6,6 +6,7 @@ import com.google.common.collect.PeekingIterator;
 import org.act.temporalProperty.exception.TPSRuntimeException;
 import org.apache.commons.lang3.tuple.Triple;
 
+import java.util.AbstractMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
@@ -68,6 +69,16 @@ public class TemporalValue<V>
         }
     }
 
+    /**
+     * @return 最后一项，即Now时刻的值及其起始时间；Now时刻的值为Unknown时返回null
+     */
+    public Entry<TimePointL,V> latest()
+    {
+        Entry<TimePointL, ValWithFlag> last = map.lastEntry();
+        if ( last == null || last.getValue() == null || last.getValue().isUnknown ) return null;
+        return new AbstractMap.SimpleImmutableEntry<>( last.getKey(), last.getValue().value );
+    }
+
     private ValWithFlag valUnknown()
     {
         return new ValWithFlag( true, null );
@@ -17,10 +17,11 @@
  */
 package org.act.temporalProperty.table;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Comparator;
 
 import org.act.temporalProperty.impl.SeekingIterable;
-import org.act.temporalProperty.util.BlockLatestValueIterator;
 import org.act.temporalProperty.util.Slice;
 import org.act.temporalProperty.util.Slices;
 
@@ -65,23 +66,35 @@ import com.google.common.base.Preconditions;
 public class Block
         implements SeekingIterable<Slice, Slice>
 {
-    protected final Slice block;
+    protected final int size;
     protected final Comparator<Slice> comparator;
 
-    protected final Slice data;
+    protected final ByteBuffer data;
     protected final Slice restartPositions;
+    // the table whose mapping data points into, null if data is on the heap. see MMapTable.
+    protected final Object owner;
 
     public Block(Slice block, Comparator<Slice> comparator)
+    {
+        this(block.toByteBuffer(), comparator, null);
+    }
+
+    /**
+     * @param block 数据块（从position到limit），可以是MMapTable中的文件映射，此时不复制数据
+     * @param owner 映射所属的Table，Block和它的iterator引用owner，使其在被Finalizer unmap之前一直可达
+     */
+    public Block(ByteBuffer block, Comparator<Slice> comparator, Object owner)
     {
         Preconditions.checkNotNull(block, "block is null");
-        Preconditions.checkArgument(block.length() >= SIZE_OF_INT, "Block is corrupt: size must be at least %s block", SIZE_OF_INT);
+        Preconditions.checkArgument(block.remaining() >= SIZE_OF_INT, "Block is corrupt: size must be at least %s block", SIZE_OF_INT);
         Preconditions.checkNotNull(comparator, "comparator is null");
 
-        block = block.slice();
-        this.block = block;
+        block = block.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.size = block.limit();
         this.comparator = comparator;
+        this.owner = owner;
 
-        int datalength = block.getInt( block.length() - SIZE_OF_INT );
+        int datalength = block.getInt( block.limit() - SIZE_OF_INT );
 
         
         // Keys are prefix compressed.  Every once in a while the prefix compression is restarted and the full key is written.
@@ -99,30 +112,26 @@ public class Block
             {
                 restartOffset++;
             }
-            restartPositions = block.slice(restartOffset, restartCount * SIZE_OF_INT);
+            restartPositions = Slices.sharedBuffer(block, restartOffset, restartCount * SIZE_OF_INT);
 
             // data starts at 0 and extends to the restart index
-            data = block.slice(0, restartOffset);
+            block.limit(restartOffset);
+            data = block.slice();
         }
         else {
-            data = Slices.EMPTY_SLICE;
+            data = ByteBuffer.allocate(0);
             restartPositions = Slices.EMPTY_SLICE;
         }
     }
 
     public long size()
     {
-        return block.length();
+        return size;
     }
 
     @Override
     public BlockIterator iterator()
     {
-        return new BlockIterator(data, restartPositions, comparator);
-    }
-
-    public BlockLatestValueIterator latestValueIterator()
-    {
-        return new BlockLatestValueIterator( data, restartPositions, comparator );
+        return new BlockIterator(data, restartPositions, comparator, owner);
     }
 }
@@ -19,15 +19,15 @@ import static org.act.temporalProperty.util.SizeOf.SIZE_OF_INT;
 public class BlockBuilder
 {
     private final int blockRestartInterval;
-    private final IntVector restartPositions;
-    private final Comparator<Slice> comparator;
+    protected final IntVector restartPositions;
+    protected final Comparator<Slice> comparator;
 
-    private int entryCount;
+    protected int entryCount;
     private int restartBlockEntryCount;
 
-    private boolean finished;
-    private final DynamicSliceOutput block;
-    private Slice lastKey;
+    protected boolean finished;
+    protected final DynamicSliceOutput block;
+    protected Slice lastKey;
 
     /**
      * 初始化函数
@@ -118,9 +118,6 @@ public class BlockBuilder
             restartBlockEntryCount = 0;
         }
 
-        //stop using the sharedkey, make easy for update the record
-        sharedKeyBytes = 0;
-        
         int nonSharedKeyBytes = key.length() - sharedKeyBytes;
 
         // write "<shared><non_shared><value_size>"
@@ -0,0 +1,304 @@
+package org.act.temporalProperty.table;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 解码后的数据块的缓存，所有属性的文件共享一个（见TableCache），按数据块解码后的字节数限制大小。
+ * key为(文件路径, 数据块offset)，文件路径中包含文件的版本号。合并后删除的文件的编号可能被新文件重用，所以删除文件时要调用invalidate（见TableCache.evict）。
+ * 分成SHARDS个分片，各自加锁。每个分片使用segmented LRU淘汰：新数据块进入probation段，再次命中才进入protected段（占容量的80%），
+ * 淘汰时先淘汰probation段，所以范围扫描和合并只读一次的数据块不会把热点数据块挤出缓存。
+ * 各文件的index block和meta block（见TableMeta）放在单独的meta层中，有自己的容量，不会被数据块挤出去。
+ * TableCache只能同时打开少量文件，文件被淘汰后重新打开时从meta层取得解码后的index block，不用再读取和解码。
+ */
+public class BlockCache
+{
+    private static final int SHARDS = 16;
+    // rough heap cost of the entry, key and Block objects.
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private final Shard[] shards = new Shard[SHARDS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private final long metaCapacity;
+    // file path -> index/meta blocks, in access order. only accessed when a table is opened, so a single lock is enough.
+    private final LinkedHashMap<String, TableMeta> metas = new LinkedHashMap<>(16, 0.75f, true);
+    private long metaSize;
+    private long metaHits;
+    private long metaMisses;
+
+    /**
+     * @param capacity 缓存的数据块总字节数上限，meta层另外使用capacity/4
+     */
+    public BlockCache(long capacity)
+    {
+        this(capacity, Math.max(1, capacity / 4));
+    }
+
+    /**
+     * @param capacity 缓存的数据块总字节数上限
+     * @param metaCapacity 缓存的index block和meta block总字节数上限
+     */
+    public BlockCache(long capacity, long metaCapacity)
+    {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        Preconditions.checkArgument(metaCapacity > 0, "metaCapacity must be positive");
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(Math.max(1, capacity / SHARDS));
+        }
+        this.metaCapacity = metaCapacity;
+    }
+
+    /**
+     * @return null if the block is not cached
+     */
+    public Block get(String file, long offset)
+    {
+        Key key = new Key(file, offset);
+        Block block = shard(key).get(key);
+        if (block == null) {
+            misses.increment();
+        }
+        else {
+            hits.increment();
+        }
+        return block;
+    }
+
+    public void put(String file, long offset, Block block)
+    {
+        Key key = new Key(file, offset);
+        shard(key).put(key, block);
+    }
+
+    /**
+     * @return null if the index/meta blocks of the file are not cached
+     */
+    synchronized TableMeta getMeta(String file)
+    {
+        TableMeta meta = metas.get(file);
+        if (meta == null) {
+            metaMisses++;
+        }
+        else {
+            metaHits++;
+        }
+        return meta;
+    }
+
+    synchronized void putMeta(String file, TableMeta meta)
+    {
+        long weight = meta.memorySize();
+        if (weight > metaCapacity) {
+            return;
+        }
+        TableMeta old = metas.put(file, meta);
+        if (old != null) {
+            metaSize -= old.memorySize();
+        }
+        metaSize += weight;
+        Iterator<TableMeta> eldest = metas.values().iterator();
+        while (metaSize > metaCapacity) {
+            metaSize -= eldest.next().memorySize();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * 删除文件的所有数据块和index/meta block，文件被删除或替换时调用
+     */
+    public void invalidate(String file)
+    {
+        for (Shard shard : shards) {
+            shard.invalidate(file);
+        }
+        synchronized (this) {
+            TableMeta meta = metas.remove(file);
+            if (meta != null) {
+                metaSize -= meta.memorySize();
+            }
+        }
+    }
+
+    public long hits()
+    {
+        return hits.sum();
+    }
+
+    public long misses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @return 缓存的数据块（及其开销）的总字节数
+     */
+    public long size()
+    {
+        long size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return meta层缓存的index/meta block的总字节数
+     */
+    public synchronized long metaSize()
+    {
+        return metaSize;
+    }
+
+    public synchronized long metaHits()
+    {
+        return metaHits;
+    }
+
+    public synchronized long metaMisses()
+    {
+        return metaMisses;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BlockCache{size=" + size() + ", hits=" + hits() + ", misses=" + misses() +
+                ", metaSize=" + metaSize() + ", metaHits=" + metaHits() + ", metaMisses=" + metaMisses() + "}";
+    }
+
+    private Shard shard(Key key)
+    {
+        int h = key.hashCode();
+        return shards[(h ^ (h >>> 16)) & (SHARDS - 1)];
+    }
+
+    private static long weight(Block block)
+    {
+        return block.size() + ENTRY_OVERHEAD;
+    }
+
+    private static final class Key
+    {
+        private final String file;
+        private final long offset;
+
+        private Key(String file, long offset)
+        {
+            this.file = file;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return offset == key.offset && file.equals(key.file);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return file.hashCode() * 31 + Long.hashCode(offset);
+        }
+    }
+
+    private static final class Shard
+    {
+        private final long capacity;
+        private final long protectedCapacity;
+        // both in access order, the eldest entry is evicted first.
+        private final LinkedHashMap<Key, Block> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Key, Block> protect = new LinkedHashMap<>(16, 0.75f, true);
+        private long probationSize;
+        private long protectedSize;
+
+        private Shard(long capacity)
+        {
+            this.capacity = capacity;
+            this.protectedCapacity = capacity * 8 / 10;
+        }
+
+        private synchronized Block get(Key key)
+        {
+            Block block = protect.get(key);
+            if (block != null) {
+                return block;
+            }
+            block = probation.remove(key);
+            if (block != null) {
+                // second hit, promote to the protected segment.
+                probationSize -= weight(block);
+                protect.put(key, block);
+                protectedSize += weight(block);
+                while (protectedSize > protectedCapacity) {
+                    Map.Entry<Key, Block> eldest = removeEldest(protect);
+                    protectedSize -= weight(eldest.getValue());
+                    probation.put(eldest.getKey(), eldest.getValue());
+                    probationSize += weight(eldest.getValue());
+                }
+            }
+            return block;
+        }
+
+        private synchronized void put(Key key, Block block)
+        {
+            if (protect.containsKey(key) || probation.containsKey(key)) {
+                return;
+            }
+            probation.put(key, block);
+            probationSize += weight(block);
+            while (probationSize + protectedSize > capacity) {
+                if (!probation.isEmpty()) {
+                    probationSize -= weight(removeEldest(probation).getValue());
+                }
+                else {
+                    protectedSize -= weight(removeEldest(protect).getValue());
+                }
+            }
+        }
+
+        private synchronized void invalidate(String file)
+        {
+            probationSize -= removeAll(probation, file);
+            protectedSize -= removeAll(protect, file);
+        }
+
+        private static long removeAll(LinkedHashMap<Key, Block> map, String file)
+        {
+            long removed = 0;
+            for (Iterator<Map.Entry<Key, Block>> iterator = map.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<Key, Block> entry = iterator.next();
+                if (entry.getKey().file.equals(file)) {
+                    removed += weight(entry.getValue());
+                    iterator.remove();
+                }
+            }
+            return removed;
+        }
+
+        private synchronized long size()
+        {
+            return probationSize + protectedSize;
+        }
+
+        private static Map.Entry<Key, Block> removeEldest(LinkedHashMap<Key, Block> map)
+        {
+            Iterator<Map.Entry<Key, Block>> iterator = map.entrySet().iterator();
+            Map.Entry<Key, Block> eldest = iterator.next();
+            iterator.remove();
+            return eldest;
+        }
+    }
+}
@@ -3,13 +3,12 @@ package org.act.temporalProperty.table;
 
 import com.google.common.base.Preconditions;
 
+import java.nio.ByteBuffer;
 import java.util.Comparator;
 import java.util.NoSuchElementException;
 
 import org.act.temporalProperty.impl.SeekingIterator;
 import org.act.temporalProperty.util.Slice;
-import org.act.temporalProperty.util.SliceInput;
-import org.act.temporalProperty.util.SliceOutput;
 import org.act.temporalProperty.util.Slices;
 import org.act.temporalProperty.util.VariableLengthQuantity;
 
@@ -17,26 +16,34 @@ import static org.act.temporalProperty.util.SizeOf.SIZE_OF_INT;
 
 /**
  * 对Block进行遍历的Iterator
+ * 数据块是文件映射时（见MMapTable）直接读取映射，只把返回的key和value复制到堆上。
  *
  */
 public class BlockIterator
         implements SeekingIterator<Slice, Slice>
 {
-    protected final SliceInput data;
+    protected final ByteBuffer data;
     protected final Slice restartPositions;
     protected final int restartCount;
     protected final Comparator<Slice> comparator;
+    private final Object owner; // keeps the mapped table reachable, see Block
 
     protected BlockEntry nextEntry;
 
     public BlockIterator(Slice data, Slice restartPositions, Comparator<Slice> comparator)
+    {
+        this(data.toByteBuffer(), restartPositions, comparator, null);
+    }
+
+    public BlockIterator(ByteBuffer data, Slice restartPositions, Comparator<Slice> comparator, Object owner)
     {
         Preconditions.checkNotNull(data, "data is null");
         Preconditions.checkNotNull(restartPositions, "restartPositions is null");
         Preconditions.checkArgument(restartPositions.length() % SIZE_OF_INT == 0, "restartPositions.readableBytes() must be a multiple of %s", SIZE_OF_INT);
         Preconditions.checkNotNull(comparator, "comparator is null");
 
-        this.data = data.input();
+        this.data = data.slice();
+        this.owner = owner;
 
         this.restartPositions = restartPositions.slice();
         restartCount = this.restartPositions.length() / SIZE_OF_INT;
@@ -70,7 +77,7 @@ public class BlockIterator
 
         BlockEntry entry = nextEntry;
 
-        if (!data.isReadable()) {
+        if (!data.hasRemaining()) {
             nextEntry = null;
         }
         else {
@@ -99,19 +106,15 @@ public class BlockIterator
     }
 
     /**
-     * Repositions the iterator so the key of the next BlockElement returned greater than or equal to the specified targetKey.
+     * Repositions the iterator to the last entry whose key is less than or equal to the specified targetKey
+     * (or the first entry if all keys are greater than targetKey).
+     * Binary searches the restart points (keys there are not prefix compressed), then scans at most one restart interval.
      */
     @Override
     public void seek(Slice targetKey)
     {
         if (restartCount == 0) {
-            data.setPosition(0);
-
-            // clear the entries to assure key is not prefixed
             nextEntry = null;
-
-            // read the entry
-            nextEntry = readEntry(data, null);
             return;
         }
 
@@ -136,28 +139,18 @@ public class BlockIterator
             }
         }
 
-        // linear search (within restart block) for first key greater than or equal to targetKey
-        // change to search for first key less than or equal to targetKey
-        seekToRestartPosition( left );
-        BlockEntry entry = peek();
-        int prePos = this.data.position();
-        BlockEntry preEntry = peek();
-        while( this.comparator.compare( entry.getKey(), targetKey ) <= 0)
-        {
-            prePos = this.data.position();
-            preEntry = entry;
+        // linear search (within restart block) for the last key less than or equal to targetKey
+        seekToRestartPosition(left);
+        BlockEntry preEntry = nextEntry;
+        int prePos = data.position();
+        while (nextEntry != null && comparator.compare(nextEntry.getKey(), targetKey) <= 0) {
+            preEntry = nextEntry;
+            prePos = data.position();
             next();
-            try
-            {
-                entry = peek();
-            }
-            catch( NoSuchElementException e )
-            {
-                break;
-            }
         }
-        this.data.setPosition( prePos );
-        this.nextEntry = preEntry;
+        // the entry after preEntry is read with preEntry as the previous key, so restoring both is enough.
+        data.position(prePos);
+        nextEntry = preEntry;
     }
 
     /**
@@ -171,7 +164,7 @@ public class BlockIterator
 
         // seek data readIndex to the beginning of the restart block
         int offset = restartPositions.getInt(restartPosition * SIZE_OF_INT);
-        data.setPosition(offset);
+        data.position(offset);
 
         // clear the entries to assure key is not prefixed
         nextEntry = null;
@@ -187,7 +180,7 @@ public class BlockIterator
      *
      * @return true if an entry was read
      */
-    protected static BlockEntry readEntry(SliceInput data, BlockEntry previousEntry)
+    protected static BlockEntry readEntry(ByteBuffer data, BlockEntry previousEntry)
     {
         Preconditions.checkNotNull(data, "data is null");
 
@@ -198,16 +191,25 @@ public class BlockIterator
 
         // read key
         Slice key = Slices.allocate(sharedKeyLength + nonSharedKeyLength);
-        SliceOutput sliceOutput = key.output();
         if (sharedKeyLength > 0) {
             Preconditions.checkState(previousEntry != null, "Entry has a shared key but no previous entry was provided");
-            sliceOutput.writeBytes(previousEntry.getKey(), 0, sharedKeyLength);
+            key.setBytes(0, previousEntry.getKey(), 0, sharedKeyLength);
         }
-        sliceOutput.writeBytes(data, nonSharedKeyLength);
+        data.get(key.getRawArray(), key.getRawOffset() + sharedKeyLength, nonSharedKeyLength);
 
         // read value
-        Slice value = data.readSlice(valueLength);
+        Slice value = readSlice(data, valueLength);
 
         return new BlockEntry(key, value);
     }
+
+    /**
+     * 读取length字节，data在堆上时返回共享数据的Slice，是文件映射时复制到堆上
+     */
+    protected static Slice readSlice(ByteBuffer data, int length)
+    {
+        Slice slice = Slices.sharedBuffer(data, 0, length);
+        data.position(data.position() + length);
+        return slice;
+    }
 }
@@ -17,6 +17,9 @@
  */
 package org.act.temporalProperty.table;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import org.act.temporalProperty.impl.CompressionType;
 import org.act.temporalProperty.util.Slice;
 import org.act.temporalProperty.util.SliceInput;
@@ -99,6 +102,17 @@ public class BlockTrailer
         return new BlockTrailer(compressionType, crc32c);
     }
 
+    /**
+     * 从position读取trailer，不改变position，不复制数据
+     */
+    public static BlockTrailer readBlockTrailer(ByteBuffer buffer)
+    {
+        int position = buffer.position();
+        CompressionType compressionType = CompressionType.getCompressionTypeByPersistentId(buffer.get(position) & 0xFF);
+        int crc32c = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(position + 1);
+        return new BlockTrailer(compressionType, crc32c);
+    }
+
     public static Slice writeBlockTrailer(BlockTrailer blockTrailer)
     {
         Slice slice = Slices.allocate(ENCODED_LENGTH);
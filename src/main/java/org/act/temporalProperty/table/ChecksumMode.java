@@ -0,0 +1,41 @@
+package org.act.temporalProperty.table;
+
+import org.act.temporalProperty.util.BackgroundThread;
+
+/**
+ * 读取数据块时是否校验CRC32C（见Table.verifyChecksum）:
+ * ALWAYS 每次读取都校验；
+ * COMPACTION 只在后台线程（合并、buffer合并、创建索引，见BackgroundThread）读取时校验，保证损坏的数据不会被合并进新文件，查询不校验；
+ * OFF 不校验。
+ */
+public enum ChecksumMode
+{
+    ALWAYS, COMPACTION, OFF;
+
+    public boolean shouldVerify()
+    {
+        switch ( this )
+        {
+        case ALWAYS: return true;
+        case COMPACTION: return BackgroundThread.isBackground();
+        default: return false;
+        }
+    }
+
+    /**
+     * @param name always, compaction or off (ignore case), null for default
+     */
+    public static ChecksumMode parse( String name, ChecksumMode defaultMode )
+    {
+        if ( name == null ) return defaultMode;
+        try
+        {
+            return valueOf( name.trim().toUpperCase() );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            System.err.println( "unknown checksum mode " + name + ", use " + defaultMode );
+            return defaultMode;
+        }
+    }
+}
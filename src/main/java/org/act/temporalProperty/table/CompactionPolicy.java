@@ -0,0 +1,193 @@
+package org.act.temporalProperty.table;
+
+import com.google.common.base.Preconditions;
+import org.act.temporalProperty.impl.FileMetaData;
+import org.act.temporalProperty.query.TimePointL;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 合并策略：MemTable（单个属性的部分）写入磁盘时，决定哪些UnStableFile与它一起合并，以及合并结果是否成为StableFile。
+ *
+ * 约束（由MergeTask保证）:
+ * 1. pick返回的必须是按时间从新到旧排列的UnStableFile中最新的连续若干个（可以为空，即只把MemTable写成一个新的UnStableFile）。
+ * 2. 只有所有UnStableFile都参与合并时才会调用toStable，因为StableFile的时间必须早于所有UnStableFile。
+ *
+ * 每个属性可以通过TemporalPropertyStore.setCompactionPolicy单独设置，默认为cascade(CONFIG_COMPACTION_FANOUT, CONFIG_COMPACTION_TARGET_SIZE)。
+ */
+public interface CompactionPolicy
+{
+    /**
+     * @param unstable 当前所有UnStableFile，按时间从新到旧排列
+     * @param memSize 要写入的MemTable的大约字节数
+     * @return 与MemTable一起合并的UnStableFile
+     */
+    List<FileMetaData> pick( List<FileMetaData> unstable, long memSize );
+
+    /**
+     * @param participants pick的返回值，此时包含了所有UnStableFile
+     * @param memSize 要写入的MemTable的大约字节数
+     * @return 合并结果是否写成StableFile
+     */
+    boolean toStable( List<FileMetaData> participants, long memSize );
+
+    /**
+     * 原有的策略：UnStableFile编号0..fanOut-1，合并时把MemTable和编号从0开始连续存在的文件写入下一个空编号（类似二进制计数器），
+     * 编号0..fanOut-1都参与合并时生成StableFile。
+     * @param targetFileSize 大于0时，参与合并的数据达到这么多字节也生成StableFile
+     */
+    static CompactionPolicy cascade( int fanOut, long targetFileSize )
+    {
+        return new Cascade( fanOut, targetFileSize );
+    }
+
+    /**
+     * 按大小分层：UnStableFile数（包括新文件）达到fanOut时才合并，从最新的文件开始，只合并大小与已选数据相近（不超过SIZE_RATIO倍）的文件。
+     * 所有UnStableFile都参与合并且总大小达到targetFileSize时生成StableFile。适合变化频繁的属性（写放大小）。
+     */
+    static CompactionPolicy sizeTiered( int fanOut, long targetFileSize )
+    {
+        Preconditions.checkArgument( targetFileSize > 0, "size tiered compaction need a positive target file size" );
+        return new SizeTiered( fanOut, targetFileSize );
+    }
+
+    /**
+     * 按时间窗口：UnStableFile的数据跨过一个时间窗口（长度为window）的边界时，把所有UnStableFile合并为StableFile，
+     * 因此StableFile大致按时间窗口划分；窗口内按cascade(fanOut, targetFileSize)合并。
+     */
+    static CompactionPolicy timeWindow( long window, int fanOut, long targetFileSize )
+    {
+        Preconditions.checkArgument( window > 0, "time window should be positive" );
+        return new TimeWindow( window, fanOut, targetFileSize );
+    }
+
+    static long totalSize( List<FileMetaData> files, long memSize )
+    {
+        long size = memSize;
+        for ( FileMetaData f : files ) size += f.getFileSize();
+        return size;
+    }
+
+    class Cascade implements CompactionPolicy
+    {
+        private final int fanOut;
+        private final long targetFileSize;
+
+        Cascade( int fanOut, long targetFileSize )
+        {
+            Preconditions.checkArgument( fanOut >= 2, "fan out should >= 2" );
+            this.fanOut = fanOut;
+            this.targetFileSize = targetFileSize;
+        }
+
+        @Override
+        public List<FileMetaData> pick( List<FileMetaData> unstable, long memSize )
+        {
+            List<FileMetaData> toMerge = new ArrayList<>();
+            for ( int i = 0; i < unstable.size() && i < fanOut; i++ )
+            {
+                FileMetaData meta = unstable.get( i );
+                if ( meta.getNumber() != i ) break;
+                else toMerge.add( meta );
+            }
+            return toMerge;
+        }
+
+        @Override
+        public boolean toStable( List<FileMetaData> participants, long memSize )
+        {
+            return participants.size() >= fanOut || (targetFileSize > 0 && totalSize( participants, memSize ) >= targetFileSize);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Cascade{fanOut=" + fanOut + ", targetFileSize=" + targetFileSize + "}";
+        }
+    }
+
+    class SizeTiered implements CompactionPolicy
+    {
+        static final int SIZE_RATIO = 2;
+        private final int fanOut;
+        private final long targetFileSize;
+
+        SizeTiered( int fanOut, long targetFileSize )
+        {
+            Preconditions.checkArgument( fanOut >= 2, "fan out should >= 2" );
+            this.fanOut = fanOut;
+            this.targetFileSize = targetFileSize;
+        }
+
+        @Override
+        public List<FileMetaData> pick( List<FileMetaData> unstable, long memSize )
+        {
+            if ( unstable.size() + 1 < fanOut ) return Collections.emptyList();
+            List<FileMetaData> toMerge = new ArrayList<>();
+            long size = memSize;
+            for ( FileMetaData meta : unstable )
+            {
+                // always merge the newest one, so file count never exceeds fanOut.
+                if ( !toMerge.isEmpty() && meta.getFileSize() > size * SIZE_RATIO ) break;
+                toMerge.add( meta );
+                size += meta.getFileSize();
+            }
+            return toMerge;
+        }
+
+        @Override
+        public boolean toStable( List<FileMetaData> participants, long memSize )
+        {
+            return totalSize( participants, memSize ) >= targetFileSize;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "SizeTiered{fanOut=" + fanOut + ", targetFileSize=" + targetFileSize + "}";
+        }
+    }
+
+    class TimeWindow implements CompactionPolicy
+    {
+        private final long window;
+        private final Cascade inWindow;
+
+        TimeWindow( long window, int fanOut, long targetFileSize )
+        {
+            this.window = window;
+            this.inWindow = new Cascade( fanOut, targetFileSize );
+        }
+
+        @Override
+        public List<FileMetaData> pick( List<FileMetaData> unstable, long memSize )
+        {
+            if ( crossWindow( unstable ) ) return unstable;
+            else return inWindow.pick( unstable, memSize );
+        }
+
+        @Override
+        public boolean toStable( List<FileMetaData> participants, long memSize )
+        {
+            return crossWindow( participants ) || inWindow.toStable( participants, memSize );
+        }
+
+        // files are in time DESC order.
+        private boolean crossWindow( List<FileMetaData> files )
+        {
+            if ( files.isEmpty() ) return false;
+            TimePointL start = files.get( files.size() - 1 ).getSmallest();
+            TimePointL end = files.get( 0 ).getLargest();
+            long startWindow = start.isInit() ? 0 : start.val() / window;
+            return end.val() / window > startWindow;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "TimeWindow{window=" + window + ", " + inWindow + "}";
+        }
+    }
+}
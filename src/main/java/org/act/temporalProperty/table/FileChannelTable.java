@@ -8,9 +8,8 @@ import java.util.Comparator;
 
 import org.act.temporalProperty.util.Slice;
 import org.act.temporalProperty.util.Slices;
-import org.act.temporalProperty.util.Snappy;
 
-import static org.act.temporalProperty.impl.CompressionType.SNAPPY;
+import static org.act.temporalProperty.impl.CompressionType.NONE;
 
 /**
  * 以FileChannel形式打开文件并读取信息的工具类，以Block为单位对文件进行读取。
@@ -25,6 +24,18 @@ public class FileChannelTable
         super(name, fileChannel, comparator, verifyChecksums);
     }
 
+    public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, ChecksumMode checksumMode)
+            throws IOException
+    {
+        super(name, fileChannel, comparator, checksumMode);
+    }
+
+    public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, ChecksumMode checksumMode, BlockCache blockCache)
+            throws IOException
+    {
+        super(name, fileChannel, comparator, checksumMode, blockCache);
+    }
+
     @Override
     protected Footer init()
             throws IOException
@@ -34,7 +45,6 @@ public class FileChannelTable
         return Footer.readFooter(Slices.copiedBuffer(footerData));
     }
 
-    @SuppressWarnings({"AssignmentToStaticFieldFromInstanceMethod", "NonPrivateFieldAccessedInSynchronizedContext"})
     @Override
     protected Block readBlock(BlockHandle blockHandle)
             throws IOException
@@ -43,47 +53,31 @@ public class FileChannelTable
         ByteBuffer trailerData = read(blockHandle.getOffset() + blockHandle.getDataSize(), BlockTrailer.ENCODED_LENGTH);
         BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(trailerData));
 
-// todo re-enable crc check when ported to support direct buffers
-//        // only verify check sums if explicitly asked by the user
-//        if (verifyChecksums) {
-//            // checksum data and the compression type in the trailer
-//            PureJavaCrc32C checksum = new PureJavaCrc32C();
-//            checksum.update(data.getRawArray(), data.getRawOffset(), blockHandle.getDataSize() + 1);
-//            int actualCrc32c = checksum.getMaskedValue();
-//
-//            Preconditions.checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
-//        }
-
         // decompress data
 
         ByteBuffer uncompressedBuffer = read(blockHandle.getOffset(), blockHandle.getDataSize());
+        verifyChecksum(uncompressedBuffer, blockTrailer, blockHandle);
         Slice uncompressedData;
-        if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (FileChannelTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
-
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
-            }
+        if (blockTrailer.getCompressionType() != NONE) {
+            uncompressedData = uncompress(uncompressedBuffer, blockTrailer.getCompressionType());
         }
         else {
             uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
         }
 
-        return new Block(uncompressedData, comparator);
+        return newDataBlock(uncompressedData);
     }
 
-    private ByteBuffer read(long offset, int length)
+    @Override
+    protected ByteBuffer read(long offset, int length)
             throws IOException
     {
         ByteBuffer uncompressedBuffer = ByteBuffer.allocate(length);
-        fileChannel.read(uncompressedBuffer, offset);
-        if (uncompressedBuffer.hasRemaining()) {
-            throw new IOException("Could not read all the data");
+        while (uncompressedBuffer.hasRemaining()) {
+            int n = fileChannel.read(uncompressedBuffer, offset + uncompressedBuffer.position());
+            if (n < 0) {
+                throw new IOException("Could not read all the data");
+            }
         }
         uncompressedBuffer.clear();
         return uncompressedBuffer;
@@ -96,32 +90,13 @@ public class FileChannelTable
         ByteBuffer trailerData = read(blockHandle.getOffset() + blockHandle.getDataSize(), BlockTrailer.ENCODED_LENGTH);
         BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(trailerData));
 
-// todo re-enable crc check when ported to support direct buffers
-//        // only verify check sums if explicitly asked by the user
-//        if (verifyChecksums) {
-//            // checksum data and the compression type in the trailer
-//            PureJavaCrc32C checksum = new PureJavaCrc32C();
-//            checksum.update(data.getRawArray(), data.getRawOffset(), blockHandle.getDataSize() + 1);
-//            int actualCrc32c = checksum.getMaskedValue();
-//
-//            Preconditions.checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
-//        }
-
         // decompress data
 
         ByteBuffer uncompressedBuffer = read(blockHandle.getOffset(), blockHandle.getDataSize());
+        verifyChecksum(uncompressedBuffer, blockTrailer, blockHandle);
         Slice uncompressedData;
-        if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (FileChannelTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
-
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
-            }
+        if (blockTrailer.getCompressionType() != NONE) {
+            uncompressedData = uncompress(uncompressedBuffer, blockTrailer.getCompressionType());
         }
         else {
             uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
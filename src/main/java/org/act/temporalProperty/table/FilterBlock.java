@@ -0,0 +1,114 @@
+package org.act.temporalProperty.table;
+
+import com.google.common.base.Preconditions;
+import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.util.Slices;
+import org.act.temporalProperty.vo.EntityPropertyId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 按EntityPropertyId建立的布隆过滤器，每个Table一个，由TableBuilder在写文件时生成，记录在meta index block中（key为META_KEY）。
+ * 点查询和范围查询在打开文件的迭代器前先检查，文件中没有该点/边的数据时直接跳过该文件。
+ * 格式：|bit数组|hash次数k(1 byte)|
+ */
+public class FilterBlock
+{
+    public static final Slice META_KEY = Slices.copiedBuffer( "filter.EntityPropertyId", StandardCharsets.UTF_8 );
+
+    private final Slice data;
+    private final long bits;
+    private final int k;
+
+    public FilterBlock( Slice data )
+    {
+        Preconditions.checkArgument( data.length() >= 1, "invalid filter block" );
+        this.data = data;
+        this.bits = (data.length() - 1) * 8L;
+        this.k = data.getUnsignedByte( data.length() - 1 );
+    }
+
+    public boolean mayContain( EntityPropertyId id )
+    {
+        return mayContain( id.getPropertyId(), id.getEntityId() );
+    }
+
+    public boolean mayContain( int propertyId, long entityId )
+    {
+        if ( bits == 0 || k > 30 ) return true; // treat as "may match" for unknown encodings.
+        long h = hash( propertyId, entityId );
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for ( int i = 0; i < k; i++ )
+        {
+            long bit = ((h1 + i * h2) & 0x7FFF_FFFFL) % bits;
+            if ( (data.getByte( (int) (bit >>> 3) ) & (1 << (bit & 7))) == 0 ) return false;
+        }
+        return true;
+    }
+
+    public int size()
+    {
+        return data.length();
+    }
+
+    // murmur3 fmix64
+    private static long hash( int propertyId, long entityId )
+    {
+        long h = entityId * 0x9E3779B97F4A7C15L + propertyId;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public static class Builder
+    {
+        private final int bitsPerKey;
+        private long[] hashes = new long[1024];
+        private int count = 0;
+
+        /**
+         * @param bitsPerKey 每个EntityPropertyId占用的bit数，10时误判率约1%
+         */
+        public Builder( int bitsPerKey )
+        {
+            Preconditions.checkArgument( bitsPerKey > 0, "bits per key should be positive" );
+            this.bitsPerKey = bitsPerKey;
+        }
+
+        // the same id should be added only once (TableBuilder adds it when the id of sorted keys changes).
+        public void add( int propertyId, long entityId )
+        {
+            if ( count == hashes.length ) hashes = Arrays.copyOf( hashes, count * 2 );
+            hashes[count++] = hash( propertyId, entityId );
+        }
+
+        public Slice finish()
+        {
+            // round down to reduce probing cost, leveldb uses the same k.
+            int k = Math.max( 1, Math.min( 30, (int) (bitsPerKey * 0.69) ) );
+            long bits = Math.max( 64, (long) count * bitsPerKey );
+            int bytes = (int) Math.min( Integer.MAX_VALUE - 1, (bits + 7) / 8 );
+            bits = bytes * 8L;
+            Slice result = Slices.allocate( bytes + 1 );
+            for ( int j = 0; j < count; j++ )
+            {
+                long h = hashes[j];
+                int h1 = (int) h;
+                int h2 = (int) (h >>> 32);
+                for ( int i = 0; i < k; i++ )
+                {
+                    long bit = ((h1 + i * h2) & 0x7FFF_FFFFL) % bits;
+                    int index = (int) (bit >>> 3);
+                    result.setByte( index, result.getByte( index ) | (1 << (bit & 7)) );
+                }
+            }
+            result.setByte( bytes, k );
+            return result;
+        }
+    }
+}
@@ -66,6 +66,6 @@ public class IndexBlock extends Block
     @Override
     public BlockIterator iterator()
     {
-        return new IndexBlockIterator(data, restartPositions, comparator);
+        return new IndexBlockIterator(data, restartPositions, comparator, owner);
     }
 }
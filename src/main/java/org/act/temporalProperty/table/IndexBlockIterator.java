@@ -17,6 +17,7 @@
  */
 package org.act.temporalProperty.table;
 
+import java.nio.ByteBuffer;
 import java.util.Comparator;
 
 import org.act.temporalProperty.util.Slice;
@@ -28,9 +29,9 @@ import org.act.temporalProperty.util.Slice;
 public class IndexBlockIterator extends BlockIterator
 {
 
-    public IndexBlockIterator( Slice data, Slice restartPositions, Comparator<Slice> comparator )
+    public IndexBlockIterator( ByteBuffer data, Slice restartPositions, Comparator<Slice> comparator, Object owner )
     {
-        super( data, restartPositions, comparator );
+        super( data, restartPositions, comparator, owner );
     }
 
     @Override
@@ -42,7 +43,7 @@ public class IndexBlockIterator extends BlockIterator
 
         BlockEntry entry = nextEntry;
 
-        if (!data.isReadable()) {
+        if (!data.hasRemaining()) {
             nextEntry = null;
         }
         else {
@@ -98,7 +99,7 @@ public class IndexBlockIterator extends BlockIterator
         if( null == nextEntry )
         {
             nextEntry = preEntry;
-            this.data.setPosition( prePos );
+            this.data.position( prePos );
         }
     }
 
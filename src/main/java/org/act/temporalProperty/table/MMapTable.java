@@ -17,6 +17,8 @@
  */
 package org.act.temporalProperty.table;
 
+import com.google.common.base.Preconditions;
+
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -31,23 +33,53 @@ import org.act.temporalProperty.util.ByteBufferSupport;
 import org.act.temporalProperty.util.Closeables;
 import org.act.temporalProperty.util.Slice;
 import org.act.temporalProperty.util.Slices;
-import org.act.temporalProperty.util.Snappy;
 
-import static org.act.temporalProperty.impl.CompressionType.SNAPPY;
+import static org.act.temporalProperty.impl.CompressionType.NONE;
 
 /**
  * 以MMap形式打开文件并提供读取接口的类，以Block为单文进行文件读取
+ * 一个MappedByteBuffer最大2GB，所以文件按segmentSize分段映射，跨段的数据块复制到堆上读取（每段最多一次）。
  *
  */
 public class MMapTable
         extends Table
 {
-    private MappedByteBuffer data;
+    public static final int SEGMENT_SIZE = 1 << 30;
+    // tests use smaller segments to cover reads across segments.
+    static int segmentSize = SEGMENT_SIZE;
+
+    private MappedByteBuffer[] segments;
+    private int segmentBits;
+    private final boolean zeroCopy;
 
     public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException
     {
         super(name, fileChannel, comparator, verifyChecksums);
+        this.zeroCopy = false;
+    }
+
+    public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, ChecksumMode checksumMode)
+            throws IOException
+    {
+        this(name, fileChannel, comparator, checksumMode, false);
+    }
+
+    /**
+     * @param zeroCopy 未压缩的数据块直接读取文件映射，不复制到堆上。
+     *                 只能用于由Finalizer在Table不可达后才unmap的文件（见TableCache），不能调用close()
+     */
+    public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, ChecksumMode checksumMode, boolean zeroCopy)
+            throws IOException
+    {
+        this(name, fileChannel, comparator, checksumMode, zeroCopy, null);
+    }
+
+    public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, ChecksumMode checksumMode, boolean zeroCopy, BlockCache blockCache)
+            throws IOException
+    {
+        super(name, fileChannel, comparator, checksumMode, blockCache);
+        this.zeroCopy = zeroCopy;
     }
 
     @Override
@@ -55,21 +87,37 @@ public class MMapTable
             throws IOException
     {
         long size = fileChannel.size();
-        data = fileChannel.map(MapMode.READ_ONLY, 0, size);
-        Slice footerSlice = Slices.copiedBuffer(data, (int) size - Footer.ENCODED_LENGTH, Footer.ENCODED_LENGTH);
+        Preconditions.checkState(Integer.bitCount(segmentSize) == 1, "segment size must be a power of 2");
+        segmentBits = Integer.numberOfTrailingZeros(segmentSize);
+        segments = new MappedByteBuffer[(int) ((size + segmentSize - 1) >>> segmentBits)];
+        for (int i = 0; i < segments.length; i++) {
+            long position = (long) i << segmentBits;
+            segments[i] = fileChannel.map(MapMode.READ_ONLY, position, Math.min(segmentSize, size - position));
+        }
+        Slice footerSlice = Slices.copiedBuffer(read(size - Footer.ENCODED_LENGTH, Footer.ENCODED_LENGTH));
         return Footer.readFooter(footerSlice);
     }
 
+    @Override
+    public long mappedSize()
+    {
+        long size = 0;
+        for (MappedByteBuffer segment : segments) {
+            size += segment.capacity();
+        }
+        return size;
+    }
+
     @Override
     public Callable<?> closer()
     {
-        return new Closer(name, fileChannel, data);
+        return new Closer(name, fileChannel, segments);
     }
     
     @Override
     public void close()
     {
-        ByteBufferSupport.unmap(data);
+        unmap(segments);
         try
         {
             fileChannel.close();
@@ -84,65 +132,52 @@ public class MMapTable
     {
         private final String name;
         private final Closeable closeable;
-        private final MappedByteBuffer data;
+        private final MappedByteBuffer[] segments;
 
-        public Closer(String name, Closeable closeable, MappedByteBuffer data)
+        public Closer(String name, Closeable closeable, MappedByteBuffer[] segments)
         {
             this.name = name;
             this.closeable = closeable;
-            this.data = data;
+            this.segments = segments;
         }
 
         public Void call()
         {
-            ByteBufferSupport.unmap(data);
+            unmap(segments);
             Closeables.closeQuietly(closeable);
             System.out.println("CLOSE MMTABLE "+name);
             return null;
         }
     }
 
-    @SuppressWarnings({"NonPrivateFieldAccessedInSynchronizedContext", "AssignmentToStaticFieldFromInstanceMethod"})
+    private static void unmap(MappedByteBuffer[] segments)
+    {
+        for (MappedByteBuffer segment : segments) {
+            ByteBufferSupport.unmap(segment);
+        }
+    }
+
     @Override
     protected Block readBlock(BlockHandle blockHandle)
             throws IOException
     {
-        // read block trailer
-        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(this.data,
-                (int) blockHandle.getOffset() + blockHandle.getDataSize(),
-                BlockTrailer.ENCODED_LENGTH));
-
-// todo re-enable crc check when ported to support direct buffers
-//        // only verify check sums if explicitly asked by the user
-//        if (verifyChecksums) {
-//            // checksum data and the compression type in the trailer
-//            PureJavaCrc32C checksum = new PureJavaCrc32C();
-//            checksum.update(data.getRawArray(), data.getRawOffset(), blockHandle.getDataSize() + 1);
-//            int actualCrc32c = checksum.getMaskedValue();
-//
-//            Preconditions.checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
-//        }
+        // read block and trailer
+        ByteBuffer uncompressedBuffer = read(blockHandle.getOffset(), blockHandle.getFullBlockSize());
+        uncompressedBuffer.position(uncompressedBuffer.position() + blockHandle.getDataSize());
+        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(uncompressedBuffer);
+        uncompressedBuffer.limit(uncompressedBuffer.position()).position(uncompressedBuffer.position() - blockHandle.getDataSize());
 
         // decompress data
-        Slice uncompressedData;
-        ByteBuffer uncompressedBuffer = read(this.data, (int) blockHandle.getOffset(), blockHandle.getDataSize());
-        if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (MMapTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
-
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
-            }
+        verifyChecksum(uncompressedBuffer, blockTrailer, blockHandle);
+        if (blockTrailer.getCompressionType() != NONE) {
+            return newDataBlock(uncompress(uncompressedBuffer, blockTrailer.getCompressionType()));
+        }
+        else if (zeroCopy) {
+            return newDataBlock(uncompressedBuffer);
         }
         else {
-            uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
+            return newDataBlock(Slices.copiedBuffer(uncompressedBuffer));
         }
-
-        return new Block(uncompressedData, comparator);
     }
 
     public static ByteBuffer read(MappedByteBuffer data, int offset, int length)
@@ -153,39 +188,40 @@ public class MMapTable
         return block;
     }
 
+    @Override
+    protected ByteBuffer read(long offset, int length)
+            throws IOException
+    {
+        int segment = (int) (offset >>> segmentBits);
+        int segmentOffset = (int) (offset & (segmentSize - 1));
+        if (segmentOffset + length <= segmentSize) {
+            return read(segments[segment], segmentOffset, length);
+        }
+        // the block crosses segments, copy it to the heap.
+        ByteBuffer block = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (block.hasRemaining()) {
+            int n = Math.min(block.remaining(), segmentSize - segmentOffset);
+            block.put(read(segments[segment], segmentOffset, n));
+            segment++;
+            segmentOffset = 0;
+        }
+        block.flip();
+        return block;
+    }
+
     @Override
     protected IndexBlock readIndexBlock( BlockHandle blockHandle ) throws IOException
     {
      // read block trailer
-        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(this.data,
-                (int) blockHandle.getOffset() + blockHandle.getDataSize(),
-                BlockTrailer.ENCODED_LENGTH));
-
-// todo re-enable crc check when ported to support direct buffers
-//        // only verify check sums if explicitly asked by the user
-//        if (verifyChecksums) {
-//            // checksum data and the compression type in the trailer
-//            PureJavaCrc32C checksum = new PureJavaCrc32C();
-//            checksum.update(data.getRawArray(), data.getRawOffset(), blockHandle.getDataSize() + 1);
-//            int actualCrc32c = checksum.getMaskedValue();
-//
-//            Preconditions.checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
-//        }
+        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(
+                read(blockHandle.getOffset() + blockHandle.getDataSize(), BlockTrailer.ENCODED_LENGTH)));
 
         // decompress data
         Slice uncompressedData;
-        ByteBuffer uncompressedBuffer = read(this.data, (int) blockHandle.getOffset(), blockHandle.getDataSize());
-        if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (MMapTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
-
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
-            }
+        ByteBuffer uncompressedBuffer = read(blockHandle.getOffset(), blockHandle.getDataSize());
+        verifyChecksum(uncompressedBuffer, blockTrailer, blockHandle);
+        if (blockTrailer.getCompressionType() != NONE) {
+            uncompressedData = uncompress(uncompressedBuffer, blockTrailer.getCompressionType());
         }
         else {
             uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
@@ -1,5 +1,7 @@
 package org.act.temporalProperty.table;
 
+import org.act.temporalProperty.exception.TPSNHException;
+import org.act.temporalProperty.exception.TPSRuntimeException;
 import org.act.temporalProperty.helper.EqualValFilterIterator;
 import org.act.temporalProperty.helper.InvalidEntityFilterIterator;
 import org.act.temporalProperty.helper.SameLevelMergeIterator;
@@ -10,16 +12,20 @@ import org.act.temporalProperty.impl.Filename;
 import org.act.temporalProperty.impl.InternalEntry;
 import org.act.temporalProperty.impl.InternalKey;
 import org.act.temporalProperty.impl.MemTable;
-import org.act.temporalProperty.impl.Options;
+import org.act.temporalProperty.impl.PointValueCache;
 import org.act.temporalProperty.impl.SearchableIterator;
+import org.act.temporalProperty.impl.SinglePropertyStore;
 import org.act.temporalProperty.impl.TableCache;
+import org.act.temporalProperty.impl.TemporalPropertyStoreImpl;
 import org.act.temporalProperty.impl.UnknownToInvalidIterator;
+import org.act.temporalProperty.impl.WriteAheadLog;
 import org.act.temporalProperty.index.IndexStore;
 import org.act.temporalProperty.index.IndexUpdater;
 import org.act.temporalProperty.meta.PropertyMetaData;
 import org.act.temporalProperty.meta.SystemMeta;
 import org.act.temporalProperty.query.TimePointL;
-import org.act.temporalProperty.util.Finalizer;
+import org.act.temporalProperty.util.BackgroundThread;
+import org.act.temporalProperty.util.IoRateLimiter;
 import org.act.temporalProperty.util.TableLatestValueIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,49 +34,145 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.act.temporalProperty.impl.TemporalPropertyStoreImpl.BULK_MODE;
+import static org.act.temporalProperty.impl.TemporalPropertyStoreImpl.MEMTABLE_QUEUE_SLOWDOWN;
+import static org.act.temporalProperty.impl.TemporalPropertyStoreImpl.MERGE_IO_BOOST;
+import static org.act.temporalProperty.impl.TemporalPropertyStoreImpl.MERGE_READ_RATE;
+import static org.act.temporalProperty.impl.TemporalPropertyStoreImpl.MERGE_THREADS;
+import static org.act.temporalProperty.impl.TemporalPropertyStoreImpl.MERGE_WRITE_RATE;
 
 /**
  * 文件合并过程
  *
+ * 合并线程从事件队列中按优先级取出事件处理：提交的MemTable > 超过大小的FileBuffer > 系统关闭 > 创建索引 > 合并相邻的小StableFile，
+ * 同一优先级按提交顺序处理。没有事件时线程阻塞等待，不再轮询。
  */
 public class MergeProcess extends Thread
 {
     private final SystemMeta systemMeta;
     private final String storeDir;
-    private volatile MemTable memTable = null;
-    private volatile boolean shouldGo = true;
-    private volatile boolean hasIndexToCreate = false;
+    // immutable memtables waiting to be merged, oldest first. iterate it to get a snapshot.
+    private final CopyOnWriteArrayList<MemTable> memTables = new CopyOnWriteArrayList<>();
+    private final PriorityBlockingQueue<MergeEvent> events = new PriorityBlockingQueue<>();
+    private final AtomicLong eventSeq = new AtomicLong();
+    private final AtomicBoolean indexPending = new AtomicBoolean( false ); // at most one index event in queue.
+    private final Set<String> bufferPending = ConcurrentHashMap.newKeySet(); // at most one event per buffer.
+    private final Set<Integer> consolidatePending = ConcurrentHashMap.newKeySet(); // at most one event per property.
+    private final Map<Integer,Integer> consolidateChecked = new HashMap<>(); // stable file count of each property when last checked.
+    private final LinkedList<TaskTiming> timings = new LinkedList<>();
     private static Logger log = LoggerFactory.getLogger( MergeProcess.class );
     private final TableCache cache;
     private final IndexStore index;
+    private final WriteAheadLog wal;
+    private final Object idle = new Object(); // notified when a memTable is merged.
+    private final int maxQueued;
+    private final ExecutorService mergePool; // null if mergeThreads<=1, then tasks run in this thread.
+    private final IoRateLimiter ioLimiter; // bound to merge thread and pool threads.
+    private final AtomicBoolean backlog = new AtomicBoolean( false ); // queued memtables >= MEMTABLE_QUEUE_SLOWDOWN, io limit is boosted.
+
+    public MergeProcess(String storePath, SystemMeta systemMeta, TableCache cache, IndexStore index, WriteAheadLog wal, int maxQueued) {
+        this(storePath, systemMeta, cache, index, wal, maxQueued, BULK_MODE ? 1 : MERGE_THREADS);
+    }
 
-    public MergeProcess(String storePath, SystemMeta systemMeta, TableCache cache, IndexStore index) {
+    // mergeThreads>1: MergeTasks run in a pool of mergeThreads threads.
+    MergeProcess(String storePath, SystemMeta systemMeta, TableCache cache, IndexStore index, WriteAheadLog wal, int maxQueued, int mergeThreads) {
         this.storeDir = storePath;
+        this.maxQueued = maxQueued;
+        this.ioLimiter = new IoRateLimiter( MERGE_READ_RATE << 20, MERGE_WRITE_RATE << 20, (int) MERGE_IO_BOOST );
+        if (mergeThreads > 1) {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.mergePool = Executors.newFixedThreadPool(mergeThreads, r -> {
+                Thread t = new Thread(() -> {
+                    BackgroundThread.mark();
+                    IoRateLimiter.bind(ioLimiter);
+                    r.run();
+                }, "TPS-Merge-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.mergePool = null;
+        }
         this.systemMeta = systemMeta;
         this.cache = cache;
         this.index = index;
+        this.wal = wal;
     }
 
     // this is called from a writer thread.
-    // the caller should get write lock first.
+    // the caller should get write lock first. only wait when the queue is full.
     public void add(MemTable memTable) throws Exception {
-        while(this.memTable!=null){
-            systemMeta.lock.waitMergeDone();
+        if(memTables.size() >= maxQueued){
+            ioLimiter.stallBegin();
+            try{
+                while(memTables.size() >= maxQueued){
+                    systemMeta.lock.waitMergeDone();
+                }
+            }finally{
+                ioLimiter.stallEnd();
+            }
         }
-        this.memTable = memTable;
+        memTables.add(memTable);
+        if(memTables.size() >= MEMTABLE_QUEUE_SLOWDOWN && backlog.compareAndSet(false, true)) ioLimiter.stallBegin();
         if(BULK_MODE) startMergeProcess(memTable);
+        else events.add(new MergeEvent(EventType.MEMTABLE, eventSeq.incrementAndGet(), memTable, 0, false, 0));
+    }
+
+    // this is called from a writer thread in concurrent write mode, without holding the store lock.
+    public void waitQueueNotFull() throws InterruptedException {
+        synchronized (idle) {
+            if (memTables.size() < maxQueued) return;
+            ioLimiter.stallBegin();
+            try {
+                while (memTables.size() >= maxQueued) {
+                    idle.wait();
+                }
+            } finally {
+                ioLimiter.stallEnd();
+            }
+        }
+    }
+
+    /**
+     * @return 合并、buffer合并和创建索引共用的IO限速器，可在运行时调整速度
+     */
+    public IoRateLimiter ioLimiter() {
+        return ioLimiter;
+    }
+
+    /**
+     * @return 等待合并（或正在合并）的MemTable的快照，按提交顺序排列
+     */
+    public List<MemTable> immutableMemTables() {
+        return new ArrayList<>(memTables);
+    }
+
+    public int queuedCount() {
+        return memTables.size();
     }
 
     private String getMyName(){
@@ -91,39 +193,49 @@ public class MergeProcess extends Thread
     }
 
     public void shutdown() throws InterruptedException {
-        this.shouldGo = false;
+        events.add(new MergeEvent(EventType.SHUTDOWN, eventSeq.incrementAndGet(), null, 0, false, 0));
         this.join();
+        if (mergePool != null) mergePool.shutdown();
     }
 
     @Override
     public void run(){
         Thread.currentThread().setName(getMyName());
+        BackgroundThread.mark();
+        IoRateLimiter.bind(ioLimiter);
         try{
             while(!Thread.interrupted()) {
-                if(shouldGo) {
-                    if ( memTable != null )
-                    {
-                        startMergeProcess(memTable);
-                    } else {
-                        if ( hasIndexToCreate )
-                        {
-                            hasIndexToCreate = false;
-                            startMergeProcess( new MemTable() );
-                        }
-                        else
+                MergeEvent event = events.take();
+                long start = System.nanoTime();
+                switch ( event.type )
+                {
+                    case MEMTABLE:
+                        startMergeProcess( event.memTable );
+                        break;
+                    case BUFFER:
+                        bufferPending.remove( event.bufferKey() );
+                        SinglePropertyStore store = systemMeta.proStores().get( event.propertyId );
+                        BackgroundTask task = store == null ? null : store.bufferMergeTask( event.isStable, event.fileNumber );
+                        if ( task != null ) runAndCommit( Collections.singletonList( task ) );
+                        break;
+                    case INDEX:
+                        indexPending.set( false );
+                        runAndCommit( index.createNewIndexTasks() );
+                        break;
+                    case CONSOLIDATE:
+                        consolidatePending.remove( event.propertyId );
+                        SinglePropertyStore pStore = systemMeta.proStores().get( event.propertyId );
+                        BackgroundTask consolidate = pStore == null ? null : pStore.consolidateTask();
+                        if ( consolidate != null ) runAndCommit( Collections.singletonList( consolidate ) );
+                        break;
+                    case SHUTDOWN:
+                        while ( !memTables.isEmpty() ) // memtable submitted when shutting down.
                         {
-                            Thread.sleep( 100 );
+                            startMergeProcess(memTables.get(0));
                         }
-                    }
-                }else{
-                    if ( memTable != null )
-                    {
-                        startMergeProcess(memTable);
-                        return;
-                    } else {
                         return;
-                    }
                 }
+                addTiming( new TaskTiming( event.type.name(), event.toString(), start - event.createTime, System.nanoTime() - start ) );
             }
         } catch (InterruptedException e) {
             e.printStackTrace();
@@ -142,34 +254,35 @@ public class MergeProcess extends Thread
      * @param temp 需要写入磁盘的MemTable
      * @throws IOException
      */
-    private static String debugInfo;
     private void startMergeProcess( MemTable temp ) throws IOException
     {
         List<BackgroundTask> taskList = new LinkedList<>();
-        if ( !temp.isEmpty() )
+        Map<Integer,MemTable> tables = temp.separateByProperty();
+        for ( Entry<Integer,MemTable> propEntry : tables.entrySet() )
         {
-
-            Map<Integer,MemTable> tables = temp.separateByProperty();
-            for ( Entry<Integer,MemTable> propEntry : tables.entrySet() )
+            MergeTask task = systemMeta.getStore( propEntry.getKey() ).merge( propEntry.getValue() );
+            if ( task != null )
             {
-                MergeTask task = systemMeta.getStore( propEntry.getKey() ).merge( propEntry.getValue() );
-                if ( task != null )
-                {
-                    taskList.add( task );
-                }
+                taskList.add( task );
             }
         }
-        else
-        {
-            taskList.addAll( index.createNewIndexTasks() );
-        }
+        runTasks( taskList );
+        commit( taskList, temp );
+    }
 
-        for ( BackgroundTask task : taskList )
-        {
-            task.runTask();
-        }
+    private void runAndCommit( List<BackgroundTask> taskList ) throws IOException
+    {
+        runTasks( taskList );
+        commit( taskList, null );
+    }
 
-        Finalizer<Table> f = null;
+    /**
+     * 在一次排它锁内更新所有任务的meta并写盘
+     * @param merged 本次合并的MemTable，没有则为null
+     */
+    private void commit( List<BackgroundTask> taskList, MemTable merged ) throws IOException
+    {
+        long start = System.nanoTime();
         systemMeta.lock.mergeLockExclusive();
         try
         {
@@ -177,30 +290,259 @@ public class MergeProcess extends Thread
             {
                 task.updateMeta();
             }
-            systemMeta.setStableMemTable(false);
             systemMeta.force( new File( storeDir ) );
-            memTable = null;
-            f = cache.cleanUp();
+            if ( merged != null )
+            {
+                memTables.remove( merged );
+                if ( memTables.size() < MEMTABLE_QUEUE_SLOWDOWN && backlog.compareAndSet( true, false ) ) ioLimiter.stallEnd();
+            }
+            if ( !BULK_MODE )
+            {
+                checkBufferSize();
+                checkConsolidate();
+            }
             systemMeta.lock.mergeDone();
+            synchronized (idle) {
+                idle.notifyAll();
+            }
         }
         finally
         {
             systemMeta.lock.mergeUnlockExclusive();
         }
 
-        if(f!=null) {
-            System.out.println("CLOSE FILES (CACHE)");
-            f.destroy();
-        }
+        // memTable is on disk and meta is forced, its log is no longer needed.
+        if(merged!=null && wal!=null) wal.releaseOldest();
+
         for ( BackgroundTask task : taskList )
         {
             task.cleanUp();
         }
+        addTiming( new TaskTiming( "COMMIT", taskList.size() + " tasks", 0, System.nanoTime() - start ) );
+    }
+
+    // called with merge lock held. buffers are only written by merge thread, so the size would not change.
+    private void checkBufferSize()
+    {
+        long limit = 1024 * 1024 * TemporalPropertyStoreImpl.FBUFFER_SIZE;
+        for ( PropertyMetaData pMeta : systemMeta.getProperties().values() )
+        {
+            for ( Entry<Long,FileBuffer> e : pMeta.getUnstableBuffers().entrySet() )
+            {
+                if ( e.getValue().size() > limit ) addBufferEvent( pMeta.getPropertyId(), false, e.getKey() );
+            }
+            for ( Entry<Long,FileBuffer> e : pMeta.getStableBuffers().entrySet() )
+            {
+                if ( e.getValue().size() > limit ) addBufferEvent( pMeta.getPropertyId(), true, e.getKey() );
+            }
+        }
+    }
+
+    // called with merge lock held. only properties whose stable file count changed since last check are checked.
+    private void checkConsolidate()
+    {
+        for ( Entry<Integer,SinglePropertyStore> e : systemMeta.proStores().entrySet() )
+        {
+            PropertyMetaData pMeta = systemMeta.getProperties().get( e.getKey() );
+            int stableCount = pMeta == null ? 0 : pMeta.getStableFiles().size();
+            Integer lastCount = consolidateChecked.put( e.getKey(), stableCount );
+            if ( lastCount != null && lastCount == stableCount ) continue;
+            if ( !consolidatePending.contains( e.getKey() ) && e.getValue().needConsolidate() ) addConsolidateEvent( e.getKey() );
+        }
+    }
+
+    void addBufferEvent( int propertyId, boolean isStable, long fileNumber )
+    {
+        MergeEvent event = new MergeEvent( EventType.BUFFER, eventSeq.incrementAndGet(), null, propertyId, isStable, fileNumber );
+        if ( bufferPending.add( event.bufferKey() ) ) events.add( event );
+    }
+
+    void addConsolidateEvent( int propertyId )
+    {
+        if ( consolidatePending.add( propertyId ) )
+        {
+            events.add( new MergeEvent( EventType.CONSOLIDATE, eventSeq.incrementAndGet(), null, propertyId, true, 0 ) );
+        }
+    }
+
+    /**
+     * @return 队列中的事件，按处理顺序排列
+     */
+    List<String> queuedEvents()
+    {
+        List<MergeEvent> queued = new ArrayList<>( events );
+        Collections.sort( queued );
+        List<String> result = new ArrayList<>();
+        for ( MergeEvent event : queued ) result.add( event.toString() );
+        return result;
+    }
+
+    private void timedRun( BackgroundTask task ) throws IOException
+    {
+        long start = System.nanoTime();
+        task.runTask();
+        addTiming( new TaskTiming( "TASK", task.toString(), 0, System.nanoTime() - start ) );
+    }
+
+    private void addTiming( TaskTiming timing )
+    {
+        log.debug( "{}", timing );
+        synchronized ( timings )
+        {
+            timings.addLast( timing );
+            if ( timings.size() > 256 ) timings.removeFirst();
+        }
+    }
+
+    /**
+     * @return 最近完成的（最多256个）事件、任务和meta提交的耗时，按完成顺序排列
+     */
+    public List<TaskTiming> recentTimings()
+    {
+        synchronized ( timings )
+        {
+            return new ArrayList<>( timings );
+        }
+    }
+
+    /**
+     * 各属性的MergeTask读写各自的文件，互不影响，可以在mergePool中并行执行（并发写文件数不超过MERGE_THREADS）。
+     * 会更新索引文件的任务（索引可能涉及多个属性）和创建索引的任务仍在当前线程顺序执行。
+     */
+    void runTasks( List<BackgroundTask> taskList ) throws IOException
+    {
+        List<Future<Object>> futures = new ArrayList<>();
+        List<BackgroundTask> sequential = new LinkedList<>();
+        for ( BackgroundTask task : taskList )
+        {
+            if ( mergePool != null && task instanceof MergeTask && !((MergeTask) task).updatesIndex() )
+            {
+                futures.add( mergePool.submit( () -> {
+                    timedRun( task );
+                    return null;
+                } ) );
+            }
+            else
+            {
+                sequential.add( task );
+            }
+        }
+
+        Throwable error = null;
+        try
+        {
+            for ( BackgroundTask task : sequential )
+            {
+                timedRun( task );
+            }
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            error = e;
+        }
+        // always wait all running tasks before return, no matter success or not.
+        for ( int i = 0; i < futures.size(); i++ )
+        {
+            try
+            {
+                futures.get( i ).get();
+            }
+            catch ( ExecutionException e )
+            {
+                if ( error == null ) error = e.getCause();
+            }
+            catch ( InterruptedException e )
+            {
+                // stop waiting: cancel the tasks not finished yet and keep the interrupt status for the caller.
+                for ( Future<Object> rest : futures.subList( i, futures.size() ) ) rest.cancel( true );
+                Thread.currentThread().interrupt();
+                InterruptedIOException interrupted = new InterruptedIOException( "interrupted when waiting merge tasks" );
+                if ( error != null ) interrupted.addSuppressed( error );
+                throw interrupted;
+            }
+        }
+        if ( error instanceof IOException ) throw (IOException) error;
+        else if ( error != null ) throw new TPSRuntimeException( "merge task failed", error );
     }
 
     public void createNewIndex()
     {
-        hasIndexToCreate = true;
+        if ( indexPending.compareAndSet( false, true ) )
+        {
+            events.add( new MergeEvent( EventType.INDEX, eventSeq.incrementAndGet(), null, 0, false, 0 ) );
+        }
+    }
+
+    // ordinal is the priority, smaller first.
+    private enum EventType
+    {
+        MEMTABLE, BUFFER, SHUTDOWN, INDEX, CONSOLIDATE
+    }
+
+    private static class MergeEvent implements Comparable<MergeEvent>
+    {
+        private final EventType type;
+        private final long seq;
+        private final long createTime = System.nanoTime();
+        private final MemTable memTable;
+        private final int propertyId;
+        private final boolean isStable;
+        private final long fileNumber;
+
+        private MergeEvent( EventType type, long seq, MemTable memTable, int propertyId, boolean isStable, long fileNumber )
+        {
+            this.type = type;
+            this.seq = seq;
+            this.memTable = memTable;
+            this.propertyId = propertyId;
+            this.isStable = isStable;
+            this.fileNumber = fileNumber;
+        }
+
+        private String bufferKey()
+        {
+            return propertyId + (isStable ? ".st." : ".un.") + fileNumber;
+        }
+
+        @Override
+        public int compareTo( MergeEvent o )
+        {
+            int c = type.compareTo( o.type );
+            return c != 0 ? c : Long.compare( seq, o.seq );
+        }
+
+        @Override
+        public String toString()
+        {
+            if ( type == EventType.BUFFER ) return type + "(" + bufferKey() + ")";
+            else if ( type == EventType.CONSOLIDATE ) return type + "(" + propertyId + ")";
+            else return type + "#" + seq;
+        }
+    }
+
+    /**
+     * 合并线程处理的事件或任务的耗时
+     */
+    public static class TaskTiming
+    {
+        public final String type;
+        public final String name;
+        public final long waitNanos; // time in queue, 0 for tasks.
+        public final long runNanos;
+
+        TaskTiming( String type, String name, long waitNanos, long runNanos )
+        {
+            this.type = type;
+            this.name = name;
+            this.waitNanos = waitNanos;
+            this.runNanos = runNanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return type + " " + name + " wait " + waitNanos / 1000_000 + "ms run " + runNanos / 1000_000 + "ms";
+        }
     }
 
     // 将MemTable写入磁盘并与UnStableFile进行合并
@@ -211,6 +553,10 @@ public class MergeProcess extends Thread
         private final TableCache cache;
         private final List<FileMetaData> mergeParticipants;
         private final PropertyMetaData pMeta;
+        private final CompactionPolicy policy;
+        private final boolean toStable;
+        private final long targetNumber;
+        private final PointValueCache pointCache; // null if not enabled
 
         private final List<Closeable> channel2close = new LinkedList<>();
         private final List<File> files2delete = new LinkedList<>();
@@ -224,37 +570,54 @@ public class MergeProcess extends Thread
         private IndexStore index;
         private IndexUpdater indexUpdater;
         private FileMetaData targetMeta;
+        private String debugInfo;
 
         /**
          * @param memTable2merge 写入磁盘的MemTable
          * @param proMeta 属性元信息
          * @param cache 用来读取UnStableFile的缓存结构
          * @param index
+         * @param policy 该属性的合并策略
+         * @param pointCache 时间点查询结果的缓存，更新meta后该属性的结果失效，null表示不缓存
          */
-        public MergeTask( File propStoreDir, MemTable memTable2merge, PropertyMetaData proMeta, TableCache cache, IndexStore index ){
+        public MergeTask( File propStoreDir, MemTable memTable2merge, PropertyMetaData proMeta, TableCache cache, IndexStore index, CompactionPolicy policy, PointValueCache pointCache ){
             this.propStoreDir = propStoreDir;
             this.mem = memTable2merge;
             this.pMeta = proMeta;
             this.cache = cache;
             this.index = index;
-            this.mergeParticipants = getFile2Merge(proMeta.getUnStableFiles());
+            this.policy = policy;
+            this.pointCache = pointCache;
+            List<FileMetaData> unstable = new ArrayList<>(proMeta.getUnStableFiles().values());
+            unstable.sort(Comparator.comparing(FileMetaData::getSmallest).reversed());
+            long memSize = memTable2merge.approximateMemUsage();
+            this.mergeParticipants = getFile2Merge(unstable, memSize);
             if(!onlyDumpMemTable()) {
                 this.mergeParticipantsMinTime = calcMergeMinTime();
             }else{
                 this.mergeParticipantsMinTime = TimePointL.Init;
             }
+            // StableFile的时间必须早于所有UnStableFile，所以只有全部UnStableFile参与合并时才能生成StableFile
+            this.toStable = !onlyDumpMemTable() && mergeParticipants.size() == unstable.size() && policy.toStable(mergeParticipants, memSize);
+            this.targetNumber = toStable ? proMeta.nextStableId() : freeUnstableNumber(proMeta.getUnStableFiles().keySet());
         }
 
         private TimePointL calcMergeMinTime() {
-            FileMetaData last = mergeParticipants.get(mergeParticipants.size() - 1);
-            return pMeta.getUnStableFiles().get(last.getNumber()).getSmallest();
+            return mergeParticipants.get(mergeParticipants.size() - 1).getSmallest();
+        }
+
+        // participants may still be read when the target is written, so never reuse their numbers.
+        private static long freeUnstableNumber(Set<Long> used) {
+            long number = 0;
+            while(used.contains(number)) number++;
+            return number;
         }
 
         private TableBuilder mergeInit(String targetFileName) throws IOException
         {
             boolean success;
             File targetFile = new File( propStoreDir, targetFileName );
-            debugInfo = "Merge "+mergeParticipants+" TO "+targetFile.getAbsolutePath();
+            debugInfo = "Merge "+mergeParticipants+" TO "+targetFile.getAbsolutePath()+" by "+policy;
 //            Files.deleteIfExists(targetFile.toPath());
             if( targetFile.exists() ) {
                 success = targetFile.delete();
@@ -268,7 +631,7 @@ public class MergeProcess extends Thread
                 targetChannel = targetStream.getChannel();
                 this.channel2close.add( targetStream );
                 this.channel2close.add( targetChannel );
-                return new TableBuilder( new Options(), targetChannel, TableComparator.instance() );
+                return new TableBuilder( pMeta.tableOptions( TemporalPropertyStoreImpl.tableOptions( toStable ), toStable ), targetChannel, TableComparator.instance() );
             }else{
                 throw new IOException("merge init error: fail to create file");
             }
@@ -302,12 +665,11 @@ public class MergeProcess extends Thread
             indexUpdater.cleanUp();
         }
 
-        private List<FileMetaData> getFile2Merge(SortedMap<Long, FileMetaData> files) {
-            List<FileMetaData> toMerge = new LinkedList<>();
-            for( Long fileNo : new long[]{0,1,2,3,4} ) {
-                FileMetaData metaData = files.get( fileNo );
-                if( null == metaData ) break;
-                else toMerge.add( metaData );
+        // files are in time DESC order, result must be a prefix of it.
+        private List<FileMetaData> getFile2Merge(List<FileMetaData> files, long memSize) {
+            List<FileMetaData> toMerge = new ArrayList<>(policy.pick(files, memSize));
+            if(toMerge.size() > files.size() || !files.subList(0, toMerge.size()).equals(toMerge)) {
+                throw new TPSNHException("compaction policy "+policy+" should pick newest unstable files, but got "+toMerge);
             }
             return toMerge;
         }
@@ -350,13 +712,23 @@ public class MergeProcess extends Thread
         }
 
         public boolean createStableFile(){
-            return mergeParticipants.size()>=5;
+            return toStable;
         }
 
         public boolean onlyDumpMemTable(){
             return mergeParticipants.isEmpty();
         }
 
+        @Override
+        public String toString(){
+            return "Merge(" + pMeta.getPropertyId() + ")";
+        }
+
+        // only merge to stable file would update index files, which may be shared by other properties.
+        public boolean updatesIndex(){
+            return createStableFile() && index.hasIndex( pMeta.getPropertyId() );
+        }
+
         // build new File
         @Override
         public void runTask() throws IOException
@@ -368,16 +740,10 @@ public class MergeProcess extends Thread
             String targetFileName;
 
             if(createStableFile()) {
-                long fileId = pMeta.nextStableId();
-                targetFileName = Filename.stableFileName( fileId, 0 );
+                targetFileName = Filename.stableFileName( targetNumber, 0 );
                 indexUpdater = index.onMergeUpdate( pMeta.getPropertyId(), mergedMemTableAndBuffer(), Collections.emptyList() );
-            }else if(!onlyDumpMemTable()){
-                long fileId = mergeParticipants.size();
-                targetFileName = Filename.unStableFileName( fileId, 0 );
-                indexUpdater = index.emptyUpdate();
             }else{
-                long fileId = mergeParticipants.size();
-                targetFileName = Filename.unStableFileName( fileId, 0 );
+                targetFileName = Filename.unStableFileName( targetNumber, 0 );
                 indexUpdater = index.emptyUpdate();
             }
 
@@ -431,16 +797,10 @@ public class MergeProcess extends Thread
                 }else{
                     startTime=TimePointL.Init;
                 }
-                targetMeta = new FileMetaData( 0, targetChannel.size(), startTime, maxTime );
+                targetMeta = new FileMetaData( targetNumber, targetChannel.size(), startTime, maxTime );
             }else{
-                long fileNumber;
-                if(createStableFile()){
-                    fileNumber = pMeta.nextStableId();
-                }else {
-                    fileNumber = mergeParticipants.size();
-                }
                 assert mergeParticipantsMinTime.compareTo(minTime)<=0:"start time should <= minTime! ("+mergeParticipantsMinTime+", min:"+minTime+")";
-                targetMeta = new FileMetaData( fileNumber, targetChannel.size(), mergeParticipantsMinTime, maxTime );
+                targetMeta = new FileMetaData( targetNumber, targetChannel.size(), mergeParticipantsMinTime, maxTime );
             }
             return targetMeta;
         }
@@ -462,6 +822,7 @@ public class MergeProcess extends Thread
             }
 
             indexUpdater.updateMeta();
+            if ( pointCache != null ) pointCache.invalidate( pMeta.getPropertyId() );
 
             // evictUnused(cache);
             for ( String filePath : table2evict ) {
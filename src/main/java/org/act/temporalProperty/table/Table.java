@@ -25,12 +25,23 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
 
+import org.act.temporalProperty.impl.CompressionType;
 import org.act.temporalProperty.impl.SeekingIterable;
+import org.act.temporalProperty.util.BackgroundThread;
 import org.act.temporalProperty.util.Closeables;
+import org.act.temporalProperty.util.Crc32C;
+import org.act.temporalProperty.util.Deflate;
+import org.act.temporalProperty.util.IoRateLimiter;
 import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.util.Slices;
+import org.act.temporalProperty.util.Snappy;
 import org.act.temporalProperty.util.VariableLengthQuantity;
+import org.act.temporalProperty.vo.EntityPropertyId;
 
 /**
  * 一个存储文件的抽象，一个Table对应一个存储文件
@@ -42,28 +53,130 @@ public abstract class Table
     protected final String name;
     protected final FileChannel fileChannel;
     protected final Comparator<Slice> comparator;
-    protected final boolean verifyChecksums;
+    protected final ChecksumMode checksumMode;
     protected final IndexBlock indexBlock;
     protected final BlockHandle metaindexBlockHandle;
+    protected final FilterBlock filter; // null if the table has no filter (old files or index files)
+    protected final byte[] dictionary; // preset dictionary of DEFLATE data blocks, null if none
+    protected final boolean temporalBlocks; // data blocks are TemporalBlock
+    protected final TableStats stats; // null if the table has no stats (old files or index files)
+    private final BlockCache blockCache; // null if not cached
+
+    private static final LongAdder verifiedBlocks = new LongAdder();
+    private static final LongAdder verifiedBytes = new LongAdder();
+    private static final LongAdder verifyNanos = new LongAdder();
 
     public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException
+    {
+        this(name, fileChannel, comparator, verifyChecksums ? ChecksumMode.ALWAYS : ChecksumMode.OFF);
+    }
+
+    public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, ChecksumMode checksumMode)
+            throws IOException
+    {
+        this(name, fileChannel, comparator, checksumMode, null);
+    }
+
+    /**
+     * @param blockCache 数据块和index/meta block的缓存，key为文件名name，所以只能用于name为文件路径（包含版本号）的Table，null表示不缓存。
+     *                   index/meta block在缓存中时不再读取和解码，只读footer。
+     */
+    public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, ChecksumMode checksumMode, BlockCache blockCache)
+            throws IOException
     {
         Preconditions.checkNotNull(name, "name is null");
         Preconditions.checkNotNull(fileChannel, "fileChannel is null");
         long size = fileChannel.size();
         Preconditions.checkArgument(size >= Footer.ENCODED_LENGTH, "File is corrupt: size must be at least %s bytes", Footer.ENCODED_LENGTH);
-        Preconditions.checkArgument(size <= Integer.MAX_VALUE, "File must be smaller than %s bytes", Integer.MAX_VALUE);
         Preconditions.checkNotNull(comparator, "comparator is null");
+        Preconditions.checkNotNull(checksumMode, "checksumMode is null");
 
         this.name = name;
         this.fileChannel = fileChannel;
-        this.verifyChecksums = verifyChecksums;
+        this.checksumMode = checksumMode;
         this.comparator = comparator;
+        this.blockCache = blockCache;
 
         Footer footer = init();
-        indexBlock = readIndexBlock(footer.getIndexBlockHandle());
         metaindexBlockHandle = footer.getMetaindexBlockHandle();
+        TableMeta meta = blockCache == null ? null : blockCache.getMeta(name);
+        if (meta == null) {
+            meta = readMeta(footer);
+            if (blockCache != null) {
+                blockCache.putMeta(name, meta);
+            }
+        }
+        indexBlock = meta.indexBlock;
+        filter = meta.filter;
+        dictionary = meta.dictionary;
+        temporalBlocks = meta.temporalBlocks;
+        stats = meta.stats;
+    }
+
+    private TableMeta readMeta(Footer footer)
+            throws IOException
+    {
+        IndexBlock index = readIndexBlock(footer.getIndexBlockHandle());
+        // the meta index block is a plain block, read it before temporalBlocks is set.
+        Map<Slice, Slice> metaIndex = new HashMap<>();
+        BlockIterator iterator = readBlock(footer.getMetaindexBlockHandle()).iterator();
+        while (iterator.hasNext()) {
+            BlockEntry entry = iterator.next();
+            metaIndex.put(entry.getKey(), entry.getValue());
+        }
+        Slice filterData = readMetaBlock(metaIndex.get(FilterBlock.META_KEY));
+        Slice dictionaryData = readMetaBlock(metaIndex.get(TableBuilder.DICTIONARY_META_KEY));
+        Slice statsData = readMetaBlock(metaIndex.get(TableStats.META_KEY));
+        return new TableMeta(index,
+                filterData == null ? null : new FilterBlock(filterData),
+                dictionaryData == null ? null : dictionaryData.getBytes(),
+                metaIndex.containsKey(TableBuilder.TEMPORAL_FORMAT_META_KEY),
+                statsData == null ? null : TableStats.decode(statsData));
+    }
+
+    // meta blocks never use the dictionary, returns null if the table has no such block.
+    private Slice readMetaBlock(Slice encodedHandle)
+            throws IOException
+    {
+        if (encodedHandle == null) {
+            return null;
+        }
+        BlockHandle handle = BlockHandle.readBlockHandle(encodedHandle.input());
+        BlockTrailer trailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(read(handle.getOffset() + handle.getDataSize(), BlockTrailer.ENCODED_LENGTH)));
+        ByteBuffer data = read(handle.getOffset(), handle.getDataSize());
+        verifyChecksum(data, trailer, handle);
+        return trailer.getCompressionType() == CompressionType.NONE ? Slices.copiedBuffer(data) : uncompress(data, trailer.getCompressionType());
+    }
+
+    protected Block newDataBlock(Slice uncompressedData)
+    {
+        return temporalBlocks ? new TemporalBlock(uncompressedData, comparator) : new Block(uncompressedData, comparator);
+    }
+
+    // the block reads the mapped file directly and keeps this table reachable, see MMapTable.
+    protected Block newDataBlock(ByteBuffer mappedData)
+    {
+        return temporalBlocks ? new TemporalBlock(mappedData, comparator, this) : new Block(mappedData, comparator, this);
+    }
+
+    /**
+     * @return 文件中可能有该点/边的数据（没有过滤器和统计信息时总是返回true），返回false时一定没有
+     */
+    public boolean mayContain(EntityPropertyId id)
+    {
+        if (stats != null && (id.getEntityId() < stats.minEntityId() || id.getEntityId() > stats.maxEntityId())) {
+            return false;
+        }
+        return filter == null || filter.mayContain(id);
+    }
+
+    /**
+     * @return 文件的统计信息，旧文件和索引文件没有，返回null
+     */
+    public TableStats stats()
+    {
+        return stats;
     }
 
     protected abstract Footer init()
@@ -80,20 +193,37 @@ public abstract class Table
 //        return new TableLatestValueIterator( this, indexBlock.iterator() );
 //    }
 
+    /**
+     * 数据块在共享的BlockCache中时直接返回，否则读取并解码后放入缓存。
+     * 直接读取文件映射的数据块（见MMapTable）不需要解码，不放入缓存；后台线程（见BackgroundThread）读取的数据块也不放入缓存，避免把查询的热点数据块挤出去。
+     */
     public Block openBlock(Slice blockEntry)
     {
         BlockHandle blockHandle = BlockHandle.readBlockHandle(blockEntry.input());
+        BlockCache cache = blockCache;
+        if (cache != null) {
+            Block cached = cache.get(name, blockHandle.getOffset());
+            if (cached != null) {
+                return cached;
+            }
+        }
         Block dataBlock;
         try {
+            IoRateLimiter.current().acquireRead(blockHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH);
             dataBlock = readBlock(blockHandle);
         }
         catch (IOException e) {
             throw Throwables.propagate(e);
         }
+        if (cache != null && dataBlock.owner == null && !BackgroundThread.isBackground()) {
+            cache.put(name, blockHandle.getOffset(), dataBlock);
+        }
         return dataBlock;
     }
 
-    protected static ByteBuffer uncompressedScratch = ByteBuffer.allocateDirect(4 * 1024 * 1024);
+    // per-thread copy of compressed data read from mapped files, see uncompress.
+    private static final int MAX_SCRATCH_SIZE = 1024 * 1024;
+    private static final ThreadLocal<byte[]> compressedScratch = ThreadLocal.withInitial(() -> new byte[16 * 1024]);
 
     protected abstract Block readBlock(BlockHandle blockHandle)
             throws IOException;
@@ -101,6 +231,83 @@ public abstract class Table
     protected abstract IndexBlock readIndexBlock( BlockHandle blockHandle )
             throws IOException;
 
+    // read raw bytes (no block trailer) of the file.
+    protected abstract ByteBuffer read(long offset, int length)
+            throws IOException;
+
+    /**
+     * 按checksumMode校验数据块（不包括trailer）的CRC32C，直接读取data，不复制
+     * @param data 数据块，从position到limit，position不变
+     */
+    protected void verifyChecksum(ByteBuffer data, BlockTrailer blockTrailer, BlockHandle blockHandle)
+    {
+        if (!checksumMode.shouldVerify()) {
+            return;
+        }
+        long start = System.nanoTime();
+        int actualCrc32c = Crc32C.maskedValue(data, blockTrailer.getCompressionType().persistentId() & 0xFF);
+        verifyNanos.add(System.nanoTime() - start);
+        verifiedBytes.add(blockHandle.getDataSize());
+        verifiedBlocks.increment();
+        Preconditions.checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch, file %s block %s", name, blockHandle);
+    }
+
+    public static long verifiedBlocks()
+    {
+        return verifiedBlocks.sum();
+    }
+
+    public static long verifiedBytes()
+    {
+        return verifiedBytes.sum();
+    }
+
+    /**
+     * @return 校验数据块CRC所用的总时间（纳秒）
+     */
+    public static long verifyNanos()
+    {
+        return verifyNanos.sum();
+    }
+
+    /**
+     * 解压数据块，直接解压到新数据块的数组中（不需要再复制），不加锁，可被多个线程同时调用。
+     * 压缩数据在堆上（FileChannelTable）时直接解压；在mmap的文件中时先复制到线程自己的数组中（压缩数据比解压后小）。
+     * DEFLATE的数据块使用文件的压缩字典（如果有），只有数据块使用字典，index block和meta index block不使用。
+     * @param compressed 压缩数据，从position到limit，position不变
+     */
+    protected Slice uncompress(ByteBuffer compressed, CompressionType type)
+            throws IOException
+    {
+        int length = compressed.remaining();
+        byte[] uncompressed = new byte[uncompressedLength(compressed)];
+        byte[] input;
+        int offset;
+        if (compressed.hasArray()) {
+            input = compressed.array();
+            offset = compressed.arrayOffset() + compressed.position();
+        }
+        else {
+            input = compressedScratch.get();
+            if (input.length < length) {
+                input = new byte[Math.max(length, input.length * 2)];
+                if (input.length <= MAX_SCRATCH_SIZE) {
+                    compressedScratch.set(input);
+                }
+            }
+            compressed.duplicate().get(input, 0, length);
+            offset = 0;
+        }
+        if (type == CompressionType.DEFLATE) {
+            int header = VariableLengthQuantity.variableLengthSize(uncompressed.length);
+            Deflate.uncompress(input, offset + header, length - header, dictionary, uncompressed);
+        }
+        else {
+            Snappy.uncompress(input, offset, length, uncompressed, 0);
+        }
+        return Slices.wrappedBuffer(uncompressed);
+    }
+
     protected int uncompressedLength(ByteBuffer data)
             throws IOException
     {
@@ -138,11 +345,19 @@ public abstract class Table
         sb.append("Table");
         sb.append("{name='").append(name).append('\'');
         sb.append(", comparator=").append(comparator);
-        sb.append(", verifyChecksums=").append(verifyChecksums);
+        sb.append(", checksumMode=").append(checksumMode);
         sb.append('}');
         return sb.toString();
     }
 
+    /**
+     * @return 文件映射到内存的字节数，不使用mmap时为0
+     */
+    public long mappedSize()
+    {
+        return 0;
+    }
+
     public Callable<?> closer()
     {
         return new Closer(fileChannel);
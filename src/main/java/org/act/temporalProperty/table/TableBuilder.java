@@ -23,12 +23,17 @@ import com.google.common.base.Throwables;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.act.temporalProperty.impl.CompressionType;
 import org.act.temporalProperty.impl.InternalKey;
 import org.act.temporalProperty.impl.Options;
 import org.act.temporalProperty.query.aggr.AggregationIndexKey;
-import org.act.temporalProperty.util.PureJavaCrc32C;
+import org.act.temporalProperty.util.Crc32C;
+import org.act.temporalProperty.util.Deflate;
+import org.act.temporalProperty.util.IoRateLimiter;
 import org.act.temporalProperty.util.Slice;
 import org.act.temporalProperty.util.Slices;
 import org.act.temporalProperty.util.Snappy;
@@ -53,14 +58,26 @@ public class TableBuilder
     
     private static final int TARGET_FILE_SIZE = 2097152;
 
+    // meta block of the DEFLATE preset dictionary, see Options.compressionDictionary
+    public static final Slice DICTIONARY_META_KEY = Slices.copiedBuffer("compression.dictionary", StandardCharsets.UTF_8);
+    // present if data blocks are TemporalBlock, see Options.temporalBlockFormat. the value is the format version.
+    public static final Slice TEMPORAL_FORMAT_META_KEY = Slices.copiedBuffer("format.temporal", StandardCharsets.UTF_8);
+
     private final int blockRestartInterval;
     private final int blockSize;
     private final int blockDataSize;
     private final CompressionType compressionType;
+    private final long syncInterval;
+    private final boolean syncMetadata;
 
     private final FileChannel fileChannel;
     private final BlockBuilder dataBlockBuilder;
+    private final boolean temporalBlocks;
     private final BlockBuilder indexBlockBuilder;
+    private final FilterBlock.Builder filterBuilder; // null if not enabled
+    private final TableStats.Builder statsBuilder; // null if not enabled
+    private final boolean useDictionary;
+    private byte[] dictionary; // the first data block, set when it is written
     private Slice lastKey;
     private final UserComparator userComparator;
 
@@ -83,6 +100,7 @@ public class TableBuilder
     private Slice compressedOutput;
 
     private long position;
+    private long syncedPosition;
     
     private float blankratio;
 
@@ -105,12 +123,23 @@ public class TableBuilder
         this.blankratio = options.blockEmptyRatio();
         blockDataSize = (int)(blockSize*options.blockEmptyRatio());
         compressionType = options.compressionType();
+        useDictionary = compressionType == CompressionType.DEFLATE && options.compressionDictionary();
+        syncInterval = options.syncInterval();
+        syncMetadata = options.syncMetadata();
 
-        dataBlockBuilder = new BlockBuilder((int) Math.min((int)(blockSize*1.11) , TARGET_FILE_SIZE), blockRestartInterval, userComparator);
+        temporalBlocks = options.temporalBlockFormat();
+        if (temporalBlocks) {
+            dataBlockBuilder = new TemporalBlockBuilder(Math.min((int)(blockSize*1.11), TARGET_FILE_SIZE), userComparator);
+        }
+        else {
+            dataBlockBuilder = new BlockBuilder((int) Math.min((int)(blockSize*1.11) , TARGET_FILE_SIZE), blockRestartInterval, userComparator);
+        }
 
 //        // with expected 50% compression
 //        int expectedNumberOfBlocks = 1024;
         indexBlockBuilder = new BlockBuilder(blockSize, 1, userComparator);
+        filterBuilder = options.filterBitsPerKey() > 0 ? new FilterBlock.Builder(options.filterBitsPerKey()) : null;
+        statsBuilder = options.tableStats() ? new TableStats.Builder() : null;
 
         lastKey = Slices.EMPTY_SLICE;
     }
@@ -159,6 +188,16 @@ public class TableBuilder
             pendingIndexEntry = false;
         }
 
+        if (filterBuilder != null || statsBuilder != null) {
+            boolean newId = entryCount == 0 || !sameEntity(key, lastKey);
+            if (filterBuilder != null && newId) {
+                filterBuilder.add(InternalKey.propertyIdOf(key), InternalKey.entityIdOf(key));
+            }
+            if (statsBuilder != null) {
+                statsBuilder.add(key, newId);
+            }
+        }
+
         lastKey = key;
         entryCount++;
         dataBlockBuilder.add(key, value);
@@ -169,6 +208,11 @@ public class TableBuilder
         }
     }
 
+    private static boolean sameEntity(Slice key, Slice lastKey)
+    {
+        return InternalKey.propertyIdOf(key) == InternalKey.propertyIdOf(lastKey) && InternalKey.entityIdOf(key) == InternalKey.entityIdOf(lastKey);
+    }
+
     private void flush()
             throws IOException
     {
@@ -179,11 +223,17 @@ public class TableBuilder
 
         Preconditions.checkState(!pendingIndexEntry, "Internal error: Table already has a pending index entry to flush");
 
-        pendingHandle = writeBlock(dataBlockBuilder);
+        pendingHandle = writeBlock(dataBlockBuilder, true);
         pendingIndexEntry = true;
+        if (statsBuilder != null) {
+            statsBuilder.finishBlock();
+        }
     }
 
-    private BlockHandle writeBlock(BlockBuilder blockBuilder)
+    /**
+     * @param isDataBlock 只有数据块使用压缩字典，因为Table打开文件时先读取index block和meta index block，再读取字典
+     */
+    private BlockHandle writeBlock(BlockBuilder blockBuilder, boolean isDataBlock)
             throws IOException
     {
         // close the block
@@ -193,18 +243,40 @@ public class TableBuilder
         //Preconditions.checkArgument( raw.length() >= blockSize, "datablock not equal to blocksize" );
         //Preconditions.checkArgument( blockBuilder.currentSizeEstimate() <= raw.length(),"datablock's data size shold smaller than block size" );
 
+        BlockHandle blockHandle = writeBlock(raw, isDataBlock);
+        // clean up state
+        blockBuilder.reset();
+
+        return blockHandle;
+    }
+
+    private BlockHandle writeBlock(Slice raw, boolean isDataBlock)
+            throws IOException
+    {
         // attempt to compress the block
         Slice blockContents = raw;
         CompressionType blockCompressionType = CompressionType.NONE;
-        if (compressionType == CompressionType.SNAPPY) {
-            ensureCompressedOutputCapacity(maxCompressedLength(raw.length()));
+        if (compressionType != CompressionType.NONE) {
             try {
-                int compressedSize = Snappy.compress(raw.getRawArray(), raw.getRawOffset(), raw.length(), compressedOutput.getRawArray(), 0);
+                int compressedSize;
+                if (compressionType == CompressionType.DEFLATE) {
+                    if (isDataBlock && useDictionary && dictionary == null) {
+                        // the first data block is the dictionary of the whole file, so it is compressed to almost nothing.
+                        int length = Math.min(raw.length(), Deflate.MAX_DICTIONARY_SIZE);
+                        dictionary = raw.copySlice(raw.length() - length, length).getBytes();
+                    }
+                    ensureCompressedOutputCapacity(Deflate.maxCompressedLength(raw.length()));
+                    compressedSize = Deflate.compress(raw.getRawArray(), raw.getRawOffset(), raw.length(), isDataBlock ? dictionary : null, compressedOutput.getRawArray(), 0);
+                }
+                else {
+                    ensureCompressedOutputCapacity(maxCompressedLength(raw.length()));
+                    compressedSize = Snappy.compress(raw.getRawArray(), raw.getRawOffset(), raw.length(), compressedOutput.getRawArray(), 0);
+                }
 
                 // Don't use the compressed data if compressed less than 12.5%,
                 if (compressedSize < raw.length() - (raw.length() / 8)) {
                     blockContents = compressedOutput.slice(0, compressedSize);
-                    blockCompressionType = CompressionType.SNAPPY;
+                    blockCompressionType = compressionType;
                 }
             }
             catch (IOException ignored) {
@@ -212,6 +284,12 @@ public class TableBuilder
             }
         }
 
+        return writeRawBlock(blockContents, blockCompressionType);
+    }
+
+    private BlockHandle writeRawBlock(Slice blockContents, CompressionType blockCompressionType)
+            throws IOException
+    {
         // create block trailer
         BlockTrailer blockTrailer = new BlockTrailer(blockCompressionType, crc32c(blockContents, blockCompressionType));
         Slice trailer = BlockTrailer.writeBlockTrailer(blockTrailer);
@@ -220,11 +298,13 @@ public class TableBuilder
         BlockHandle blockHandle = new BlockHandle(position, blockContents.length());
 
         // write data and trailer
+        IoRateLimiter.current().acquireWrite(blockContents.length() + BlockTrailer.ENCODED_LENGTH);
         position += fileChannel.write(new ByteBuffer[] {blockContents.toByteBuffer(), trailer.toByteBuffer()});
-        //this.fileChannel.force( false );
-        // clean up state
-        blockBuilder.reset();
-
+        if (syncInterval > 0 && position - syncedPosition >= syncInterval) {
+            // write back dirty pages little by little, so the final force in finish() is short.
+            fileChannel.force(false);
+            syncedPosition = position;
+        }
         return blockHandle;
     }
 
@@ -264,10 +344,29 @@ public class TableBuilder
         // mark table as closed
         closed = true;
 
-        //FIXME write (empty) meta index block
-        BlockBuilder metaIndexBlockBuilder = new BlockBuilder(blockSize, blockRestartInterval, new BytewiseComparator());
-        // TODO(postrelease): Add stats and other meta blocks
-        BlockHandle metaindexBlockHandle = writeBlock(metaIndexBlockBuilder);
+        // write meta blocks and meta index block, entries of the meta index block must be sorted.
+        BytewiseComparator metaComparator = new BytewiseComparator();
+        Map<Slice, Slice> metaIndex = new TreeMap<>(metaComparator);
+        if (filterBuilder != null) {
+            BlockHandle filterHandle = writeRawBlock(filterBuilder.finish(), CompressionType.NONE);
+            metaIndex.put(FilterBlock.META_KEY, BlockHandle.writeBlockHandle(filterHandle));
+        }
+        if (dictionary != null) {
+            BlockHandle dictionaryHandle = writeBlock(Slices.wrappedBuffer(dictionary), false);
+            metaIndex.put(DICTIONARY_META_KEY, BlockHandle.writeBlockHandle(dictionaryHandle));
+        }
+        if (temporalBlocks) {
+            metaIndex.put(TEMPORAL_FORMAT_META_KEY, Slices.wrappedBuffer(new byte[]{1}));
+        }
+        if (statsBuilder != null) {
+            BlockHandle statsHandle = writeBlock(statsBuilder.finish(), false);
+            metaIndex.put(TableStats.META_KEY, BlockHandle.writeBlockHandle(statsHandle));
+        }
+        BlockBuilder metaIndexBlockBuilder = new BlockBuilder(blockSize, blockRestartInterval, metaComparator);
+        for (Map.Entry<Slice, Slice> entry : metaIndex.entrySet()) {
+            metaIndexBlockBuilder.add(entry.getKey(), entry.getValue());
+        }
+        BlockHandle metaindexBlockHandle = writeBlock(metaIndexBlockBuilder, false);
 
         // add last handle to index block
         if (pendingIndexEntry) {
@@ -278,13 +377,14 @@ public class TableBuilder
         }
 
         // write index block
-        BlockHandle indexBlockHandle = writeBlock(indexBlockBuilder);
+        BlockHandle indexBlockHandle = writeBlock(indexBlockBuilder, false);
 
         // write footer
         Footer footer = new Footer(metaindexBlockHandle, indexBlockHandle);
         Slice footerEncoding = Footer.writeFooter(footer);
+        IoRateLimiter.current().acquireWrite(footerEncoding.length());
         position += fileChannel.write(footerEncoding.toByteBuffer());
-        this.fileChannel.force( true );
+        this.fileChannel.force( syncMetadata );
     }
 
     public void abandon()
@@ -295,10 +395,7 @@ public class TableBuilder
 
     public static int crc32c(Slice data, CompressionType type)
     {
-        PureJavaCrc32C crc32c = new PureJavaCrc32C();
-        crc32c.update(data.getRawArray(), data.getRawOffset(), data.length());
-        crc32c.update(type.persistentId() & 0xFF);
-        return crc32c.getMaskedValue();
+        return Crc32C.maskedValue(data.toByteBuffer(), type.persistentId() & 0xFF);
     }
 
     public void ensureCompressedOutputCapacity(int capacity)
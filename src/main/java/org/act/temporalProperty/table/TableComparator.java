@@ -18,9 +18,20 @@ public class TableComparator implements UserComparator
         this.userComparator = c;
     }
     
+    /**
+     * 直接比较编码后的InternalKey，不需要解码（不分配对象），见InternalKey.encode
+     */
     public static synchronized TableComparator instance()
     {
-        return new TableComparator(Comparator.comparing(InternalKey::decode));
+        return new TableComparator(InternalKey::compareEncoded);
+    }
+
+    /**
+     * TemporalPropertyStore.Version 3之前的文件使用的比较器（需要解码），只在升级旧文件时使用
+     */
+    public static synchronized TableComparator legacy()
+    {
+        return new TableComparator(Comparator.comparing(InternalKey::decodeV2));
     }
 
     public static synchronized TableComparator forAggrIndex()
@@ -0,0 +1,41 @@
+package org.act.temporalProperty.table;
+
+/**
+ * 打开Table时解码的index block和meta block（filter、压缩字典、统计信息），都在堆上，与文件映射无关，可以被同一文件的多个Table对象共享。
+ * 缓存在BlockCache的meta层中（见BlockCache.getMeta），TableCache淘汰后重新打开文件时不用再读取和解码。
+ */
+class TableMeta
+{
+    // rough heap cost of the objects besides the block data.
+    private static final int OVERHEAD = 256;
+
+    final IndexBlock indexBlock;
+    final FilterBlock filter; // null if the table has no filter
+    final byte[] dictionary; // null if the table is not compressed with a dictionary
+    final boolean temporalBlocks;
+    final TableStats stats; // null if the table has no stats
+
+    TableMeta(IndexBlock indexBlock, FilterBlock filter, byte[] dictionary, boolean temporalBlocks, TableStats stats)
+    {
+        this.indexBlock = indexBlock;
+        this.filter = filter;
+        this.dictionary = dictionary;
+        this.temporalBlocks = temporalBlocks;
+        this.stats = stats;
+    }
+
+    long memorySize()
+    {
+        long size = OVERHEAD + indexBlock.size();
+        if (filter != null) {
+            size += filter.size();
+        }
+        if (dictionary != null) {
+            size += dictionary.length;
+        }
+        if (stats != null) {
+            size += stats.memorySize();
+        }
+        return size;
+    }
+}
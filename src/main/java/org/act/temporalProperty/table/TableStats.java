@@ -0,0 +1,210 @@
+package org.act.temporalProperty.table;
+
+import com.google.common.base.Preconditions;
+import org.act.temporalProperty.impl.InternalKey;
+import org.act.temporalProperty.impl.ValueType;
+import org.act.temporalProperty.index.value.cardinality.HyperLogLog;
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.util.DynamicSliceOutput;
+import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.util.SliceInput;
+import org.act.temporalProperty.util.Slices;
+import org.act.temporalProperty.util.VariableLengthQuantity;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 文件的统计信息，每个Table一个，由TableBuilder在写文件时生成，记录在meta index block中（key为META_KEY），只用于key为InternalKey的文件。
+ * 查询和合并时不用扫描文件即可按时间剪枝、估算代价。
+ * 格式（均为varint）：|entryCount|minEntityId|maxEntityId|各ValueType的记录数(8个)|数据块个数|每个数据块的最小、最大时间|HyperLogLog|
+ * 时间为InternalKey中编码后的时间（见InternalKey.encodeTime）。
+ */
+public class TableStats
+{
+    public static final Slice META_KEY = Slices.copiedBuffer( "stats", StandardCharsets.UTF_8 );
+
+    // 1024 registers, standard error about 3%.
+    private static final int HLL_LOG2M = 10;
+
+    private final long entryCount;
+    private final long minEntityId;
+    private final long maxEntityId;
+    private final long[] typeCounts;
+    private final long[] blockTimes; // min and max time of each data block
+    private final HyperLogLog distinctIds;
+
+    private TableStats( long entryCount, long minEntityId, long maxEntityId, long[] typeCounts, long[] blockTimes, HyperLogLog distinctIds )
+    {
+        this.entryCount = entryCount;
+        this.minEntityId = minEntityId;
+        this.maxEntityId = maxEntityId;
+        this.typeCounts = typeCounts;
+        this.blockTimes = blockTimes;
+        this.distinctIds = distinctIds;
+    }
+
+    public static TableStats decode( Slice data )
+    {
+        SliceInput in = data.input();
+        long entryCount = VariableLengthQuantity.readVariableLengthLong( in );
+        long minEntityId = VariableLengthQuantity.readVariableLengthLong( in );
+        long maxEntityId = VariableLengthQuantity.readVariableLengthLong( in );
+        long[] typeCounts = new long[8];
+        for ( int i = 0; i < typeCounts.length; i++ ) typeCounts[i] = VariableLengthQuantity.readVariableLengthLong( in );
+        long[] blockTimes = new long[VariableLengthQuantity.readVariableLengthInt( in ) * 2];
+        for ( int i = 0; i < blockTimes.length; i++ ) blockTimes[i] = VariableLengthQuantity.readVariableLengthLong( in );
+        return new TableStats( entryCount, minEntityId, maxEntityId, typeCounts, blockTimes, HyperLogLog.decode( in ) );
+    }
+
+    public long entryCount()
+    {
+        return entryCount;
+    }
+
+    /**
+     * 文件为空时minEntityId大于maxEntityId
+     */
+    public long minEntityId()
+    {
+        return minEntityId;
+    }
+
+    public long maxEntityId()
+    {
+        return maxEntityId;
+    }
+
+    /**
+     * @return 文件中不同EntityPropertyId个数的估计值
+     */
+    public long distinctIds()
+    {
+        return distinctIds.cardinality();
+    }
+
+    public HyperLogLog distinctIdEstimator()
+    {
+        return distinctIds;
+    }
+
+    public long count( ValueType type )
+    {
+        return typeCounts[type.getPersistentId()];
+    }
+
+    public int blockCount()
+    {
+        return blockTimes.length / 2;
+    }
+
+    public TimePointL blockMinTime( int block )
+    {
+        return InternalKey.decodeTime( blockTimes[block * 2] );
+    }
+
+    public TimePointL blockMaxTime( int block )
+    {
+        return InternalKey.decodeTime( blockTimes[block * 2 + 1] );
+    }
+
+    public TimePointL minTime()
+    {
+        long min = Long.MAX_VALUE;
+        for ( int i = 0; i < blockTimes.length; i += 2 ) min = Math.min( min, blockTimes[i] );
+        return blockTimes.length == 0 ? TimePointL.Now : InternalKey.decodeTime( min );
+    }
+
+    public TimePointL maxTime()
+    {
+        long max = 0;
+        for ( int i = 1; i < blockTimes.length; i += 2 ) max = Math.max( max, blockTimes[i] );
+        return InternalKey.decodeTime( max );
+    }
+
+    /**
+     * @return 文件中有没有记录的起始时间在[start, end]内，返回false时一定没有
+     */
+    public boolean mayOverlap( TimePointL start, TimePointL end )
+    {
+        long s = InternalKey.encodeTime( start );
+        long e = InternalKey.encodeTime( end );
+        for ( int i = 0; i < blockTimes.length; i += 2 )
+        {
+            if ( blockTimes[i] <= e && blockTimes[i + 1] >= s ) return true;
+        }
+        return false;
+    }
+
+    // approximate heap bytes, see TableMeta.memorySize
+    long memorySize()
+    {
+        return 64 + ( typeCounts.length + blockTimes.length ) * 8 + distinctIds.sizeof();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TableStats{entries=" + entryCount + ", entity=[" + minEntityId + ", " + maxEntityId + "], distinctIds~" + distinctIds() +
+                ", types=" + Arrays.toString( typeCounts ) + ", blocks=" + blockCount() + "}";
+    }
+
+    public static class Builder
+    {
+        private long entryCount;
+        private long minEntityId = Long.MAX_VALUE;
+        private long maxEntityId = Long.MIN_VALUE;
+        private final long[] typeCounts = new long[8];
+        private long[] blockTimes = new long[64];
+        private int blockCount;
+        private long blockMin = Long.MAX_VALUE;
+        private long blockMax = 0;
+        private final HyperLogLog distinctIds = new HyperLogLog( HLL_LOG2M );
+
+        /**
+         * @param newId key的EntityPropertyId与上一个key不同
+         */
+        public void add( Slice key, boolean newId )
+        {
+            Preconditions.checkArgument( key.length() == InternalKey.ENCODED_LENGTH, "key is not an encoded InternalKey, length %s", key.length() );
+            long entityId = InternalKey.entityIdOf( key );
+            if ( newId )
+            {
+                distinctIds.offer( entityId * 0x9E3779B97F4A7C15L + InternalKey.propertyIdOf( key ) );
+                minEntityId = Math.min( minEntityId, entityId );
+                maxEntityId = Math.max( maxEntityId, entityId );
+            }
+            long timeField = InternalKey.timeFieldOf( key );
+            typeCounts[(int) (timeField & 7)]++;
+            blockMin = Math.min( blockMin, timeField >>> 3 );
+            blockMax = Math.max( blockMax, timeField >>> 3 );
+            entryCount++;
+        }
+
+        // called after the keys of a data block are added.
+        public void finishBlock()
+        {
+            if ( blockMin > blockMax ) return;
+            if ( blockCount * 2 == blockTimes.length ) blockTimes = Arrays.copyOf( blockTimes, blockTimes.length * 2 );
+            blockTimes[blockCount * 2] = blockMin;
+            blockTimes[blockCount * 2 + 1] = blockMax;
+            blockCount++;
+            blockMin = Long.MAX_VALUE;
+            blockMax = 0;
+        }
+
+        public Slice finish()
+        {
+            finishBlock();
+            DynamicSliceOutput out = new DynamicSliceOutput( 64 + blockCount * 8 + distinctIds.sizeof() );
+            VariableLengthQuantity.writeVariableLengthLong( entryCount, out );
+            VariableLengthQuantity.writeVariableLengthLong( minEntityId, out );
+            VariableLengthQuantity.writeVariableLengthLong( maxEntityId, out );
+            for ( long count : typeCounts ) VariableLengthQuantity.writeVariableLengthLong( count, out );
+            VariableLengthQuantity.writeVariableLengthInt( blockCount, out );
+            for ( int i = 0; i < blockCount * 2; i++ ) VariableLengthQuantity.writeVariableLengthLong( blockTimes[i], out );
+            distinctIds.encode( out );
+            return out.slice();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.act.temporalProperty.table;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+import org.act.temporalProperty.util.Slice;
+
+/**
+ * 按时序编码的数据块（格式见TemporalBlockBuilder），结尾的restart positions与Block相同，每个run是一个restart point。
+ * 由Table在文件的meta index block中有TableBuilder.TEMPORAL_FORMAT_META_KEY时生成。
+ */
+public class TemporalBlock
+        extends Block
+{
+    public TemporalBlock(Slice block, Comparator<Slice> comparator)
+    {
+        super(block, comparator);
+    }
+
+    public TemporalBlock(ByteBuffer block, Comparator<Slice> comparator, Object owner)
+    {
+        super(block, comparator, owner);
+    }
+
+    @Override
+    public BlockIterator iterator()
+    {
+        return new TemporalBlockIterator(data, restartPositions, comparator, owner);
+    }
+}
@@ -0,0 +1,234 @@
+package org.act.temporalProperty.table;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Comparator;
+
+import org.act.temporalProperty.impl.InternalKey;
+import org.act.temporalProperty.impl.ValueType;
+import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.util.VariableLengthQuantity;
+
+import static org.act.temporalProperty.util.SizeOf.SIZE_OF_INT;
+
+/**
+ * StableFile使用的按时序编码的数据块（见Options.temporalBlockFormat），key必须是编码后的InternalKey。
+ * 同一个EntityPropertyId的连续记录（最多MAX_RUN_LENGTH条）编码为一个run，每个run是一个restart point:
+ * |propertyId|entityId|count|flags|packed value types|times|values|
+ * propertyId和entityId只存一次（varint）；
+ * flags低3位是所有记录相同的ValueType，MIXED置位时每条记录的ValueType以3bit紧密排列在其后；
+ * times是delta-of-delta编码（第一个存时间，第二个存差值，之后存差值的差值，zigzag varint），定时采样的数据每条只占1字节；
+ * values在TYPED置位时按ValueType编码：INT/LONG存与上一个值之差（zigzag varint），FLOAT/DOUBLE存与上一个值的XOR（见writeXor），
+ * 其余类型（及TYPED未置位时所有记录）存长度和原始字节。
+ * 数据块结尾的restart positions和长度与Block相同，解码见TemporalBlockIterator。
+ */
+public class TemporalBlockBuilder extends BlockBuilder
+{
+    public static final int MAX_RUN_LENGTH = 64;
+    static final int MIXED = 0x08;
+    static final int TYPED = 0x10;
+
+    private final long[] timeFields = new long[MAX_RUN_LENGTH];
+    private final Slice[] values = new Slice[MAX_RUN_LENGTH];
+    private int runLength;
+    private int runBytes;
+
+    public TemporalBlockBuilder(int estimatedSize, Comparator<Slice> comparator)
+    {
+        super(estimatedSize, MAX_RUN_LENGTH, comparator);
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        runLength = 0;
+        runBytes = 0;
+    }
+
+    @Override
+    public int currentSizeEstimate()
+    {
+        if (finished) {
+            return block.size();
+        }
+        // the buffered run is counted as its raw values, the encoded size is smaller.
+        return block.size() + runBytes + (restartPositions.size() + 1) * SIZE_OF_INT + SIZE_OF_INT + SIZE_OF_INT;
+    }
+
+    @Override
+    public void add(Slice key, Slice value)
+    {
+        Preconditions.checkNotNull(key, "key is null");
+        Preconditions.checkNotNull(value, "value is null");
+        Preconditions.checkState(!finished, "block is finished");
+        Preconditions.checkArgument(key.length() == InternalKey.ENCODED_LENGTH, "key is not an encoded InternalKey, length %s", key.length());
+        Preconditions.checkArgument(lastKey == null || comparator.compare(key, lastKey) >= 0, "key %s must be greater than last key %s", key, lastKey);
+
+        if (runLength == MAX_RUN_LENGTH || (runLength > 0 && !sameId(key, lastKey))) {
+            flushRun();
+        }
+        timeFields[runLength] = InternalKey.timeFieldOf(key);
+        values[runLength] = value;
+        runLength++;
+        runBytes += value.length() + 2;
+
+        lastKey = key;
+        entryCount++;
+    }
+
+    @Override
+    public Slice finish()
+    {
+        if (!finished && runLength > 0) {
+            flushRun();
+        }
+        return super.finish();
+    }
+
+    private static boolean sameId(Slice key, Slice lastKey)
+    {
+        return InternalKey.entityIdOf(key) == InternalKey.entityIdOf(lastKey) && InternalKey.propertyIdOf(key) == InternalKey.propertyIdOf(lastKey);
+    }
+
+    private void flushRun()
+    {
+        // the first restart point (0) is added by BlockBuilder, so run i is restart point i.
+        if (block.size() > 0) {
+            restartPositions.add(block.size());
+        }
+        VariableLengthQuantity.writeVariableLengthInt(InternalKey.propertyIdOf(lastKey), block);
+        VariableLengthQuantity.writeVariableLengthLong(InternalKey.entityIdOf(lastKey), block);
+        VariableLengthQuantity.writeVariableLengthInt(runLength, block);
+
+        int type = typeOf(0);
+        boolean mixed = false;
+        boolean typed = true;
+        for (int i = 0; i < runLength; i++) {
+            mixed |= typeOf(i) != type;
+            int length = fixedLength(ValueType.getValueTypeByPersistentId(typeOf(i)));
+            typed &= length <= 0 || length == values[i].length();
+        }
+        block.writeByte((mixed ? MIXED : type) | (typed ? TYPED : 0));
+        if (mixed) {
+            // 3 bits per entry, little endian
+            int bits = 0;
+            int bitCount = 0;
+            for (int i = 0; i < runLength; i++) {
+                bits |= typeOf(i) << bitCount;
+                bitCount += 3;
+                if (bitCount >= 8) {
+                    block.writeByte(bits & 0xFF);
+                    bits >>>= 8;
+                    bitCount -= 8;
+                }
+            }
+            if (bitCount > 0) {
+                block.writeByte(bits & 0xFF);
+            }
+        }
+
+        long prevTime = 0;
+        long prevDelta = 0;
+        for (int i = 0; i < runLength; i++) {
+            long time = timeFields[i] >>> 3;
+            if (i == 0) {
+                VariableLengthQuantity.writeVariableLengthLong(time, block);
+            }
+            else {
+                long delta = time - prevTime;
+                VariableLengthQuantity.writeVariableLengthLong(zigzag(delta - prevDelta), block);
+                prevDelta = delta;
+            }
+            prevTime = time;
+        }
+
+        long prev = 0;
+        for (int i = 0; i < runLength; i++) {
+            prev = writeValue(ValueType.getValueTypeByPersistentId(typeOf(i)), values[i], typed, prev);
+            values[i] = null;
+        }
+        runLength = 0;
+        runBytes = 0;
+    }
+
+    private int typeOf(int i)
+    {
+        return (int) (timeFields[i] & 7);
+    }
+
+    // returns the bits of this value which the next value is encoded against.
+    private long writeValue(ValueType type, Slice value, boolean typed, long prev)
+    {
+        if (typed) {
+            switch (type) {
+                case INT: {
+                    int v = value.getInt(0);
+                    VariableLengthQuantity.writeVariableLengthInt(zigzag(v - (int) prev), block);
+                    return v;
+                }
+                case LONG: {
+                    long v = value.getLong(0);
+                    VariableLengthQuantity.writeVariableLengthLong(zigzag(v - prev), block);
+                    return v;
+                }
+                case FLOAT: {
+                    long v = value.getInt(0) & 0xFFFF_FFFFL;
+                    writeXor(v ^ (prev & 0xFFFF_FFFFL));
+                    return v;
+                }
+                case DOUBLE: {
+                    long v = value.getLong(0);
+                    writeXor(v ^ prev);
+                    return v;
+                }
+                default:
+            }
+        }
+        VariableLengthQuantity.writeVariableLengthInt(value.length(), block);
+        block.writeBytes(value, 0, value.length());
+        return prev;
+    }
+
+    /**
+     * 类似Gorilla的XOR编码，按字节对齐：相同的值存1字节0，否则存|末尾全0的字节数(4bit)|中间字节数(4bit)|中间字节|
+     */
+    private void writeXor(long xor)
+    {
+        if (xor == 0) {
+            block.writeByte(0);
+            return;
+        }
+        int trailing = Long.numberOfTrailingZeros(xor) / 8;
+        int length = 8 - trailing - Long.numberOfLeadingZeros(xor) / 8;
+        block.writeByte((trailing << 4) | length);
+        for (int i = 0; i < length; i++) {
+            block.writeByte((int) (xor >>> ((trailing + i) * 8)) & 0xFF);
+        }
+    }
+
+    // <=0 for variable length types.
+    static int fixedLength(ValueType type)
+    {
+        switch (type) {
+            case INT:
+            case FLOAT:
+                return 4;
+            case LONG:
+            case DOUBLE:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    static int zigzag(int v)
+    {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    static long zigzag(long v)
+    {
+        return (v << 1) ^ (v >> 63);
+    }
+}
@@ -0,0 +1,230 @@
+package org.act.temporalProperty.table;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+import org.act.temporalProperty.impl.InternalKey;
+import org.act.temporalProperty.impl.ValueType;
+import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.util.VariableLengthQuantity;
+
+import static org.act.temporalProperty.table.TemporalBlockBuilder.MIXED;
+import static org.act.temporalProperty.table.TemporalBlockBuilder.TYPED;
+import static org.act.temporalProperty.util.SizeOf.SIZE_OF_INT;
+
+/**
+ * TemporalBlock的Iterator（格式见TemporalBlockBuilder），按需解码：
+ * 进入一个run时只解码run头和时间列（最多MAX_RUN_LENGTH个varint），key和value在遍历到时才生成。
+ * seek时二分查找run（只解码每个run的第一条记录），再在run内顺序查找，语义与BlockIterator相同（找最后一个小于等于targetKey的记录）。
+ *
+ * 注意：父类构造函数会调用seekToFirst，此时本类的字段还未初始化，所以字段都不能有初始值。
+ */
+public class TemporalBlockIterator extends BlockIterator
+{
+    private int run; // run of nextEntry
+    private int next; // index of the entry after nextEntry in the run
+    private int runLength;
+    private int propertyId;
+    private long entityId;
+    private int flags;
+    private long[] times;
+    private byte[] types;
+    private long prevValue;
+
+    public TemporalBlockIterator(ByteBuffer data, Slice restartPositions, Comparator<Slice> comparator, Object owner)
+    {
+        super(data, restartPositions, comparator, owner);
+    }
+
+    @Override
+    public BlockEntry next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        BlockEntry entry = nextEntry;
+        nextEntry = next < runLength || data.hasRemaining() ? readEntry() : null;
+        return entry;
+    }
+
+    @Override
+    public void seekToFirst()
+    {
+        if (restartCount > 0) {
+            seekToRestartPosition(0);
+        }
+        else {
+            nextEntry = null;
+        }
+    }
+
+    @Override
+    public void seek(Slice targetKey)
+    {
+        if (restartCount == 0) {
+            nextEntry = null;
+            return;
+        }
+
+        int left = 0;
+        int right = restartCount - 1;
+        // binary search runs to find the run immediately before the targetKey
+        while (left < right) {
+            int mid = (left + right + 1) / 2;
+            seekToRestartPosition(mid);
+            if (comparator.compare(nextEntry.getKey(), targetKey) < 0) {
+                left = mid;
+            }
+            else {
+                right = mid - 1;
+            }
+        }
+
+        // find the last entry less than or equal to targetKey, then decode to it again.
+        seekToRestartPosition(left);
+        int floorRun = -1;
+        int floorIndex = 0;
+        while (nextEntry != null && comparator.compare(nextEntry.getKey(), targetKey) <= 0) {
+            floorRun = run;
+            floorIndex = next - 1;
+            next();
+        }
+        if (floorRun < 0) {
+            // all entries are greater than targetKey, same as BlockIterator.
+            seekToRestartPosition(left);
+            return;
+        }
+        seekToRestartPosition(floorRun);
+        for (int i = 0; i < floorIndex; i++) {
+            next();
+        }
+    }
+
+    @Override
+    protected void seekToRestartPosition(int restartPosition)
+    {
+        data.position(restartPositions.getInt(restartPosition * SIZE_OF_INT));
+        readRunHeader(restartPosition);
+        nextEntry = readEntry();
+    }
+
+    private void readRunHeader(int runIndex)
+    {
+        run = runIndex;
+        next = 0;
+        prevValue = 0;
+        propertyId = VariableLengthQuantity.readVariableLengthInt(data);
+        entityId = VariableLengthQuantity.readVariableLengthLong(data);
+        runLength = VariableLengthQuantity.readVariableLengthInt(data);
+        flags = data.get() & 0xFF;
+        if (times == null) {
+            times = new long[TemporalBlockBuilder.MAX_RUN_LENGTH];
+            types = new byte[TemporalBlockBuilder.MAX_RUN_LENGTH];
+        }
+        if ((flags & MIXED) != 0) {
+            int bits = 0;
+            int bitCount = 0;
+            for (int i = 0; i < runLength; i++) {
+                if (bitCount < 3) {
+                    bits |= (data.get() & 0xFF) << bitCount;
+                    bitCount += 8;
+                }
+                types[i] = (byte) (bits & 7);
+                bits >>>= 3;
+                bitCount -= 3;
+            }
+        }
+        else {
+            for (int i = 0; i < runLength; i++) {
+                types[i] = (byte) (flags & 7);
+            }
+        }
+        long delta = 0;
+        for (int i = 0; i < runLength; i++) {
+            if (i == 0) {
+                times[0] = VariableLengthQuantity.readVariableLengthLong(data);
+            }
+            else {
+                delta += unzigzag(VariableLengthQuantity.readVariableLengthLong(data));
+                times[i] = times[i - 1] + delta;
+            }
+        }
+    }
+
+    private BlockEntry readEntry()
+    {
+        if (next == runLength) {
+            readRunHeader(run + 1);
+        }
+        int type = types[next];
+        Slice key = InternalKey.encode(propertyId, entityId, (times[next] << 3) | type);
+        Slice value = readValue(ValueType.getValueTypeByPersistentId(type));
+        next++;
+        return new BlockEntry(key, value);
+    }
+
+    private Slice readValue(ValueType type)
+    {
+        if ((flags & TYPED) != 0) {
+            switch (type) {
+                case INT: {
+                    int v = (int) prevValue + unzigzag(VariableLengthQuantity.readVariableLengthInt(data));
+                    Slice value = new Slice(4);
+                    value.setInt(0, v);
+                    prevValue = v;
+                    return value;
+                }
+                case LONG: {
+                    long v = prevValue + unzigzag(VariableLengthQuantity.readVariableLengthLong(data));
+                    Slice value = new Slice(8);
+                    value.setLong(0, v);
+                    prevValue = v;
+                    return value;
+                }
+                case FLOAT: {
+                    long v = readXor() ^ (prevValue & 0xFFFF_FFFFL);
+                    Slice value = new Slice(4);
+                    value.setInt(0, (int) v);
+                    prevValue = v;
+                    return value;
+                }
+                case DOUBLE: {
+                    long v = readXor() ^ prevValue;
+                    Slice value = new Slice(8);
+                    value.setLong(0, v);
+                    prevValue = v;
+                    return value;
+                }
+                default:
+            }
+        }
+        int length = VariableLengthQuantity.readVariableLengthInt(data);
+        return readSlice(data, length);
+    }
+
+    private long readXor()
+    {
+        int header = data.get() & 0xFF;
+        if (header == 0) {
+            return 0;
+        }
+        int trailing = header >>> 4;
+        int length = header & 0x0F;
+        long xor = 0;
+        for (int i = 0; i < length; i++) {
+            xor |= (long) (data.get() & 0xFF) << ((trailing + i) * 8);
+        }
+        return xor;
+    }
+
+    private static int unzigzag(int v)
+    {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static long unzigzag(long v)
+    {
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
@@ -0,0 +1,46 @@
+package org.act.temporalProperty.util;
+
+/**
+ * 标记当前线程正在做后台工作（合并、buffer合并、创建索引）。
+ * ChecksumMode.COMPACTION只在后台线程上校验数据块，Table.openBlock不把后台线程读到的数据块放入BlockCache。
+ *
+ * MergeProcess的线程在启动时调用mark()，一直是后台线程；
+ * 在前台线程上执行的后台任务（如BULK_MODE下写线程直接合并buffer）用enter()/exit()包住任务。
+ */
+public class BackgroundThread
+{
+    private static final ThreadLocal<Boolean> marked = ThreadLocal.withInitial( () -> false );
+
+    private BackgroundThread()
+    {
+    }
+
+    /**
+     * 把当前线程标记为后台线程，直到线程结束
+     */
+    public static void mark()
+    {
+        marked.set( true );
+    }
+
+    /**
+     * 开始在当前线程上执行后台任务
+     * @return 之前的标记，传给exit恢复
+     */
+    public static boolean enter()
+    {
+        boolean previous = marked.get();
+        marked.set( true );
+        return previous;
+    }
+
+    public static void exit( boolean previous )
+    {
+        marked.set( previous );
+    }
+
+    public static boolean isBackground()
+    {
+        return marked.get();
+    }
+}
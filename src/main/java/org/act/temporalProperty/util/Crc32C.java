@@ -0,0 +1,84 @@
+package org.act.temporalProperty.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * 计算数据块的CRC32C（与TableBuilder写入BlockTrailer的值相同，即mask过的值），直接读取ByteBuffer（包括MappedByteBuffer），不复制数据。
+ * 运行在Java 9以上时使用java.util.zip.CRC32C（有硬件指令加速），Java 8上使用PureJavaCrc32C。
+ * 项目按Java 8编译，所以通过MethodHandle调用CRC32C。
+ */
+public final class Crc32C
+{
+    private static final MethodHandle NEW_JDK_CRC32C;
+    private static final MethodHandle UPDATE_BUFFER;
+
+    static
+    {
+        MethodHandle constructor = null;
+        MethodHandle update = null;
+        try
+        {
+            Class<?> clazz = Class.forName( "java.util.zip.CRC32C" );
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            constructor = lookup.findConstructor( clazz, MethodType.methodType( void.class ) )
+                    .asType( MethodType.methodType( Checksum.class ) );
+            update = lookup.findVirtual( clazz, "update", MethodType.methodType( void.class, ByteBuffer.class ) )
+                    .asType( MethodType.methodType( void.class, Checksum.class, ByteBuffer.class ) );
+        }
+        catch ( ReflectiveOperationException | RuntimeException e )
+        {
+            constructor = null; // Java 8
+            update = null;
+        }
+        NEW_JDK_CRC32C = constructor;
+        UPDATE_BUFFER = update;
+    }
+
+    private Crc32C()
+    {
+    }
+
+    public static boolean isJdkCrc32C()
+    {
+        return NEW_JDK_CRC32C != null;
+    }
+
+    /**
+     * @param data 数据，从position到limit，position不变
+     * @param lastByte 接在数据后面参与计算的一个字节（块的压缩类型）
+     * @return mask过的crc值
+     */
+    public static int maskedValue( ByteBuffer data, int lastByte )
+    {
+        if ( NEW_JDK_CRC32C != null )
+        {
+            try
+            {
+                Checksum checksum = (Checksum) NEW_JDK_CRC32C.invokeExact();
+                UPDATE_BUFFER.invokeExact( checksum, data.duplicate() );
+                checksum.update( lastByte );
+                return PureJavaCrc32C.mask( (int) checksum.getValue() );
+            }
+            catch ( Throwable e )
+            {
+                throw new IllegalStateException( e );
+            }
+        }
+        return pureJavaMaskedValue( data, lastByte );
+    }
+
+    /**
+     * 总是使用PureJavaCrc32C，用于测试两种实现结果一致
+     */
+    static int pureJavaMaskedValue( ByteBuffer data, int lastByte )
+    {
+        PureJavaCrc32C checksum = new PureJavaCrc32C();
+        checksum.update( data );
+        checksum.update( lastByte );
+        return checksum.getMaskedValue();
+    }
+}
@@ -0,0 +1,91 @@
+package org.act.temporalProperty.util;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 用JDK的zlib（raw deflate）压缩数据块，压缩率比Snappy高、速度慢，适合冷的StableFile。
+ * 格式与Snappy相同，以varint的解压后长度开头（见Table.uncompressedLength），之后是raw deflate数据。
+ * 可以使用预设字典（见TableBuilder，每个文件的第一个数据块作为字典存在meta index block中），
+ * 每个数据块单独压缩，块很小（4KB），有字典时块之间的重复内容（时间序列的值、key的前缀）也能被压缩。
+ * Deflater/Inflater按线程复用。
+ */
+public final class Deflate
+{
+    // zlib window size, longer dictionaries are useless.
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int LEVEL = Integer.getInteger( "tgraph.deflate.level", 6 );
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial( () -> new Deflater( LEVEL, true ) );
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial( () -> new Inflater( true ) );
+
+    private Deflate()
+    {
+    }
+
+    public static int maxCompressedLength( int length )
+    {
+        // deflate stored blocks: 5 bytes per 16KB, plus the varint length.
+        return length + (length >> 12) + 5 * (length / 16384 + 1) + 16;
+    }
+
+    /**
+     * @param dictionary 预设字典，null表示不使用
+     * @param output 长度至少为maxCompressedLength(length)
+     * @return 压缩后的长度
+     */
+    public static int compress( byte[] input, int inputOffset, int length, byte[] dictionary, byte[] output, int outputOffset )
+    {
+        int pos = outputOffset;
+        int v = length;
+        while ( (v & ~0x7F) != 0 )
+        {
+            output[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        output[pos++] = (byte) v;
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if ( dictionary != null ) deflater.setDictionary( dictionary );
+        deflater.setInput( input, inputOffset, length );
+        deflater.finish();
+        while ( !deflater.finished() )
+        {
+            int n = deflater.deflate( output, pos, output.length - pos );
+            if ( n == 0 && !deflater.finished() ) throw new IllegalStateException( "output buffer too small" );
+            pos += n;
+        }
+        return pos - outputOffset;
+    }
+
+    /**
+     * @param input 不包含开头的varint长度
+     * @param output 长度必须等于解压后的长度
+     */
+    public static void uncompress( byte[] input, int inputOffset, int length, byte[] dictionary, byte[] output )
+            throws IOException
+    {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        if ( dictionary != null ) inflater.setDictionary( dictionary );
+        inflater.setInput( input, inputOffset, length );
+        try
+        {
+            int pos = 0;
+            while ( pos < output.length )
+            {
+                int n = inflater.inflate( output, pos, output.length - pos );
+                if ( n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()) ) break;
+                pos += n;
+            }
+            if ( pos != output.length ) throw new IOException( "corrupted deflate block: expect " + output.length + " bytes, got " + pos );
+        }
+        catch ( DataFormatException e )
+        {
+            throw new IOException( "corrupted deflate block", e );
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.act.temporalProperty.util;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 后台（合并、buffer合并、创建索引）读写磁盘的限速器，读和写各是一个令牌桶（最多积攒1秒的令牌）。
+ *
+ * 限速器绑定在后台线程上（见bind），TableBuilder、IndexTableWriter写文件和Table读数据块时通过current()获取，
+ * 前台线程（查询、BULK_MODE下的写线程）没有绑定，不限速。
+ * 速度可以在运行时调整，<=0表示不限速。有写线程因为合并跟不上而等待时（stallBegin/stallEnd之间）速度乘以boost。
+ */
+public class IoRateLimiter
+{
+    // returned by current() on threads without a limiter, shared by all of them so it can not be changed.
+    private static final IoRateLimiter UNLIMITED = new IoRateLimiter( 0, 0, 1 )
+    {
+        @Override public void acquireRead( long bytes ) {}
+        @Override public void acquireWrite( long bytes ) {}
+        @Override public void setReadRate( long bytesPerSec ) { throw new UnsupportedOperationException( "no limiter bound to this thread" ); }
+        @Override public void setWriteRate( long bytesPerSec ) { throw new UnsupportedOperationException( "no limiter bound to this thread" ); }
+        @Override public void setBoost( int boost ) { throw new UnsupportedOperationException( "no limiter bound to this thread" ); }
+        @Override public void stallBegin() {}
+        @Override public void stallEnd() {}
+    };
+    private static final ThreadLocal<IoRateLimiter> bound = new ThreadLocal<>();
+
+    private final Bucket read;
+    private final Bucket write;
+    private final AtomicInteger stalled = new AtomicInteger();
+    private volatile int boost;
+
+    /**
+     * @param readBytesPerSec 读速度上限，<=0不限速
+     * @param writeBytesPerSec 写速度上限，<=0不限速
+     * @param boost 有写线程等待合并时速度放大的倍数
+     */
+    public IoRateLimiter( long readBytesPerSec, long writeBytesPerSec, int boost )
+    {
+        this( readBytesPerSec, writeBytesPerSec, boost, Ticker.systemTicker() );
+    }
+
+    IoRateLimiter( long readBytesPerSec, long writeBytesPerSec, int boost, Ticker ticker )
+    {
+        this.read = new Bucket( readBytesPerSec, ticker );
+        this.write = new Bucket( writeBytesPerSec, ticker );
+        this.boost = Math.max( 1, boost );
+    }
+
+    /**
+     * 把限速器绑定到当前线程，之后该线程的后台IO都受其限制
+     */
+    public static void bind( IoRateLimiter limiter )
+    {
+        bound.set( limiter );
+    }
+
+    /**
+     * @return 当前线程绑定的限速器，没有绑定时返回一个不限速、不能修改的限速器
+     */
+    public static IoRateLimiter current()
+    {
+        IoRateLimiter limiter = bound.get();
+        return limiter == null ? UNLIMITED : limiter;
+    }
+
+    /**
+     * @return 当前线程是否是绑定了限速器的后台线程
+     */
+    public static boolean isBound()
+    {
+        return bound.get() != null;
+    }
+
+    public void acquireRead( long bytes )
+    {
+        park( reserveRead( bytes ) );
+    }
+
+    public void acquireWrite( long bytes )
+    {
+        park( reserveWrite( bytes ) );
+    }
+
+    // take the tokens and return the nanoseconds to wait for them.
+    long reserveRead( long bytes )
+    {
+        return read.reserve( bytes, stalled.get() > 0 ? boost : 1 );
+    }
+
+    long reserveWrite( long bytes )
+    {
+        return write.reserve( bytes, stalled.get() > 0 ? boost : 1 );
+    }
+
+    // the debt is paid by sleeping, later callers see the negative tokens and wait after us.
+    private static void park( long waitNanos )
+    {
+        if ( waitNanos > 0 ) LockSupport.parkNanos( waitNanos );
+    }
+
+    public void setReadRate( long bytesPerSec )
+    {
+        read.rate = bytesPerSec;
+    }
+
+    public void setWriteRate( long bytesPerSec )
+    {
+        write.rate = bytesPerSec;
+    }
+
+    public void setBoost( int boost )
+    {
+        this.boost = Math.max( 1, boost );
+    }
+
+    public long getReadRate()
+    {
+        return read.rate;
+    }
+
+    public long getWriteRate()
+    {
+        return write.rate;
+    }
+
+    // a writer begins to wait merge.
+    public void stallBegin()
+    {
+        stalled.incrementAndGet();
+    }
+
+    public void stallEnd()
+    {
+        stalled.decrementAndGet();
+    }
+
+    public boolean isBoosted()
+    {
+        return stalled.get() > 0;
+    }
+
+    private static class Bucket
+    {
+        private final Ticker ticker;
+        private volatile long rate;
+        private double tokens;
+        private long lastRefill;
+
+        Bucket( long rate, Ticker ticker )
+        {
+            this.rate = rate;
+            this.ticker = ticker;
+            this.lastRefill = ticker.read();
+        }
+
+        long reserve( long bytes, int boost )
+        {
+            long r = rate;
+            if ( r <= 0 ) return 0;
+            r *= boost;
+            synchronized ( this )
+            {
+                long now = ticker.read();
+                tokens = Math.min( r, tokens + (now - lastRefill) * (double) r / TimeUnit.SECONDS.toNanos( 1 ) );
+                lastRefill = now;
+                tokens -= bytes;
+                return tokens < 0 ? (long) (-tokens * TimeUnit.SECONDS.toNanos( 1 ) / r) : 0;
+            }
+        }
+    }
+}
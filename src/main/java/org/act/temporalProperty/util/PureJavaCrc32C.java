@@ -17,6 +17,8 @@
  */
 package org.act.temporalProperty.util;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.zip.Checksum;
 
 /**
@@ -25,7 +27,6 @@ import java.util.zip.Checksum;
  * and implemented on many Intel chipsets supporting SSE4.2.
  */
 // this code was taken from Apache Hadoop
-// todo modify to work on buffers directly to avoid extra memcopy
 public class PureJavaCrc32C
         implements Checksum
 {
@@ -118,6 +119,38 @@ public class PureJavaCrc32C
         crc = localCrc;
     }
 
+    /**
+     * update with the remaining bytes of buffer (position is not changed), works on direct
+     * (e.g. mapped) buffers without copy: reads 8 bytes at a time with getLong.
+     */
+    public void update(ByteBuffer buffer)
+    {
+        int off = buffer.position();
+        int len = buffer.remaining();
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + off, len);
+            return;
+        }
+        ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int localCrc = crc;
+        while (len > 7) {
+            long v = b.getLong(off);
+            int lo = (int) v ^ localCrc;
+            int hi = (int) (v >>> 32);
+            localCrc = (T8_7[lo & 0xff] ^ T8_6[(lo >>> 8) & 0xff])
+                    ^ (T8_5[(lo >>> 16) & 0xff] ^ T8_4[lo >>> 24]);
+            localCrc ^= (T8_3[hi & 0xff] ^ T8_2[(hi >>> 8) & 0xff])
+                    ^ (T8_1[(hi >>> 16) & 0xff] ^ T8_0[hi >>> 24]);
+            off += 8;
+            len -= 8;
+        }
+        while (len > 0) {
+            localCrc = (localCrc >>> 8) ^ T8_0[(localCrc ^ b.get(off++)) & 0xff];
+            len--;
+        }
+        crc = localCrc;
+    }
+
     @Override
     public void update(int b)
     {
@@ -104,6 +104,17 @@ public final class Slices
         return copiedBuffer((ByteBuffer) source.duplicate().order(ByteOrder.LITTLE_ENDIAN).clear().limit(newPosition + length).position(newPosition));
     }
 
+    /**
+     * 与copiedBuffer相同，但source是堆上的ByteBuffer时不复制，返回与source共享数据的Slice
+     */
+    public static Slice sharedBuffer(ByteBuffer source, int sourceOffset, int length)
+    {
+        if (source.hasArray()) {
+            return new Slice(source.array(), source.arrayOffset() + source.position() + sourceOffset, length);
+        }
+        return copiedBuffer(source, sourceOffset, length);
+    }
+
     public static Slice copiedBuffer(ByteBuffer source)
     {
         Preconditions.checkNotNull(source, "source is null");
@@ -135,4 +135,21 @@ public final class VariableLengthQuantity
         }
         throw new NumberFormatException("last byte of variable length int has high bit set");
     }
+
+    public static long readVariableLengthLong(ByteBuffer sliceInput)
+    {
+        long result = 0;
+        for (int shift = 0; shift <= 63; shift += 7) {
+            long b = sliceInput.get() & 0xFF;
+
+            // add the lower 7 bits to the result
+            result |= ((b & 0x7f) << shift);
+
+            // if high bit is not set, this is the last byte in the number
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new NumberFormatException("last byte of variable length int has high bit set");
+    }
 }
@@ -0,0 +1,51 @@
+package org.act.temporalProperty.impl;
+
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.util.DynamicSliceOutput;
+import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.vo.EntityPropertyId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class InternalKeyTest
+{
+    @Test
+    public void encodedOrderSameAsKeyOrder()
+    {
+        Random random = new Random( 7 );
+        ValueType[] types = {ValueType.VALUE, ValueType.INVALID, ValueType.INT, ValueType.SLICE};
+        TimePointL[] times = {TimePointL.Init, TimePointL.Now, new TimePointL( 0 ), new TimePointL( 1 ), new TimePointL( TimePointL.NOW_VAL - 2 )};
+        List<InternalKey> keys = new ArrayList<>();
+        for ( int i = 0; i < 500; i++ )
+        {
+            int pid = random.nextInt( 5 ) - 2;
+            long eid = i % 3 == 0 ? random.nextLong() : random.nextInt( 5 ) - 2;
+            TimePointL time = i % 2 == 0 ? times[random.nextInt( times.length )] : new TimePointL( random.nextInt( 100 ) );
+            keys.add( new InternalKey( pid, eid, time, types[random.nextInt( types.length )] ) );
+        }
+        for ( InternalKey a : keys )
+        {
+            Slice ea = a.encode();
+            InternalKey decoded = InternalKey.decode( ea );
+            Assert.assertEquals( a.toString(), decoded.toString() );
+            for ( InternalKey b : keys )
+            {
+                Assert.assertEquals( a + " " + b, Integer.signum( a.compareTo( b ) ), Integer.signum( InternalKey.compareEncoded( ea, b.encode() ) ) );
+            }
+        }
+    }
+
+    @Test
+    public void decodeV2()
+    {
+        DynamicSliceOutput out = new DynamicSliceOutput( InternalKey.ENCODED_LENGTH );
+        new EntityPropertyId( 12, 3 ).encode( out );
+        out.writeLong( SequenceNumber.packTimeAndValueType( 100, ValueType.INT ) );
+        InternalKey key = InternalKey.decodeV2( out.slice() );
+        Assert.assertEquals( new InternalKey( 3, 12, new TimePointL( 100 ), ValueType.INT ).toString(), key.toString() );
+    }
+}
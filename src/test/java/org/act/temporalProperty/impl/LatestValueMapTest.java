@@ -0,0 +1,79 @@
+package org.act.temporalProperty.impl;
+
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.vo.EntityPropertyId;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatestValueMapTest
+{
+    @Test
+    public void updateFromMemTable()
+    {
+        LatestValueMap map = new LatestValueMap( 4 );
+        MemTable memTable = new MemTable();
+        EntityPropertyId id = new EntityPropertyId( 1, 2 );
+        Assert.assertNull( map.get( id ) );
+
+        memTable.addToNow( new InternalKey( id, new TimePointL( 10 ), ValueType.INT ), value( 7 ) );
+        map.update( id, () -> memTable.latest( id ) );
+        InternalEntry latest = map.get( id );
+        Assert.assertEquals( 7, latest.getValue().getInt( 0 ) );
+        Assert.assertEquals( new TimePointL( 10 ), latest.getKey().getStartTime() );
+
+        memTable.addToNow( new InternalKey( id, new TimePointL( 20 ), ValueType.INVALID ), new Slice( 0 ) );
+        map.update( id, () -> memTable.latest( id ) );
+        Assert.assertEquals( ValueType.INVALID, map.get( id ).getKey().getValueType() );
+
+        // a finite interval keeps the value after it.
+        memTable.addInterval( new InternalKey( id, new TimePointL( 30 ), ValueType.INT ), new TimePointL( 40 ), value( 8 ) );
+        map.update( id, () -> memTable.latest( id ) );
+        Assert.assertEquals( ValueType.INVALID, map.get( id ).getKey().getValueType() );
+        memTable.addToNow( new InternalKey( id, new TimePointL( 50 ), ValueType.INT ), value( 9 ) );
+        map.update( id, () -> memTable.latest( id ) );
+        Assert.assertEquals( 9, map.get( id ).getValue().getInt( 0 ) );
+
+        // the value at Now is unknown in a new memtable with only a finite interval, the full query path is used.
+        MemTable next = new MemTable();
+        next.addInterval( new InternalKey( id, new TimePointL( 60 ), ValueType.INT ), new TimePointL( 70 ), value( 10 ) );
+        map.update( id, () -> next.latest( id ) );
+        Assert.assertNull( map.get( id ) );
+        map.update( id, () -> memTable.latest( id ) );
+        Assert.assertEquals( 9, map.get( id ).getValue().getInt( 0 ) );
+
+        // values longer than MAX_INLINE_VALUE are not kept.
+        map.put( new InternalEntry( new InternalKey( id, new TimePointL( 60 ), ValueType.SLICE ), new Slice( LatestValueMap.MAX_INLINE_VALUE + 1 ) ) );
+        Assert.assertNull( map.get( id ) );
+        Assert.assertEquals( 1, map.size() );
+    }
+
+    @Test
+    public void resizeAndInvalidate()
+    {
+        LatestValueMap map = new LatestValueMap( 4 );
+        for ( long e = 0; e < 10_000; e++ )
+        {
+            for ( int p = 0; p < 2; p++ )
+            {
+                map.put( new InternalEntry( new InternalKey( p, e, new TimePointL( e ), ValueType.INT ), value( (int) e + p ) ) );
+            }
+        }
+        Assert.assertEquals( 20_000, map.size() );
+        for ( long e = 0; e < 10_000; e++ )
+        {
+            Assert.assertEquals( e + 1, map.get( new EntityPropertyId( e, 1 ) ).getValue().getInt( 0 ) );
+            Assert.assertEquals( new TimePointL( e ), map.get( new EntityPropertyId( e, 0 ) ).getKey().getStartTime() );
+        }
+        map.invalidate( 0 );
+        Assert.assertNull( map.get( new EntityPropertyId( 5, 0 ) ) );
+        Assert.assertEquals( 6, map.get( new EntityPropertyId( 5, 1 ) ).getValue().getInt( 0 ) );
+    }
+
+    private static Slice value( int v )
+    {
+        Slice s = new Slice( 4 );
+        s.setInt( 0, v );
+        return s;
+    }
+}
@@ -2,13 +2,18 @@ package org.act.temporalProperty.impl;
 
 import com.google.common.collect.PeekingIterator;
 import org.act.temporalProperty.exception.ValueUnknownException;
+import org.act.temporalProperty.helper.EPRangeQueryIterator;
+import org.act.temporalProperty.helper.EqualValFilterIterator;
 import org.act.temporalProperty.query.TimeIntervalKey;
 import org.act.temporalProperty.query.TimePointL;
 import org.act.temporalProperty.util.Slice;
 import org.act.temporalProperty.util.Slices;
 import org.act.temporalProperty.vo.EntityPropertyId;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 public class MemTableTest
@@ -75,6 +80,72 @@ public class MemTableTest
 
     }
 
+    @Test
+    public void stripedConcurrentWrite() throws Exception {
+        MemTable striped = new MemTable(8);
+        MemTable single = new MemTable();
+        Thread[] writers = new Thread[4];
+        for(int w=0; w<writers.length; w++) {
+            final int offset = w;
+            writers[w] = new Thread(() -> {
+                for(int t=0; t<200; t++) {
+                    for(long entityId=offset; entityId<40; entityId+=writers.length) {
+                        set(striped, entityId, 1, t*10, t*10+9, t);
+                    }
+                }
+            });
+            writers[w].start();
+        }
+        for(int t=0; t<200; t++) {
+            for(long entityId=0; entityId<40; entityId++) {
+                set(single, entityId, 1, t*10, t*10+9, t);
+            }
+        }
+        for(Thread w : writers) w.join();
+
+        Assert.assertEquals(single.approximateMemUsage(), striped.approximateMemUsage());
+        for(long entityId=0; entityId<40; entityId++) {
+            Assert.assertEquals(123, striped.get(new InternalKey(new EntityPropertyId(entityId, 1), new TimePointL(1235))).getInt(0));
+        }
+        int count = 0, expected = 0;
+        for (SearchableIterator it = striped.iterator(); it.hasNext(); it.next()) count++;
+        for (SearchableIterator it = single.iterator(); it.hasNext(); it.next()) expected++;
+        Assert.assertEquals(expected, count);
+    }
+
+    @Test
+    public void immutableQueueNewestFirst() throws Exception {
+        // queued oldest first, intervals overlap.
+        MemTable oldest = new MemTable(), middle = new MemTable(), newest = new MemTable(), active = new MemTable();
+        set(oldest, 1, 1, 0, 1000, 1);
+        set(middle, 1, 1, 10, 30, 2);
+        set(newest, 1, 1, 20, 40, 3);
+        set(active, 1, 1, 35, 50, 4);
+        List<MemTable> immutables = Arrays.asList(oldest, middle, newest);
+
+        int[][] expected = {{0, 1}, {10, 2}, {20, 3}, {35, 4}, {51, 1}};
+        for(int i=0; i<expected.length; i++) {
+            int end = i+1<expected.length ? expected[i+1][0]-1 : 1000;
+            for(int t : new int[]{expected[i][0], end}) {
+                InternalKey key = new InternalKey(new EntityPropertyId(1, 1), new TimePointL(t));
+                Assert.assertEquals(expected[i][1], TemporalPropertyStoreImpl.memTableValue(active, immutables, key).getInt(0));
+            }
+        }
+
+        EPRangeQueryIterator range = new EPRangeQueryIterator(new EntityPropertyId(1, 1), new TimePointL(0), new TimePointL(1000));
+        TemporalPropertyStoreImpl.addMemTables(range, active, immutables, null);
+        range.build();
+        range.seekFloor(new InternalKey(new EntityPropertyId(1, 1), new TimePointL(0)));
+        SearchableIterator it = new EqualValFilterIterator(range);
+        for(int[] e : expected) {
+            InternalEntry entry = it.next();
+            Assert.assertEquals(e[0], entry.getKey().getStartTime().val());
+            Assert.assertEquals(e[1], entry.getValue().getInt(0));
+        }
+        Assert.assertEquals(1001, it.next().getKey().getStartTime().val());
+        Assert.assertFalse(it.hasNext());
+    }
+
     private void set(MemTable table, long entityId, int propId, int timeStart, int timeEnd, int value) {
         Slice valSlice = Slices.allocate(8);
         valSlice.output().writeInt(value);
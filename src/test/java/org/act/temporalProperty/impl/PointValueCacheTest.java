@@ -0,0 +1,101 @@
+package org.act.temporalProperty.impl;
+
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.vo.EntityPropertyId;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PointValueCacheTest
+{
+    @Test
+    public void intervalsAndInvalidation()
+    {
+        for ( boolean offHeap : new boolean[]{false, true} )
+        {
+            PointValueCache cache = new PointValueCache( 1 << 20, offHeap );
+            EntityPropertyId id = new EntityPropertyId( 1, 2 );
+            cache.put( id, new TimePointL( 10 ), new TimePointL( 20 ), value( 7 ), cache.generation( id ) );
+            Assert.assertNull( cache.get( id, new TimePointL( 9 ) ) );
+            Assert.assertEquals( 7, cache.get( id, new TimePointL( 10 ) ).getInt( 0 ) );
+            Assert.assertEquals( 7, cache.get( id, new TimePointL( 20 ) ).getInt( 0 ) );
+            Assert.assertNull( cache.get( id, new TimePointL( 21 ) ) );
+            Assert.assertNull( cache.get( new EntityPropertyId( 1, 3 ), new TimePointL( 15 ) ) );
+
+            // a write between the query and put rejects the result.
+            long generation = cache.generation( id );
+            cache.invalidate( id );
+            Assert.assertNull( cache.get( id, new TimePointL( 15 ) ) );
+            cache.put( id, new TimePointL( 10 ), new TimePointL( 20 ), value( 8 ), generation );
+            Assert.assertNull( cache.get( id, new TimePointL( 15 ) ) );
+
+            cache.put( id, new TimePointL( 30 ), TimePointL.Now, value( 9 ), cache.generation( id ) );
+            Assert.assertEquals( 9, cache.get( id, TimePointL.Now ).getInt( 0 ) );
+            cache.invalidate( 2 );
+            Assert.assertNull( cache.get( id, TimePointL.Now ) );
+            Assert.assertEquals( 0, cache.size() );
+        }
+    }
+
+    @Test
+    public void overwriteEldest()
+    {
+        PointValueCache cache = new PointValueCache( 16 * 1024, true );
+        // 1KB per shard, the eldest values are overwritten when the shard is full.
+        for ( long e = 0; e < 10_000; e++ )
+        {
+            EntityPropertyId id = new EntityPropertyId( e, 0 );
+            cache.put( id, new TimePointL( 0 ), new TimePointL( 100 ), value( (int) e ), cache.generation( id ) );
+        }
+        Assert.assertTrue( cache.size() <= 16 * 1024 / 4 );
+        int cached = 0;
+        for ( long e = 0; e < 10_000; e++ )
+        {
+            Slice v = cache.get( new EntityPropertyId( e, 0 ), new TimePointL( 50 ) );
+            if ( v != null )
+            {
+                Assert.assertEquals( e, v.getInt( 0 ) );
+                cached++;
+            }
+        }
+        Assert.assertEquals( cache.size(), cached );
+        Assert.assertNotNull( cache.get( new EntityPropertyId( 9_999, 0 ), new TimePointL( 50 ) ) );
+    }
+
+    @Test
+    public void indexCountedInCapacity()
+    {
+        for ( boolean offHeap : new boolean[]{false, true} )
+        {
+            // small values: the number of results is limited by the heap cost of the index.
+            PointValueCache cache = new PointValueCache( 1 << 20, offHeap );
+            for ( long e = 0; e < 100_000; e++ )
+            {
+                EntityPropertyId id = new EntityPropertyId( e, 0 );
+                cache.put( id, new TimePointL( 0 ), new TimePointL( 100 ), value( (int) e ), cache.generation( id ) );
+                Assert.assertTrue( cache.memoryUsage() <= 1 << 20 );
+            }
+            Assert.assertTrue( cache.size() > 1000 && cache.size() < (1 << 20) / 100 );
+            Assert.assertNotNull( cache.get( new EntityPropertyId( 99_999, 0 ), new TimePointL( 50 ) ) );
+
+            // large values: the arena grows until values and index fill the capacity.
+            cache = new PointValueCache( 1 << 20, offHeap );
+            Slice large = new Slice( 4096 );
+            for ( long e = 0; e < 1000; e++ )
+            {
+                EntityPropertyId id = new EntityPropertyId( e, 0 );
+                cache.put( id, new TimePointL( 0 ), new TimePointL( 100 ), large, cache.generation( id ) );
+                Assert.assertTrue( cache.memoryUsage() <= 1 << 20 );
+            }
+            Assert.assertTrue( cache.size() > 100 );
+            Assert.assertEquals( large, cache.get( new EntityPropertyId( 999, 0 ), new TimePointL( 50 ) ) );
+        }
+    }
+
+    private static Slice value( int v )
+    {
+        Slice s = new Slice( 4 );
+        s.setInt( 0, v );
+        return s;
+    }
+}
@@ -0,0 +1,135 @@
+package org.act.temporalProperty.impl;
+
+import org.act.temporalProperty.helper.EPRangeQueryIterator;
+import org.act.temporalProperty.helper.EqualValFilterIterator;
+import org.act.temporalProperty.index.IndexMetaManager;
+import org.act.temporalProperty.index.IndexStore;
+import org.act.temporalProperty.meta.PropertyMetaData;
+import org.act.temporalProperty.meta.SystemMeta;
+import org.act.temporalProperty.meta.ValueContentType;
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.table.ChecksumMode;
+import org.act.temporalProperty.table.CompactionPolicy;
+import org.act.temporalProperty.table.TableComparator;
+import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.vo.EntityPropertyId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class SinglePropertyStoreTest
+{
+    private static final int ENTITIES = 20;
+
+    @Test
+    public void consolidateStableFiles() throws Exception
+    {
+        File dir = Files.createTempDirectory( "tps-consolidate" ).toFile();
+        SystemMeta meta = new SystemMeta();
+        meta.addProperty( new PropertyMetaData( 1, ValueContentType.INT ) );
+        TableCache cache = new TableCache( 100, TableComparator.instance(), ChecksumMode.OFF );
+        IndexMetaManager indexMeta = new IndexMetaManager( meta.getIndexes(), 0, 0 );
+        meta.initStore( dir, cache, indexMeta, new IndexStore( new File( dir, "index" ), null, indexMeta ), null );
+        SinglePropertyStore store = meta.getStore( 1 );
+        PropertyMetaData pMeta = meta.getProperties().get( 1 );
+
+        // every two memtables are merged to a stable file of 200 time points, the first point of the next memtable goes to its buffer.
+        store.setCompactionPolicy( CompactionPolicy.cascade( 2, 1 ) );
+        for ( int k = 0; k < 10; k++ )
+        {
+            MemTable mem = new MemTable();
+            for ( int e = 0; e < ENTITIES; e++ )
+            {
+                mem.addInterval( new InternalKey( 1, e, new TimePointL( k * 100 ), ValueType.INT ), new TimePointL( k * 100 + 49 ), value( k * 1000 + e ) );
+                mem.addInterval( new InternalKey( 1, e, new TimePointL( k * 100 + 50 ), ValueType.INT ), new TimePointL( k * 100 + 99 ), value( e % 3 == 0 ? k * 1000 + e : -e ) );
+            }
+            run( store.merge( mem ) );
+        }
+        Assert.assertEquals( 5, pMeta.getStableFiles().size() );
+        Assert.assertTrue( pMeta.getUnStableFiles().isEmpty() );
+        List<FileMetaData> files = new ArrayList<>( pMeta.getStableFiles().values() );
+
+        // partition boundary: 0,200,400 | 600,800
+        Assert.assertEquals( files.subList( 0, 3 ), store.pickConsolidateGroup( Long.MAX_VALUE, 500, 3 ) );
+        // 0,200 | 400,600 | 800
+        Assert.assertNull( store.pickConsolidateGroup( Long.MAX_VALUE, 400, 3 ) );
+        // size limit (file and its buffer): no more than 2 files a group.
+        long minSize = Long.MAX_VALUE, maxSize = 0;
+        for ( FileMetaData f : files )
+        {
+            FileBuffer buffer = pMeta.getStableBuffers( f.getNumber() );
+            long size = f.getFileSize() + (buffer == null ? 0 : buffer.size());
+            minSize = Math.min( minSize, size );
+            maxSize = Math.max( maxSize, size );
+        }
+        Assert.assertTrue( minSize * 3 > maxSize * 2 );
+        Assert.assertEquals( files.subList( 0, 2 ), store.pickConsolidateGroup( maxSize * 2, 0, 2 ) );
+        Assert.assertNull( store.pickConsolidateGroup( maxSize * 2, 0, 3 ) );
+        // a file larger than the limit is never grouped.
+        Assert.assertNull( store.pickConsolidateGroup( minSize, 0, 1 ) );
+
+        List<Integer> points = pointValues( store );
+        List<String> ranges = rangeValues( store );
+        Assert.assertTrue( store.needConsolidate() );
+        run( store.consolidateTask() );
+        Assert.assertEquals( 1, pMeta.getStableFiles().size() );
+        Assert.assertFalse( store.needConsolidate() );
+        Assert.assertEquals( points, pointValues( store ) );
+        Assert.assertEquals( ranges, rangeValues( store ) );
+    }
+
+    private static void run( BackgroundTask task ) throws Exception
+    {
+        task.runTask();
+        task.updateMeta();
+        task.cleanUp();
+    }
+
+    private static List<Integer> pointValues( SinglePropertyStore store )
+    {
+        List<Integer> result = new ArrayList<>();
+        for ( int e = 0; e < ENTITIES; e++ )
+        {
+            for ( int t = 0; t < 1100; t += 7 )
+            {
+                Slice v = store.getPointValue( new InternalKey( new EntityPropertyId( e, 1 ), new TimePointL( t ) ) );
+                result.add( v == null ? null : v.getInt( 0 ) );
+            }
+        }
+        Assert.assertEquals( Integer.valueOf( 9000 ), result.get( 999 / 7 ) );
+        return result;
+    }
+
+    private static List<String> rangeValues( SinglePropertyStore store )
+    {
+        List<String> result = new ArrayList<>();
+        for ( int e = 0; e < ENTITIES; e++ )
+        {
+            EntityPropertyId id = new EntityPropertyId( e, 1 );
+            EPRangeQueryIterator range = new EPRangeQueryIterator( id, new TimePointL( 0 ), new TimePointL( 1100 ) );
+            TemporalPropertyStoreImpl.addMemTables( range, new MemTable(), Collections.emptyList(), null );
+            store.getRangeValueIter( range, new TimePointL( 0 ), new TimePointL( 1100 ) );
+            range.build();
+            range.seekFloor( new InternalKey( id, new TimePointL( 0 ) ) );
+            for ( SearchableIterator it = new EqualValFilterIterator( range ); it.hasNext(); )
+            {
+                InternalEntry entry = it.next();
+                result.add( entry.getKey().toString() + "=" + entry.getValue().getInt( 0 ) );
+            }
+        }
+        Assert.assertTrue( result.contains( new InternalKey( new EntityPropertyId( 1, 1 ), new TimePointL( 950 ), ValueType.INT ) + "=-1" ) );
+        return result;
+    }
+
+    private static Slice value( int v )
+    {
+        Slice s = new Slice( 4 );
+        s.setInt( 0, v );
+        return s;
+    }
+}
@@ -0,0 +1,102 @@
+package org.act.temporalProperty.impl;
+
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.table.ChecksumMode;
+import org.act.temporalProperty.table.Table;
+import org.act.temporalProperty.table.TableBuilder;
+import org.act.temporalProperty.table.TableComparator;
+import org.act.temporalProperty.util.Slice;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+public class TableCacheTest
+{
+    @Test
+    public void budgetByFilesAndMappedBytes() throws IOException
+    {
+        String[] files = new String[4];
+        for ( int i = 0; i < files.length; i++ ) files[i] = table( 1000 );
+        long fileSize = new File( files[0] ).length();
+
+        TableCache byFiles = new TableCache( 2, Long.MAX_VALUE, TableComparator.instance(), ChecksumMode.OFF, null );
+        for ( String f : files ) byFiles.getTable( f );
+        Table hot = byFiles.getTable( files[3] );
+        Assert.assertEquals( 2, byFiles.openFiles() );
+        Assert.assertEquals( 2, byFiles.evictions() );
+        Assert.assertEquals( 4, byFiles.misses() );
+        Assert.assertEquals( 1, byFiles.hits() );
+        Assert.assertSame( hot, byFiles.getTable( files[3] ) );
+        Assert.assertEquals( 2 * fileSize, byFiles.mappedBytes() );
+        Assert.assertTrue( byFiles.pendingUnmapBytes() <= 2 * fileSize );
+
+        // room for 2.5 files, the file just opened is kept even if it alone exceeds the budget.
+        TableCache byBytes = new TableCache( 100, fileSize * 5 / 2, TableComparator.instance(), ChecksumMode.OFF, null );
+        for ( String f : files ) byBytes.getTable( f );
+        Assert.assertEquals( 2, byBytes.openFiles() );
+        Assert.assertTrue( byBytes.mappedBytes() <= fileSize * 5 / 2 );
+
+        byBytes.evict( files[3] );
+        Assert.assertEquals( 1, byBytes.openFiles() );
+        Assert.assertEquals( 1000, count( byBytes.newIterator( files[3] ) ) );
+        Assert.assertEquals( 2, byBytes.openFiles() );
+    }
+
+    @Test
+    public void reclaimEvictedBeforeOpening() throws IOException
+    {
+        String[] files = new String[4];
+        for ( int i = 0; i < files.length; i++ ) files[i] = table( 1000 );
+        TableCache cache = new TableCache( 2, Long.MAX_VALUE, TableComparator.instance(), ChecksumMode.OFF, null );
+
+        SearchableIterator held = cache.newIterator( files[0] );
+        cache.getTable( files[1] );
+        cache.getTable( files[2] );
+        Assert.assertEquals( 1, cache.pendingUnmapFiles() );
+        Assert.assertEquals( 0, cache.reclaimWaits() );
+        // the evicted file is still read, waits for a while and opens anyway.
+        cache.getTable( files[3] );
+        Assert.assertEquals( 1, cache.reclaimWaits() );
+        Assert.assertEquals( 2, cache.pendingUnmapFiles() );
+        Assert.assertEquals( 1000, count( held ) );
+
+        // unreachable evicted files are reclaimed before the next file is opened.
+        held = null;
+        cache.getTable( files[0] );
+        Assert.assertEquals( 2, cache.reclaimWaits() );
+        Assert.assertTrue( cache.pendingUnmapFiles() <= 1 );
+        Assert.assertEquals( 2, cache.openFiles() );
+    }
+
+    private static long count( SearchableIterator iterator )
+    {
+        long count = 0;
+        while ( iterator.hasNext() )
+        {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+
+    private static String table( int entries ) throws IOException
+    {
+        File tmp = File.createTempFile( "cache", "table" );
+        tmp.deleteOnExit();
+        try ( FileChannel channel = new RandomAccessFile( tmp, "rw" ).getChannel() )
+        {
+            TableBuilder builder = new TableBuilder( new Options(), channel, TableComparator.instance() );
+            for ( long e = 0; e < entries; e++ )
+            {
+                Slice value = new Slice( 8 );
+                builder.add( new InternalKey( 1, e, new TimePointL( 0 ), ValueType.LONG ).encode(), value );
+            }
+            builder.finish();
+        }
+        return tmp.getAbsolutePath();
+    }
+}
@@ -0,0 +1,66 @@
+package org.act.temporalProperty.impl;
+
+import org.act.temporalProperty.exception.ValueUnknownException;
+import org.act.temporalProperty.helper.StoreInitial;
+import org.act.temporalProperty.query.TimeIntervalKey;
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.util.Slices;
+import org.act.temporalProperty.vo.EntityPropertyId;
+import org.act.temporalProperty.vo.TimeIntervalValueEntry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+
+public class WriteAheadLogTest
+{
+    @Test
+    public void replayAfterCrash() throws Exception
+    {
+        File dir = Files.createTempDirectory( "tps-wal" ).toFile();
+        WriteAheadLog wal = new WriteAheadLog( dir, new MemTable(), 0, 0 );
+        for ( int t = 0; t < 100; t++ )
+        {
+            wal.sync( wal.append( Collections.singletonList( new TimeIntervalValueEntry( key( t % 10, t * 10, t * 10 + 9 ), value( t ) ) ) ) );
+            if ( t == 50 ) wal.rotate();
+        }
+        // no close(): simulate a crash.
+
+        StoreInitial starter = new StoreInitial( dir );
+        MemTable recovered = starter.getMemTable();
+        for ( int t = 0; t < 100; t++ )
+        {
+            Assert.assertEquals( t, get( recovered, t % 10, t * 10 + 5 ) );
+        }
+
+        // recovered data is re-logged into a new file, old files can be deleted.
+        WriteAheadLog reopened = new WriteAheadLog( dir, recovered, 0, 0 );
+        starter.deleteRecoveredLogs();
+        Assert.assertEquals( 1, WriteAheadLog.existLogFiles( dir ).size() );
+        MemTable again = new StoreInitial( dir ).getMemTable();
+        Assert.assertEquals( 99, get( again, 9, 995 ) );
+
+        reopened.close();
+        Assert.assertTrue( WriteAheadLog.existLogFiles( dir ).isEmpty() );
+    }
+
+    private TimeIntervalKey key( long entityId, long start, long end )
+    {
+        return new TimeIntervalKey( new EntityPropertyId( entityId, 1 ), new TimePointL( start ), new TimePointL( end ), ValueType.INT );
+    }
+
+    private Slice value( int v )
+    {
+        Slice s = Slices.allocate( 4 );
+        s.setInt( 0, v );
+        return s;
+    }
+
+    private int get( MemTable table, long entityId, long time ) throws ValueUnknownException
+    {
+        return table.get( new InternalKey( new EntityPropertyId( entityId, 1 ), new TimePointL( time ) ) ).getInt( 0 );
+    }
+}
@@ -0,0 +1,129 @@
+package org.act.temporalProperty.table;
+
+import org.act.temporalProperty.impl.InternalKey;
+import org.act.temporalProperty.impl.Options;
+import org.act.temporalProperty.impl.ValueType;
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.util.BackgroundThread;
+import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.vo.EntityPropertyId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Map.Entry;
+
+public class BlockCacheTest
+{
+    @Test
+    public void scanResistant()
+    {
+        Block block = block();
+        // room for about 10 blocks in each shard, including the entry overhead.
+        long capacity = 16 * 10 * (block.size() + 160);
+        BlockCache cache = new BlockCache( capacity );
+        for ( int i = 0; i < 20; i++ )
+        {
+            cache.put( "hot", i, block );
+            Assert.assertSame( block, cache.get( "hot", i ) );
+        }
+        for ( int i = 0; i < 10_000; i++ ) cache.put( "scan", i, block );
+        int hot = 0;
+        for ( int i = 0; i < 20; i++ ) if ( cache.get( "hot", i ) != null ) hot++;
+        Assert.assertEquals( 20, hot );
+        Assert.assertTrue( cache.size() <= capacity );
+
+        cache.invalidate( "hot" );
+        Assert.assertNull( cache.get( "hot", 0 ) );
+    }
+
+    @Test
+    public void tableUsesCache() throws IOException
+    {
+        File tmp = File.createTempFile( "cache", "table" );
+        tmp.deleteOnExit();
+        try ( FileChannel channel = new RandomAccessFile( tmp, "rw" ).getChannel() )
+        {
+            TableBuilder builder = new TableBuilder( new Options(), channel, new BytewiseComparator() );
+            for ( long i = 0; i < 10000; i++ )
+            {
+                Slice key = new Slice( 8 );
+                key.setLong( 0, i );
+                builder.add( key, key );
+            }
+            builder.finish();
+
+            BlockCache cache = new BlockCache( 1 << 20 );
+            Table table = new FileChannelTable( tmp.getAbsolutePath(), channel, new BytewiseComparator(), ChecksumMode.ALWAYS, cache );
+            for ( int round = 0; round < 2; round++ )
+            {
+                long count = 0;
+                for ( Entry<Slice,Slice> entry : table ) count++;
+                Assert.assertEquals( 10000, count );
+            }
+            Assert.assertTrue( cache.hits() > 0 );
+            Assert.assertEquals( cache.hits(), cache.misses() );
+
+            // blocks read by background work are not cached.
+            BlockCache background = new BlockCache( 1 << 20 );
+            table = new FileChannelTable( tmp.getAbsolutePath(), channel, new BytewiseComparator(), ChecksumMode.ALWAYS, background );
+            boolean marked = BackgroundThread.enter();
+            try
+            {
+                for ( Entry<Slice,Slice> entry : table ) Assert.assertNotNull( entry.getValue() );
+            }
+            finally
+            {
+                BackgroundThread.exit( marked );
+            }
+            Assert.assertTrue( background.misses() > 0 );
+            Assert.assertEquals( 0, background.size() );
+        }
+    }
+
+    @Test
+    public void reopenUsesCachedMeta() throws IOException
+    {
+        File tmp = File.createTempFile( "meta", "table" );
+        tmp.deleteOnExit();
+        try ( FileChannel channel = new RandomAccessFile( tmp, "rw" ).getChannel() )
+        {
+            TableBuilder builder = new TableBuilder( new Options().filterBitsPerKey( 10 ).tableStats( true ), channel, TableComparator.instance() );
+            for ( long e = 0; e < 1000; e++ )
+            {
+                Slice value = new Slice( 4 );
+                builder.add( new InternalKey( 1, e, new TimePointL( 0 ), ValueType.INT ).encode(), value );
+            }
+            builder.finish();
+
+            BlockCache cache = new BlockCache( 1 << 20 );
+            String name = tmp.getAbsolutePath();
+            Table first = new FileChannelTable( name, channel, TableComparator.instance(), ChecksumMode.ALWAYS, cache );
+            Table second = new FileChannelTable( name, channel, TableComparator.instance(), ChecksumMode.ALWAYS, cache );
+            Assert.assertEquals( 1, cache.metaMisses() );
+            Assert.assertEquals( 1, cache.metaHits() );
+            Assert.assertTrue( cache.metaSize() > 0 );
+            Assert.assertSame( first.stats(), second.stats() );
+            Assert.assertTrue( second.mayContain( new EntityPropertyId( 10, 1 ) ) );
+            long count = 0;
+            for ( Entry<Slice,Slice> entry : second ) count++;
+            Assert.assertEquals( 1000, count );
+
+            cache.invalidate( name );
+            Assert.assertEquals( 0, cache.metaSize() );
+            new FileChannelTable( name, channel, TableComparator.instance(), ChecksumMode.ALWAYS, cache );
+            Assert.assertEquals( 2, cache.metaMisses() );
+        }
+    }
+
+    private Block block()
+    {
+        BlockBuilder builder = new BlockBuilder( 1024, 16, new BytewiseComparator() );
+        Slice key = new Slice( 8 );
+        builder.add( key, new Slice( 1000 ) );
+        return new Block( builder.finish(), new BytewiseComparator() );
+    }
+}
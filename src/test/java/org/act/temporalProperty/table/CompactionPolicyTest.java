@@ -0,0 +1,74 @@
+package org.act.temporalProperty.table;
+
+import org.act.temporalProperty.impl.FileMetaData;
+import org.act.temporalProperty.query.TimePointL;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CompactionPolicyTest
+{
+    @Test
+    public void cascade()
+    {
+        CompactionPolicy policy = CompactionPolicy.cascade( 5, 0 );
+        // file 0,1,2 exist, then 4: merge 0,1,2 to 3.
+        List<FileMetaData> files = files( new long[]{0, 1, 2, 4}, new long[]{1, 2, 4, 8} );
+        List<FileMetaData> picked = policy.pick( files, 1 );
+        Assert.assertEquals( files.subList( 0, 3 ), picked );
+        Assert.assertFalse( policy.toStable( picked, 1 ) );
+
+        files = files( new long[]{0, 1, 2, 3, 4}, new long[]{1, 2, 4, 8, 16} );
+        picked = policy.pick( files, 1 );
+        Assert.assertEquals( files, picked );
+        Assert.assertTrue( policy.toStable( picked, 1 ) );
+
+        Assert.assertTrue( CompactionPolicy.cascade( 5, 3 ).toStable( files( new long[]{0}, new long[]{2} ), 1 ) );
+    }
+
+    @Test
+    public void sizeTiered()
+    {
+        CompactionPolicy policy = CompactionPolicy.sizeTiered( 4, 1000 );
+        Assert.assertTrue( policy.pick( files( new long[]{0, 1}, new long[]{10, 10} ), 10 ).isEmpty() );
+
+        // only files with similar size are merged.
+        List<FileMetaData> files = files( new long[]{3, 0, 7}, new long[]{10, 15, 200} );
+        List<FileMetaData> picked = policy.pick( files, 10 );
+        Assert.assertEquals( files.subList( 0, 2 ), picked );
+
+        files = files( new long[]{3, 0, 7}, new long[]{100, 300, 500} );
+        picked = policy.pick( files, 100 );
+        Assert.assertEquals( files, picked );
+        Assert.assertTrue( policy.toStable( picked, 100 ) );
+    }
+
+    @Test
+    public void timeWindow()
+    {
+        CompactionPolicy policy = CompactionPolicy.timeWindow( 100, 5, 0 );
+        // files cover [40,99]: same window, cascade.
+        List<FileMetaData> files = files( new long[]{1, 0, 2}, new long[]{1, 1, 1} );
+        Assert.assertTrue( policy.pick( files, 1 ).isEmpty() );
+
+        // files cover [40,119]: window crossed, all to stable.
+        files = files( new long[]{0, 1, 2}, new long[]{1, 1, 1} );
+        List<FileMetaData> crossed = new ArrayList<>( files );
+        crossed.set( 0, new FileMetaData( 0, 1, new TimePointL( 80 ), new TimePointL( 119 ) ) );
+        Assert.assertEquals( crossed, policy.pick( crossed, 1 ) );
+        Assert.assertTrue( policy.toStable( crossed, 1 ) );
+    }
+
+    // newest first, file i covers [80-20i, 99-20i].
+    private List<FileMetaData> files( long[] numbers, long[] sizes )
+    {
+        List<FileMetaData> result = new ArrayList<>();
+        for ( int i = 0; i < numbers.length; i++ )
+        {
+            result.add( new FileMetaData( numbers[i], sizes[i], new TimePointL( 80 - 20 * i ), new TimePointL( 99 - 20 * i ) ) );
+        }
+        return result;
+    }
+}
@@ -0,0 +1,76 @@
+package org.act.temporalProperty.table;
+
+import org.act.temporalProperty.impl.InternalKey;
+import org.act.temporalProperty.impl.Options;
+import org.act.temporalProperty.impl.ValueType;
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.vo.EntityPropertyId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+public class FilterBlockTest
+{
+    @Test
+    public void falsePositiveRate()
+    {
+        FilterBlock.Builder builder = new FilterBlock.Builder( 10 );
+        for ( long e = 0; e < 10000; e++ ) builder.add( 1, e * 2 );
+        FilterBlock filter = new FilterBlock( builder.finish() );
+        int falsePositive = 0;
+        for ( long e = 0; e < 10000; e++ )
+        {
+            Assert.assertTrue( filter.mayContain( 1, e * 2 ) );
+            if ( filter.mayContain( 1, e * 2 + 1 ) ) falsePositive++;
+            if ( filter.mayContain( 2, e * 2 ) ) falsePositive++;
+        }
+        Assert.assertTrue( "false positive " + falsePositive, falsePositive < 20000 * 0.03 );
+    }
+
+    @Test
+    public void tableWithFilter() throws IOException
+    {
+        File tmp = File.createTempFile( "filter", "table" );
+        tmp.deleteOnExit();
+        try ( FileChannel channel = new FileOutputStream( tmp ).getChannel() )
+        {
+            TableBuilder builder = new TableBuilder( new Options().filterBitsPerKey( 10 ), channel, TableComparator.instance() );
+            Slice value = new Slice( 4 );
+            for ( long e = 0; e < 1000; e += 10 )
+                for ( int t = 0; t < 5; t++ )
+                    builder.add( new InternalKey( 3, e, new TimePointL( t ), ValueType.INT ).encode(), value );
+            builder.finish();
+        }
+        try ( FileChannel channel = new FileInputStream( tmp ).getChannel() )
+        {
+            Table table = new MMapTable( tmp.getName(), channel, TableComparator.instance(), false );
+            int falsePositive = 0;
+            for ( long e = 0; e < 1000; e++ )
+            {
+                boolean may = table.mayContain( new EntityPropertyId( e, 3 ) );
+                if ( e % 10 == 0 ) Assert.assertTrue( may );
+                else if ( may ) falsePositive++;
+            }
+            Assert.assertTrue( falsePositive < 50 );
+            Assert.assertEquals( 500, count( table ) );
+        }
+    }
+
+    private int count( Table table )
+    {
+        int cnt = 0;
+        TableIterator iterator = table.iterator();
+        while ( iterator.hasNext() )
+        {
+            iterator.next();
+            cnt++;
+        }
+        return cnt;
+    }
+}
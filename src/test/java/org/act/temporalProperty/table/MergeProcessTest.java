@@ -0,0 +1,272 @@
+package org.act.temporalProperty.table;
+
+import org.act.temporalProperty.exception.TPSRuntimeException;
+import org.act.temporalProperty.impl.BackgroundTask;
+import org.act.temporalProperty.impl.InternalKey;
+import org.act.temporalProperty.impl.MemTable;
+import org.act.temporalProperty.impl.TableCache;
+import org.act.temporalProperty.impl.ValueType;
+import org.act.temporalProperty.index.IndexMetaManager;
+import org.act.temporalProperty.index.IndexStore;
+import org.act.temporalProperty.meta.PropertyMetaData;
+import org.act.temporalProperty.meta.SystemMeta;
+import org.act.temporalProperty.meta.ValueContentType;
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.util.Slice;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class MergeProcessTest
+{
+    private File dir;
+    private SystemMeta meta;
+    private TableCache cache;
+    private IndexStore index;
+
+    @Test
+    public void poolMergesAllProperties() throws Exception
+    {
+        open( 4 );
+        MergeProcess merge = mergeProcess( 4, 3 );
+        merge.start();
+        merge.add( memTable( 4, 100, 0 ) );
+        merge.shutdown();
+
+        Assert.assertTrue( merge.immutableMemTables().isEmpty() );
+        for ( int p = 0; p < 4; p++ )
+        {
+            Assert.assertEquals( 1, meta.getProperties().get( p ).getUnStableFiles().size() );
+            for ( int e = 0; e < 100; e++ )
+            {
+                Assert.assertEquals( e * 10 + p, meta.getStore( p ).getPointValue( key( p, e, 5 ) ).getInt( 0 ) );
+            }
+        }
+    }
+
+    @Test
+    public void poolTaskFailure() throws Exception
+    {
+        open( 4 );
+        MergeProcess merge = mergeProcess( 4, 3 );
+        List<BackgroundTask> tasks = new ArrayList<>();
+        for ( Map.Entry<Integer,MemTable> e : memTable( 4, 100, 0 ).separateByProperty().entrySet() )
+        {
+            tasks.add( meta.getStore( e.getKey() ).merge( e.getValue() ) );
+        }
+        Files.delete( new File( dir, "2" ).toPath() );
+        try
+        {
+            merge.runTasks( tasks );
+            Assert.fail( "should throw" );
+        }
+        catch ( IOException ignore )
+        {
+            // the other tasks still run to the end.
+            Assert.assertTrue( new File( dir, "0" ).list().length > 0 );
+            Assert.assertTrue( new File( dir, "3" ).list().length > 0 );
+        }
+
+        try
+        {
+            merge.runTasks( Collections.singletonList( failingTask() ) );
+            Assert.fail( "should throw" );
+        }
+        catch ( TPSRuntimeException e )
+        {
+            Assert.assertTrue( e.getCause() instanceof IllegalStateException );
+        }
+        merge.shutdown();
+    }
+
+    @Test
+    public void poolInterrupted() throws Exception
+    {
+        open( 4 );
+        MergeProcess merge = mergeProcess( 4, 3 );
+        List<BackgroundTask> tasks = new ArrayList<>();
+        for ( Map.Entry<Integer,MemTable> e : memTable( 4, 100, 0 ).separateByProperty().entrySet() )
+        {
+            tasks.add( meta.getStore( e.getKey() ).merge( e.getValue() ) );
+        }
+        Thread.currentThread().interrupt();
+        try
+        {
+            merge.runTasks( tasks );
+            Assert.fail( "should throw" );
+        }
+        catch ( InterruptedIOException ignore )
+        {
+            Assert.assertTrue( Thread.interrupted() );
+        }
+        merge.shutdown();
+    }
+
+    @Test
+    public void writerBlocksWhenQueueFull() throws Exception
+    {
+        open( 1 );
+        MergeProcess merge = mergeProcess( 2, 1 );
+        merge.add( memTable( 1, 100, 0 ) );
+        merge.add( memTable( 1, 100, 1 ) );
+        AtomicBoolean added = new AtomicBoolean( false );
+        Thread writer = new Thread( () -> {
+            meta.lock.lockExclusive();
+            try
+            {
+                merge.add( memTable( 1, 100, 2 ) );
+                added.set( true );
+            }
+            catch ( Exception e )
+            {
+                throw new RuntimeException( e );
+            }
+            finally
+            {
+                meta.lock.unlockExclusive();
+            }
+        } );
+        writer.start();
+        while ( writer.getState() != Thread.State.WAITING ) // waiting for merge done.
+        {
+            Thread.sleep( 1 );
+        }
+        Assert.assertFalse( added.get() );
+        Assert.assertEquals( 2, merge.queuedCount() );
+
+        merge.start();
+        writer.join();
+        Assert.assertTrue( added.get() );
+        merge.shutdown();
+        Assert.assertEquals( 0, merge.queuedCount() );
+        for ( int e = 0; e < 100; e++ )
+        {
+            Assert.assertEquals( e * 10 + 2, meta.getStore( 0 ).getPointValue( key( 0, e, 5 ) ).getInt( 0 ) );
+        }
+    }
+
+    @Test
+    public void eventOrderAndDedup() throws Exception
+    {
+        open( 1 );
+        MergeProcess merge = mergeProcess( 4, 1 );
+        // submitted in reverse priority order, duplicates are dropped.
+        merge.addConsolidateEvent( 0 );
+        merge.addConsolidateEvent( 0 );
+        merge.createNewIndex();
+        merge.createNewIndex();
+        merge.addBufferEvent( 0, true, 3 );
+        merge.addBufferEvent( 0, false, 3 );
+        merge.addBufferEvent( 0, true, 3 );
+        merge.add( memTable( 1, 100, 0 ) );
+        merge.add( memTable( 1, 100, 1 ) );
+        merge.shutdown(); // the thread is not started, only queues the event.
+        Assert.assertEquals(
+                Arrays.asList( "MEMTABLE", "MEMTABLE", "BUFFER(0.st.3)", "BUFFER(0.un.3)", "SHUTDOWN", "INDEX", "CONSOLIDATE(0)" ),
+                withoutSeq( merge.queuedEvents() ) );
+
+        // memtables queued before shutdown are merged, then the thread stops.
+        merge.start();
+        merge.join();
+        List<String> handled = new ArrayList<>();
+        for ( MergeProcess.TaskTiming timing : merge.recentTimings() )
+        {
+            if ( !timing.type.equals( "TASK" ) && !timing.type.equals( "COMMIT" ) ) handled.add( timing.name );
+        }
+        Assert.assertEquals( Arrays.asList( "MEMTABLE", "MEMTABLE", "BUFFER(0.st.3)", "BUFFER(0.un.3)" ), withoutSeq( handled ) );
+        Assert.assertEquals( 0, merge.queuedCount() );
+        Assert.assertEquals( 1, meta.getProperties().get( 0 ).getUnStableFiles().size() );
+        for ( int e = 0; e < 100; e++ )
+        {
+            Assert.assertEquals( e * 10 + 1, meta.getStore( 0 ).getPointValue( key( 0, e, 5 ) ).getInt( 0 ) );
+        }
+
+        // handled events can be submitted again.
+        merge.addBufferEvent( 0, true, 3 );
+        Assert.assertEquals( Arrays.asList( "BUFFER(0.st.3)", "INDEX", "CONSOLIDATE(0)" ), withoutSeq( merge.queuedEvents() ) );
+    }
+
+    private static List<String> withoutSeq( List<String> events )
+    {
+        List<String> result = new ArrayList<>();
+        for ( String e : events ) result.add( e.replaceAll( "#\\d+$", "" ) );
+        return result;
+    }
+
+    private void open( int properties ) throws Exception
+    {
+        dir = Files.createTempDirectory( "tps-merge" ).toFile();
+        meta = new SystemMeta();
+        for ( int p = 0; p < properties; p++ )
+        {
+            meta.addProperty( new PropertyMetaData( p, ValueContentType.INT ) );
+        }
+        cache = new TableCache( 100, TableComparator.instance(), ChecksumMode.OFF );
+        IndexMetaManager indexMeta = new IndexMetaManager( meta.getIndexes(), 0, 0 );
+        index = new IndexStore( new File( dir, "index" ), null, indexMeta );
+        meta.initStore( dir, cache, indexMeta, index, null );
+    }
+
+    private MergeProcess mergeProcess( int maxQueued, int mergeThreads )
+    {
+        return new MergeProcess( dir.getAbsolutePath(), meta, cache, index, null, maxQueued, mergeThreads );
+    }
+
+    // value of entity e and property p is e*10+p+delta, from time 0 to Now.
+    private static MemTable memTable( int properties, int entities, int delta )
+    {
+        MemTable mem = new MemTable();
+        for ( int p = 0; p < properties; p++ )
+        {
+            for ( int e = 0; e < entities; e++ )
+            {
+                mem.addToNow( key( p, e, 0 ), value( e * 10 + p + delta ) );
+            }
+        }
+        return mem;
+    }
+
+    private static BackgroundTask failingTask()
+    {
+        return new BackgroundTask()
+        {
+            @Override
+            public void runTask()
+            {
+                throw new IllegalStateException( "fail" );
+            }
+
+            @Override
+            public void updateMeta()
+            {
+            }
+
+            @Override
+            public void cleanUp()
+            {
+            }
+        };
+    }
+
+    private static InternalKey key( int propertyId, long entityId, long time )
+    {
+        return new InternalKey( propertyId, entityId, new TimePointL( time ), ValueType.INT );
+    }
+
+    private static Slice value( int v )
+    {
+        Slice s = new Slice( 4 );
+        s.setInt( 0, v );
+        return s;
+    }
+}
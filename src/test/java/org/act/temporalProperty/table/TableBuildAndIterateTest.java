@@ -13,7 +13,10 @@ import java.util.concurrent.Executors;
 import junit.framework.Assert;
 
 import org.act.temporalProperty.impl.Filename;
+import org.act.temporalProperty.impl.InternalKey;
 import org.act.temporalProperty.impl.Options;
+import org.act.temporalProperty.impl.ValueType;
+import org.act.temporalProperty.query.TimePointL;
 import org.act.temporalProperty.util.Slice;
 import org.junit.Before;
 import org.junit.Test;
@@ -54,6 +57,87 @@ public class TableBuildAndIterateTest
         channel.close();
     }
 
+    @Test
+    public void prefixCompressedSeek() throws IOException
+    {
+        File tmp = File.createTempFile( "prefix", "table" );
+        tmp.deleteOnExit();
+        FileChannel channel = new FileOutputStream( tmp ).getChannel();
+        TableBuilder builder = new TableBuilder( new Options(), channel, TableComparator.instance() );
+        int count = 0;
+        for ( long e = 0; e < 100; e++ )
+            for ( int t = 0; t < 100; t++ )
+            {
+                Slice value = new Slice( 4 );
+                value.setInt( 0, t );
+                builder.add( new InternalKey( 1, e * 2, new TimePointL( t * 10 ), ValueType.INT ).encode(), value );
+                count++;
+            }
+        builder.finish();
+        // key (20) + value (4) + header (3) per entry if keys were stored in full
+        Assert.assertTrue( channel.size() < count * 27 * 2 / 3 );
+        channel.close();
+
+        channel = new FileInputStream( tmp ).getChannel();
+        Table table = new MMapTable( "", channel, TableComparator.instance(), false );
+        for ( long e = 0; e < 100; e++ )
+            for ( int t = 0; t < 1000; t += 7 )
+            {
+                TableIterator iterator = table.iterator();
+                iterator.seek( new InternalKey( 1, e * 2, new TimePointL( t ), ValueType.INT ).encode() );
+                InternalKey floor = InternalKey.decode( iterator.next().getKey() );
+                Assert.assertEquals( e * 2, floor.getId().getEntityId() );
+                Assert.assertEquals( t / 10 * 10, floor.getStartTime().val() );
+            }
+        int iterated = 0;
+        for ( Entry<Slice,Slice> entry : table ) iterated++;
+        Assert.assertEquals( count, iterated );
+        channel.close();
+    }
+
+    @Test
+    public void segmentedMMap() throws IOException
+    {
+        File tmp = File.createTempFile( "segment", "table" );
+        tmp.deleteOnExit();
+        FileChannel channel = new FileOutputStream( tmp ).getChannel();
+        TableBuilder builder = new TableBuilder( new Options().filterBitsPerKey( 10 ).tableStats( true ), channel, TableComparator.instance() );
+        for ( long e = 0; e < 100; e++ )
+            for ( int t = 0; t < 100; t++ )
+            {
+                Slice value = new Slice( 8 );
+                value.setLong( 0, e * t );
+                builder.add( new InternalKey( 1, e, new TimePointL( t ), ValueType.LONG ).encode(), value );
+            }
+        builder.finish();
+        channel.close();
+
+        // blocks (and the footer) cross segment boundaries, as in files larger than 2GB. blocks inside a segment are read without copying.
+        MMapTable.segmentSize = 4096;
+        try
+        {
+            FileChannel mmapChannel = new FileInputStream( tmp ).getChannel();
+            FileChannel fileChannel = new FileInputStream( tmp ).getChannel();
+            Table segmented = new MMapTable( "", mmapChannel, TableComparator.instance(), ChecksumMode.ALWAYS, true );
+            Table expected = new FileChannelTable( "", fileChannel, TableComparator.instance(), ChecksumMode.ALWAYS );
+            Assert.assertEquals( 10000, segmented.stats().entryCount() );
+            TableIterator iterator = segmented.iterator();
+            for ( Entry<Slice,Slice> entry : expected )
+            {
+                Entry<Slice,Slice> actual = iterator.next();
+                Assert.assertEquals( entry.getKey(), actual.getKey() );
+                Assert.assertEquals( entry.getValue(), actual.getValue() );
+            }
+            Assert.assertFalse( iterator.hasNext() );
+            mmapChannel.close();
+            fileChannel.close();
+        }
+        finally
+        {
+            MMapTable.segmentSize = MMapTable.SEGMENT_SIZE;
+        }
+    }
+
     //    @Before
     public void buildFile()
     {
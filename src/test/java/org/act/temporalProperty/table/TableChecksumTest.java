@@ -0,0 +1,116 @@
+package org.act.temporalProperty.table;
+
+import org.act.temporalProperty.impl.CompressionType;
+import org.act.temporalProperty.impl.InternalKey;
+import org.act.temporalProperty.impl.Options;
+import org.act.temporalProperty.impl.ValueType;
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.util.BackgroundThread;
+import org.act.temporalProperty.util.Slice;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class TableChecksumTest
+{
+    @Test
+    public void detectCorruptedBlock() throws IOException
+    {
+        File tmp = File.createTempFile( "checksum", "table" );
+        tmp.deleteOnExit();
+        try ( FileChannel channel = new RandomAccessFile( tmp, "rw" ).getChannel() )
+        {
+            TableBuilder builder = new TableBuilder( new Options().compressionType( CompressionType.NONE ), channel, TableComparator.instance() );
+            Slice value = new Slice( 4 );
+            for ( int t = 0; t < 1000; t++ ) builder.add( new InternalKey( 1, 1, new TimePointL( t ), ValueType.INT ).encode(), value );
+            builder.finish();
+            Assert.assertEquals( 1000, count( new MMapTable( tmp.getName(), channel, TableComparator.instance(), ChecksumMode.ALWAYS ) ) );
+
+            // corrupt a value in the first data block.
+            channel.write( ByteBuffer.wrap( new byte[]{42} ), 30 );
+            Assert.assertEquals( 1000, count( new MMapTable( tmp.getName(), channel, TableComparator.instance(), ChecksumMode.OFF ) ) );
+            long verified = Table.verifiedBlocks();
+            try
+            {
+                count( new FileChannelTable( tmp.getName(), channel, TableComparator.instance(), ChecksumMode.ALWAYS ) );
+                Assert.fail( "corruption not detected" );
+            }
+            catch ( IllegalStateException e )
+            {
+                Assert.assertTrue( e.getMessage().contains( "checksum mismatch" ) );
+            }
+            Assert.assertTrue( Table.verifiedBlocks() > verified );
+            // foreground threads do not verify in COMPACTION mode.
+            Assert.assertEquals( 1000, count( new MMapTable( tmp.getName(), channel, TableComparator.instance(), ChecksumMode.COMPACTION ) ) );
+            // background work does.
+            boolean background = BackgroundThread.enter();
+            try
+            {
+                count( new MMapTable( tmp.getName(), channel, TableComparator.instance(), ChecksumMode.COMPACTION ) );
+                Assert.fail( "corruption not detected" );
+            }
+            catch ( IllegalStateException e )
+            {
+                Assert.assertTrue( e.getMessage().contains( "checksum mismatch" ) );
+            }
+            finally
+            {
+                BackgroundThread.exit( background );
+            }
+            Assert.assertFalse( BackgroundThread.isBackground() );
+        }
+    }
+
+    @Test
+    public void concurrentSnappyRead() throws Exception
+    {
+        File tmp = File.createTempFile( "snappy", "table" );
+        tmp.deleteOnExit();
+        try ( FileChannel channel = new RandomAccessFile( tmp, "rw" ).getChannel() )
+        {
+            TableBuilder builder = new TableBuilder( new Options().compressionType( CompressionType.SNAPPY ), channel, TableComparator.instance() );
+            for ( int t = 0; t < 20000; t++ )
+            {
+                Slice value = new Slice( 4 );
+                value.setInt( 0, t % 7 );
+                builder.add( new InternalKey( 1, 1, new TimePointL( t ), ValueType.INT ).encode(), value );
+            }
+            builder.finish();
+            for ( Table table : new Table[]{
+                    new MMapTable( tmp.getName(), channel, TableComparator.instance(), ChecksumMode.ALWAYS ),
+                    new FileChannelTable( tmp.getName(), channel, TableComparator.instance(), ChecksumMode.ALWAYS )} )
+            {
+                Thread[] readers = new Thread[4];
+                int[] counts = new int[readers.length];
+                for ( int i = 0; i < readers.length; i++ )
+                {
+                    final int id = i;
+                    readers[i] = new Thread( () -> counts[id] = count( table ) );
+                    readers[i].start();
+                }
+                for ( int i = 0; i < readers.length; i++ )
+                {
+                    readers[i].join();
+                    Assert.assertEquals( 20000, counts[i] );
+                }
+            }
+        }
+    }
+
+    private int count( Table table )
+    {
+        int cnt = 0;
+        TableIterator iterator = table.iterator();
+        while ( iterator.hasNext() )
+        {
+            iterator.next();
+            cnt++;
+        }
+        return cnt;
+    }
+}
@@ -0,0 +1,69 @@
+package org.act.temporalProperty.table;
+
+import org.act.temporalProperty.impl.CompressionType;
+import org.act.temporalProperty.impl.InternalKey;
+import org.act.temporalProperty.impl.Options;
+import org.act.temporalProperty.impl.ValueType;
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.util.Slice;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Map.Entry;
+
+public class TableCompressionTest
+{
+    @Test
+    public void deflateRoundTrip() throws IOException
+    {
+        long none = write( new Options().compressionType( CompressionType.NONE ) );
+        long snappy = write( new Options().compressionType( CompressionType.SNAPPY ) );
+        long deflate = write( new Options().compressionType( CompressionType.DEFLATE ).compressionDictionary( false ) );
+        long dictionary = write( new Options().compressionType( CompressionType.DEFLATE ).compressionDictionary( true ) );
+        Assert.assertTrue( snappy < none );
+        Assert.assertTrue( deflate < snappy );
+        Assert.assertTrue( dictionary < deflate );
+    }
+
+    private long write( Options options ) throws IOException
+    {
+        File tmp = File.createTempFile( "compress", "table" );
+        tmp.deleteOnExit();
+        try ( FileChannel channel = new RandomAccessFile( tmp, "rw" ).getChannel() )
+        {
+            TableBuilder builder = new TableBuilder( options.filterBitsPerKey( 10 ), channel, TableComparator.instance() );
+            for ( long e = 0; e < 100; e++ )
+                for ( int t = 0; t < 200; t++ )
+                    builder.add( new InternalKey( 1, e, new TimePointL( t * 10 ), ValueType.INT ).encode(), value( e, t ) );
+            builder.finish();
+            for ( Table table : new Table[]{
+                    new MMapTable( tmp.getName(), channel, TableComparator.instance(), ChecksumMode.ALWAYS ),
+                    new FileChannelTable( tmp.getName(), channel, TableComparator.instance(), ChecksumMode.ALWAYS )} )
+            {
+                TableIterator iterator = table.iterator();
+                for ( long e = 0; e < 100; e++ )
+                    for ( int t = 0; t < 200; t++ )
+                    {
+                        Entry<Slice,Slice> entry = iterator.next();
+                        Assert.assertEquals( new InternalKey( 1, e, new TimePointL( t * 10 ), ValueType.INT ).encode(), entry.getKey() );
+                        Assert.assertEquals( value( e, t ), entry.getValue() );
+                    }
+                Assert.assertFalse( iterator.hasNext() );
+            }
+            return channel.size();
+        }
+    }
+
+    // a slowly changing sensor value.
+    private Slice value( long e, int t )
+    {
+        Slice value = new Slice( 8 );
+        value.setInt( 0, (int) (e * 100 + t / 10) );
+        value.setInt( 4, 1000 + t % 3 );
+        return value;
+    }
+}
@@ -0,0 +1,63 @@
+package org.act.temporalProperty.table;
+
+import org.act.temporalProperty.impl.InternalKey;
+import org.act.temporalProperty.impl.Options;
+import org.act.temporalProperty.impl.ValueType;
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.util.Slice;
+import org.act.temporalProperty.vo.EntityPropertyId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+public class TableStatsTest
+{
+    @Test
+    public void statsOfTable() throws IOException
+    {
+        File tmp = File.createTempFile( "stats", "table" );
+        tmp.deleteOnExit();
+        try ( FileChannel channel = new RandomAccessFile( tmp, "rw" ).getChannel() )
+        {
+            TableBuilder builder = new TableBuilder( new Options().filterBitsPerKey( 10 ).tableStats( true ), channel, TableComparator.instance() );
+            for ( long e = 100; e < 2100; e++ )
+            {
+                for ( int t = 0; t < 20; t++ )
+                {
+                    ValueType type = t == 19 ? ValueType.INVALID : ValueType.INT;
+                    Slice value = new Slice( type == ValueType.INT ? 4 : 0 );
+                    builder.add( new InternalKey( 1, e, new TimePointL( 1000 + e + t ), type ).encode(), value );
+                }
+            }
+            builder.finish();
+
+            Table table = new MMapTable( tmp.getName(), channel, TableComparator.instance(), ChecksumMode.ALWAYS );
+            TableStats stats = table.stats();
+            Assert.assertNotNull( stats );
+            Assert.assertEquals( 40000, stats.entryCount() );
+            Assert.assertEquals( 38000, stats.count( ValueType.INT ) );
+            Assert.assertEquals( 2000, stats.count( ValueType.INVALID ) );
+            Assert.assertEquals( 100, stats.minEntityId() );
+            Assert.assertEquals( 2099, stats.maxEntityId() );
+            Assert.assertEquals( 2000, stats.distinctIds(), 2000 * 0.1 );
+            Assert.assertEquals( 1100, stats.minTime().val() );
+            Assert.assertEquals( 1000 + 2099 + 19, stats.maxTime().val() );
+            Assert.assertTrue( stats.blockCount() > 1 );
+            for ( int i = 1; i < stats.blockCount(); i++ )
+            {
+                Assert.assertTrue( stats.blockMinTime( i - 1 ).compareTo( stats.blockMinTime( i ) ) <= 0 );
+            }
+            Assert.assertTrue( stats.mayOverlap( new TimePointL( 0 ), new TimePointL( 1100 ) ) );
+            Assert.assertFalse( stats.mayOverlap( new TimePointL( 0 ), new TimePointL( 1099 ) ) );
+            Assert.assertFalse( stats.mayOverlap( new TimePointL( 3119 ), TimePointL.Now ) );
+
+            Assert.assertTrue( table.mayContain( new EntityPropertyId( 500, 1 ) ) );
+            Assert.assertFalse( table.mayContain( new EntityPropertyId( 99, 1 ) ) );
+            Assert.assertFalse( table.mayContain( new EntityPropertyId( 2100, 1 ) ) );
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.act.temporalProperty.table;
+
+import org.act.temporalProperty.impl.CompressionType;
+import org.act.temporalProperty.impl.InternalKey;
+import org.act.temporalProperty.impl.Options;
+import org.act.temporalProperty.impl.ValueType;
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.util.Slice;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TableSyncTest
+{
+    private static final int SYNC_INTERVAL = 64 * 1024;
+
+    @Test
+    public void forceEverySyncInterval() throws IOException
+    {
+        try ( ForceCountingChannel channel = build( new Options().syncInterval( SYNC_INTERVAL ).syncMetadata( false ) ) )
+        {
+            long size = channel.size();
+            Assert.assertTrue( size > 10 * SYNC_INTERVAL );
+            // force(false) after every SYNC_INTERVAL bytes at a block boundary, then once more in finish.
+            List<Long> positions = channel.forcePositions;
+            Assert.assertEquals( size / SYNC_INTERVAL + 1, positions.size(), 1 );
+            long last = 0;
+            for ( int i = 0; i < positions.size() - 1; i++ )
+            {
+                long gap = positions.get( i ) - last;
+                Assert.assertTrue( gap >= SYNC_INTERVAL && gap < SYNC_INTERVAL + 8 * 1024 );
+                last = positions.get( i );
+            }
+            Assert.assertEquals( size, (long) positions.get( positions.size() - 1 ) );
+            Assert.assertEquals( 0, channel.metadataForces );
+        }
+    }
+
+    @Test
+    public void forceOnlyInFinishByDefault() throws IOException
+    {
+        try ( ForceCountingChannel channel = build( new Options() ) )
+        {
+            Assert.assertEquals( 1, channel.forcePositions.size() );
+            Assert.assertEquals( 1, channel.metadataForces );
+        }
+    }
+
+    private static ForceCountingChannel build( Options options ) throws IOException
+    {
+        File tmp = File.createTempFile( "sync", "table" );
+        tmp.deleteOnExit();
+        ForceCountingChannel channel = new ForceCountingChannel( new RandomAccessFile( tmp, "rw" ).getChannel() );
+        TableBuilder builder = new TableBuilder( options.compressionType( CompressionType.NONE ), channel, TableComparator.instance() );
+        Slice value = new Slice( 8 );
+        for ( int t = 0; t < 50000; t++ )
+        {
+            builder.add( new InternalKey( 1, 1, new TimePointL( t ), ValueType.LONG ).encode(), value );
+        }
+        builder.finish();
+        return channel;
+    }
+
+    // records the file size each time force is called.
+    private static class ForceCountingChannel extends FileChannel
+    {
+        private final FileChannel in;
+        private final List<Long> forcePositions = new ArrayList<>();
+        private int metadataForces;
+
+        ForceCountingChannel( FileChannel in )
+        {
+            this.in = in;
+        }
+
+        @Override
+        public void force( boolean metaData ) throws IOException
+        {
+            forcePositions.add( in.size() );
+            if ( metaData ) metadataForces++;
+            in.force( metaData );
+        }
+
+        @Override
+        public int read( ByteBuffer dst ) throws IOException
+        {
+            return in.read( dst );
+        }
+
+        @Override
+        public long read( ByteBuffer[] dsts, int offset, int length ) throws IOException
+        {
+            return in.read( dsts, offset, length );
+        }
+
+        @Override
+        public int write( ByteBuffer src ) throws IOException
+        {
+            return in.write( src );
+        }
+
+        @Override
+        public long write( ByteBuffer[] srcs, int offset, int length ) throws IOException
+        {
+            return in.write( srcs, offset, length );
+        }
+
+        @Override
+        public long position() throws IOException
+        {
+            return in.position();
+        }
+
+        @Override
+        public FileChannel position( long newPosition ) throws IOException
+        {
+            in.position( newPosition );
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException
+        {
+            return in.size();
+        }
+
+        @Override
+        public FileChannel truncate( long size ) throws IOException
+        {
+            in.truncate( size );
+            return this;
+        }
+
+        @Override
+        public long transferTo( long position, long count, WritableByteChannel target ) throws IOException
+        {
+            return in.transferTo( position, count, target );
+        }
+
+        @Override
+        public long transferFrom( ReadableByteChannel src, long position, long count ) throws IOException
+        {
+            return in.transferFrom( src, position, count );
+        }
+
+        @Override
+        public int read( ByteBuffer dst, long position ) throws IOException
+        {
+            return in.read( dst, position );
+        }
+
+        @Override
+        public int write( ByteBuffer src, long position ) throws IOException
+        {
+            return in.write( src, position );
+        }
+
+        @Override
+        public MappedByteBuffer map( MapMode mode, long position, long size ) throws IOException
+        {
+            return in.map( mode, position, size );
+        }
+
+        @Override
+        public FileLock lock( long position, long size, boolean shared ) throws IOException
+        {
+            return in.lock( position, size, shared );
+        }
+
+        @Override
+        public FileLock tryLock( long position, long size, boolean shared ) throws IOException
+        {
+            return in.tryLock( position, size, shared );
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.act.temporalProperty.table;
+
+import org.act.temporalProperty.impl.InternalKey;
+import org.act.temporalProperty.impl.Options;
+import org.act.temporalProperty.impl.ValueType;
+import org.act.temporalProperty.query.TimePointL;
+import org.act.temporalProperty.util.Slice;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+
+public class TemporalBlockTest
+{
+    private static final ValueType[] TYPES = {ValueType.INT, ValueType.LONG, ValueType.FLOAT, ValueType.DOUBLE, ValueType.SLICE};
+
+    @Test
+    public void sameAsPlainBlocks() throws IOException
+    {
+        List<Slice> keys = new ArrayList<>();
+        List<Slice> values = new ArrayList<>();
+        Random random = new Random( 7 );
+        for ( long e = 0; e < 300; e++ )
+        {
+            ValueType type = TYPES[(int) (e % TYPES.length)];
+            int count = random.nextInt( 200 ) + 1;
+            long time = random.nextInt( 1000 );
+            for ( int t = 0; t < count; t++ )
+            {
+                // mostly regular sampling, sometimes a gap or an invalid (deleted) entry.
+                time += random.nextInt( 10 ) == 0 ? random.nextInt( 100000 ) + 1 : 10;
+                boolean invalid = random.nextInt( 20 ) == 0;
+                keys.add( new InternalKey( (int) (e % 3), e, new TimePointL( time ), invalid ? ValueType.INVALID : type ).encode() );
+                values.add( invalid ? new Slice( 0 ) : value( type, e, t ) );
+            }
+            if ( e % 10 == 0 )
+            {
+                keys.add( new InternalKey( (int) (e % 3), e, TimePointL.Now, type ).encode() );
+                values.add( value( type, e, count ) );
+            }
+        }
+        sort( keys, values );
+
+        try ( FileChannel plain = write( keys, values, false ); FileChannel temporal = write( keys, values, true ) )
+        {
+            Assert.assertTrue( temporal.size() * 2 < plain.size() );
+            Table plainTable = new MMapTable( "plain", plain, TableComparator.instance(), ChecksumMode.ALWAYS );
+            Table temporalTable = new FileChannelTable( "temporal", temporal, TableComparator.instance(), ChecksumMode.ALWAYS );
+
+            Table mappedTable = new MMapTable( "mapped", temporal, TableComparator.instance(), ChecksumMode.ALWAYS, true );
+            for ( Table table : new Table[]{temporalTable, mappedTable} )
+            {
+                TableIterator iterator = table.iterator();
+                for ( int i = 0; i < keys.size(); i++ )
+                {
+                    Entry<Slice,Slice> entry = iterator.next();
+                    Assert.assertEquals( keys.get( i ), entry.getKey() );
+                    Assert.assertEquals( values.get( i ), entry.getValue() );
+                }
+                Assert.assertFalse( iterator.hasNext() );
+            }
+
+            for ( int i = 0; i < 2000; i++ )
+            {
+                Slice target = new InternalKey( random.nextInt( 3 ), random.nextInt( 310 ), new TimePointL( random.nextInt( 100000 ) ), ValueType.INT ).encode();
+                TableIterator expected = plainTable.iterator();
+                TableIterator actual = temporalTable.iterator();
+                expected.seek( target );
+                actual.seek( target );
+                for ( int j = 0; j < 3 && expected.hasNext(); j++ )
+                {
+                    Assert.assertTrue( actual.hasNext() );
+                    Entry<Slice,Slice> a = actual.next();
+                    Entry<Slice,Slice> b = expected.next();
+                    Assert.assertEquals( b.getKey(), a.getKey() );
+                    Assert.assertEquals( b.getValue(), a.getValue() );
+                }
+            }
+        }
+    }
+
+    @Test
+    public void seekIntoRuns()
+    {
+        // 3 entities, 10 points each: one run per entity.
+        TemporalBlockBuilder builder = new TemporalBlockBuilder( 1024, TableComparator.instance() );
+        for ( long e = 0; e < 3; e++ )
+        {
+            for ( int t = 0; t < 10; t++ )
+            {
+                builder.add( key( e, t * 10 ), value( ValueType.INT, e, t ) );
+            }
+        }
+        Slice data = builder.finish();
+        // run i is restart point i: |restart positions|restart count|data size|
+        Assert.assertEquals( 3, data.getInt( data.length() - 8 ) );
+        Assert.assertEquals( 0, data.getInt( data.length() - 20 ) );
+        Assert.assertTrue( data.getInt( data.length() - 16 ) > 0 );
+
+        BlockIterator iterator = new TemporalBlock( data, TableComparator.instance() ).iterator();
+        for ( long e = 1; e < 3; e++ )
+        {
+            // exact match, between two points, first and last point of the run.
+            for ( int[] seek : new int[][]{{30, 3}, {55, 5}, {0, 0}, {90, 9}, {1000, 9}} )
+            {
+                iterator.seek( key( e, seek[0] ) );
+                Entry<Slice,Slice> entry = iterator.next();
+                Assert.assertEquals( key( e, seek[1] * 10 ), entry.getKey() );
+                Assert.assertEquals( value( ValueType.INT, e, seek[1] ), entry.getValue() );
+            }
+        }
+    }
+
+    private static Slice key( long entityId, long time )
+    {
+        return new InternalKey( 1, entityId, new TimePointL( time ), ValueType.INT ).encode();
+    }
+
+    private FileChannel write( List<Slice> keys, List<Slice> values, boolean temporal ) throws IOException
+    {
+        File tmp = File.createTempFile( "temporal", "table" );
+        tmp.deleteOnExit();
+        FileChannel channel = new RandomAccessFile( tmp, "rw" ).getChannel();
+        TableBuilder builder = new TableBuilder( new Options().temporalBlockFormat( temporal ), channel, TableComparator.instance() );
+        for ( int i = 0; i < keys.size(); i++ ) builder.add( keys.get( i ), values.get( i ) );
+        builder.finish();
+        return channel;
+    }
+
+    private void sort( List<Slice> keys, List<Slice> values )
+    {
+        List<Integer> order = new ArrayList<>();
+        for ( int i = 0; i < keys.size(); i++ ) order.add( i );
+        order.sort( ( a, b ) -> InternalKey.compareEncoded( keys.get( a ), keys.get( b ) ) );
+        List<Slice> k = new ArrayList<>();
+        List<Slice> v = new ArrayList<>();
+        for ( int i : order )
+        {
+            k.add( keys.get( i ) );
+            v.add( values.get( i ) );
+        }
+        keys.clear();
+        keys.addAll( k );
+        values.clear();
+        values.addAll( v );
+    }
+
+    private Slice value( ValueType type, long e, int t )
+    {
+        switch ( type )
+        {
+        case INT:
+            Slice i = new Slice( 4 );
+            i.setInt( 0, (int) (e * 1000 + t / 3) );
+            return i;
+        case LONG:
+            Slice l = new Slice( 8 );
+            l.setLong( 0, e * 1_000_000_000L - t * 7 );
+            return l;
+        case FLOAT:
+            Slice f = new Slice( 4 );
+            f.setInt( 0, Float.floatToIntBits( 20.5f + (t % 5) * 0.25f ) );
+            return f;
+        case DOUBLE:
+            Slice d = new Slice( 8 );
+            d.setLong( 0, Double.doubleToLongBits( Math.sin( t / 10.0 ) ) );
+            return d;
+        default:
+            Slice s = new Slice( 3 + t % 4 );
+            for ( int j = 0; j < s.length(); j++ ) s.setByte( j, 'a' + (t + j) % 26 );
+            return s;
+        }
+    }
+}
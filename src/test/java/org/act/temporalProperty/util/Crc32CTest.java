@@ -0,0 +1,33 @@
+package org.act.temporalProperty.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class Crc32CTest
+{
+    @Test
+    public void sameAsPureJava()
+    {
+        Random random = new Random( 3 );
+        for ( int len : new int[]{0, 1, 7, 8, 9, 100, 4096, 4099} )
+        {
+            byte[] data = new byte[len + 5];
+            random.nextBytes( data );
+            PureJavaCrc32C expected = new PureJavaCrc32C();
+            expected.update( data, 3, len );
+            expected.update( 1 );
+
+            ByteBuffer heap = ByteBuffer.wrap( data, 3, len );
+            ByteBuffer direct = ByteBuffer.allocateDirect( data.length );
+            direct.put( data ).position( 3 ).limit( 3 + len );
+            Assert.assertEquals( expected.getMaskedValue(), Crc32C.maskedValue( heap, 1 ) );
+            Assert.assertEquals( expected.getMaskedValue(), Crc32C.maskedValue( direct, 1 ) );
+            Assert.assertEquals( expected.getMaskedValue(), Crc32C.pureJavaMaskedValue( heap, 1 ) );
+            Assert.assertEquals( expected.getMaskedValue(), Crc32C.pureJavaMaskedValue( direct, 1 ) );
+            Assert.assertEquals( 3, direct.position() );
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.act.temporalProperty.util;
+
+import com.google.common.base.Ticker;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class IoRateLimiterTest
+{
+    private static final int MB = 1024 * 1024;
+
+    @Test
+    public void limitAndBoost()
+    {
+        FakeTicker ticker = new FakeTicker();
+        IoRateLimiter limiter = new IoRateLimiter( 0, 10 * MB, 4, ticker );
+        Assert.assertEquals( 500, millis( limiter.reserveWrite( 5 * MB ) ) );
+        // later callers wait after the debt.
+        Assert.assertEquals( 600, millis( limiter.reserveWrite( MB ) ) );
+        // reads are not limited.
+        Assert.assertEquals( 0, limiter.reserveRead( 100 * MB ) );
+
+        // at most one second of tokens are saved.
+        ticker.advance( 10_000 );
+        Assert.assertEquals( 0, limiter.reserveWrite( 10 * MB ) );
+        Assert.assertEquals( 100, millis( limiter.reserveWrite( MB ) ) );
+
+        // 4x faster while a writer is stalled: 1MB debt + 5MB - 100ms * 40MB/s = 2MB to wait.
+        ticker.advance( 100 );
+        limiter.stallBegin();
+        Assert.assertEquals( 50, millis( limiter.reserveWrite( 5 * MB ) ) );
+        limiter.stallEnd();
+
+        limiter.setWriteRate( 0 );
+        Assert.assertEquals( 0, limiter.reserveWrite( 100 * MB ) );
+    }
+
+    @Test
+    public void boundToThread() throws InterruptedException
+    {
+        IoRateLimiter limiter = new IoRateLimiter( MB, MB, 1 );
+        Assert.assertFalse( IoRateLimiter.isBound() );
+        AtomicReference<IoRateLimiter> inThread = new AtomicReference<>();
+        Thread t = new Thread( () -> {
+            IoRateLimiter.bind( limiter );
+            inThread.set( IoRateLimiter.current() );
+        } );
+        t.start();
+        t.join();
+        Assert.assertSame( limiter, inThread.get() );
+        Assert.assertFalse( IoRateLimiter.isBound() );
+        Assert.assertNotSame( limiter, IoRateLimiter.current() );
+    }
+
+    @Test( expected = UnsupportedOperationException.class )
+    public void unboundIsImmutable()
+    {
+        IoRateLimiter.current().setWriteRate( MB );
+    }
+
+    private static long millis( long nanos )
+    {
+        return Math.round( nanos / 1e6 );
+    }
+
+    private static class FakeTicker extends Ticker
+    {
+        private long nanos;
+
+        @Override
+        public long read()
+        {
+            return nanos;
+        }
+
+        void advance( long millis )
+        {
+            nanos += TimeUnit.MILLISECONDS.toNanos( millis );
+        }
+    }
+}